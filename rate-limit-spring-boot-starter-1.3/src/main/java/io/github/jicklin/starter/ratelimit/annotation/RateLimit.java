@@ -0,0 +1,83 @@
+package io.github.jicklin.starter.ratelimit.annotation;
+
+import io.github.jicklin.starter.ratelimit.model.RateLimitAlgorithm;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 方法限流注解
+ *
+ * 可以标注在Controller方法和普通Service方法上，限流参数在方法第一次调用时解析并缓存，
+ * 执行时不做路径匹配。非Web调用（定时任务、消息消费等）只检查方法维度。
+ * 超出限制时抛出RateLimitException。
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RateLimit {
+
+    /**
+     * 限流标识，作为规则ID和令牌桶键的一部分，默认为"类名#方法名(参数类型)"，重载方法互不影响
+     * 多个方法使用相同的标识时共享令牌桶
+     */
+    String key() default "";
+
+    /**
+     * 令牌桶容量（突发请求数）
+     */
+    int capacity() default 10;
+
+    /**
+     * 令牌补充速率（每秒补充的令牌数）
+     * 令牌桶和GCRA按每秒rate个连续补充，时间窗口只影响令牌桶的保留时间；
+     * 固定窗口和滑动窗口的窗口限额为rate × 窗口秒数（至少为1）
+     */
+    int rate() default 5;
+
+    /**
+     * 时间窗口
+     */
+    int timeWindow() default 1;
+
+    /**
+     * 时间窗口单位，默认秒
+     */
+    TimeUnit timeUnit() default TimeUnit.SECONDS;
+
+    /**
+     * 限流算法，默认令牌桶
+     */
+    RateLimitAlgorithm algorithm() default RateLimitAlgorithm.TOKEN_BUCKET;
+
+    /**
+     * 限流维度，默认只限制方法的总调用量
+     * 多个维度时全部通过才放行
+     */
+    Dimension[] dimensions() default {Dimension.METHOD};
+
+    /**
+     * 提示信息
+     */
+    String message() default "请求过于频繁，请稍后再试";
+
+    /**
+     * 限流维度枚举
+     */
+    enum Dimension {
+        /**
+         * 方法维度，所有调用共享一个令牌桶
+         */
+        METHOD,
+
+        /**
+         * IP维度，每个客户端IP一个令牌桶，只对Web请求生效
+         */
+        IP,
+
+        /**
+         * 用户维度，每个用户一个令牌桶，只对能识别用户的Web请求生效
+         */
+        USER
+    }
+}
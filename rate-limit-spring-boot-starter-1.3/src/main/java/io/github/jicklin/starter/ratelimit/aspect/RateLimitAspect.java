@@ -0,0 +1,77 @@
+package io.github.jicklin.starter.ratelimit.aspect;
+
+import io.github.jicklin.starter.ratelimit.annotation.RateLimit;
+import io.github.jicklin.starter.ratelimit.exception.RateLimitException;
+import io.github.jicklin.starter.ratelimit.model.RateLimitMethodDescriptor;
+import io.github.jicklin.starter.ratelimit.service.RateLimitService;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 方法限流切面
+ *
+ * 每个方法的@RateLimit注解只解析一次，之后直接使用缓存的限流描述。
+ * 在Web请求中调用时同时检查IP和用户维度，其他线程中调用只检查方法维度。
+ */
+@Aspect
+public class RateLimitAspect {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitAspect.class);
+
+    private final RateLimitService rateLimitService;
+
+    /**
+     * 方法到限流描述的缓存
+     */
+    private final Map<Method, RateLimitMethodDescriptor> descriptors = new ConcurrentHashMap<>();
+
+    public RateLimitAspect(RateLimitService rateLimitService) {
+        this.rateLimitService = rateLimitService;
+    }
+
+    @Around("@annotation(rateLimit)")
+    public Object around(ProceedingJoinPoint joinPoint, RateLimit rateLimit) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        if (method.getDeclaringClass().isInterface() && joinPoint.getTarget() != null) {
+            // JDK代理的签名是接口方法，不同实现类的方法分别解析
+            method = ClassUtils.getMostSpecificMethod(method, joinPoint.getTarget().getClass());
+        }
+        RateLimitMethodDescriptor descriptor = descriptors.computeIfAbsent(method, m -> RateLimitMethodDescriptor.of(m, rateLimit));
+
+        HttpServletRequest request = currentRequest();
+        if (!rateLimitService.isAllowed(request, descriptor)) {
+            logger.debug("方法调用被限流: {}", joinPoint.getSignature().toShortString());
+            throw new RateLimitException(descriptor.getMessage(), retryAfterMillis(request));
+        }
+        return joinPoint.proceed();
+    }
+
+    /**
+     * 当前线程绑定的HTTP请求，非Web调用时返回null
+     */
+    private HttpServletRequest currentRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes) {
+            return ((ServletRequestAttributes) attributes).getRequest();
+        }
+        return null;
+    }
+
+    private long retryAfterMillis(HttpServletRequest request) {
+        Object retryAfter = request != null ? request.getAttribute(RateLimitService.RETRY_AFTER_ATTRIBUTE) : null;
+        return retryAfter instanceof Long ? (Long) retryAfter : 0;
+    }
+}
@@ -8,14 +8,22 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import io.github.jicklin.starter.ratelimit.aspect.RateLimitAspect;
+import io.github.jicklin.starter.ratelimit.exception.RateLimitExceptionHandler;
+import io.github.jicklin.starter.ratelimit.interceptor.LiveStatsHandler;
 import io.github.jicklin.starter.ratelimit.interceptor.RateLimitInterceptor;
+import io.github.jicklin.starter.ratelimit.interceptor.RouteTemplateBinder;
 import io.github.jicklin.starter.ratelimit.service.RateLimitConfigService;
 import io.github.jicklin.starter.ratelimit.service.RateLimitService;
 import io.github.jicklin.starter.ratelimit.service.RateLimitStatsService;
+import io.github.jicklin.starter.ratelimit.service.impl.LocalRateLimitConfigService;
+import io.github.jicklin.starter.ratelimit.service.impl.LocalRateLimitService;
+import io.github.jicklin.starter.ratelimit.service.impl.LocalRateLimitStatsService;
 import io.github.jicklin.starter.ratelimit.service.impl.OptimizedRateLimitStatsService;
 import io.github.jicklin.starter.ratelimit.service.impl.RedisRateLimitConfigService;
 import io.github.jicklin.starter.ratelimit.service.impl.RedisRateLimitService;
 import io.github.jicklin.starter.ratelimit.service.impl.RedisRateLimitStatsService;
+import io.github.jicklin.starter.ratelimit.service.impl.StaticRateLimitConfigService;
 import io.github.jicklin.starter.ratelimit.strategy.RateLimitStrategy;
 import io.github.jicklin.starter.ratelimit.strategy.RateLimitStrategyFactory;
 import io.github.jicklin.starter.ratelimit.strategy.impl.IpRateLimitStrategy;
@@ -24,23 +32,31 @@ import io.github.jicklin.starter.ratelimit.strategy.impl.UserRateLimitStrategy;
 import io.github.jicklin.starter.ratelimit.util.SpringBootVersionChecker;
 import io.github.jicklin.starter.ratelimit.util.RedisKeyGenerator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.AnyNestedCondition;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.Ordered;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.SimpleUrlHandlerMapping;
 
 import javax.annotation.PostConstruct;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -49,7 +65,6 @@ import java.util.List;
  * 通过@EnableRateLimit注解触发，而不是通过spring.factories自动配置
  */
 @Configuration
-@ConditionalOnClass({RedisTemplate.class})
 @EnableConfigurationProperties(RateLimitProperties.class)
 @Import({RateLimitStatsConfiguration.class, DuplicateSubmitAutoConfiguration.class})
 public class RateLimitAutoConfiguration {
@@ -66,47 +81,14 @@ public class RateLimitAutoConfiguration {
         }
     }
 
-    /**
-     * 配置RedisTemplate（只有在没有RedisConnectionFactory时才跳过）
-     */
-    @Bean
-    @ConditionalOnMissingBean(name = "redisTemplate")
-    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory redisConnectionFactory) {
-        RedisTemplate<String, Object> template = new RedisTemplate<>();
-        template.setConnectionFactory(redisConnectionFactory);
-
-        // 设置键的序列化器
-        template.setKeySerializer(new StringRedisSerializer());
-        template.setHashKeySerializer(new StringRedisSerializer());
-
-        // 设置值的序列化器
-        template.setValueSerializer(new GenericJackson2JsonRedisSerializer(createObjectMapper()));
-        template.setHashValueSerializer(new GenericJackson2JsonRedisSerializer(createObjectMapper()));
-
-        template.afterPropertiesSet();
-        return template;
-    }
-
-    private ObjectMapper createObjectMapper() {
-
-        ObjectMapper om = new ObjectMapper();
-        om.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-        om.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        om.configure(JsonGenerator.Feature.WRITE_NUMBERS_AS_STRINGS, false);
-        om.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-        om.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
-        om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
-
-        return om;
-    }
-
     /**
      * 路径限流策略
      */
     @Bean
     @ConditionalOnMissingBean
-    public PathRateLimitStrategy pathRateLimitStrategy() {
-        return new PathRateLimitStrategy();
+    public PathRateLimitStrategy pathRateLimitStrategy(RateLimitProperties properties) {
+        RateLimitProperties.HandlerBindingConfig handlerBinding = properties.getHandlerBinding();
+        return new PathRateLimitStrategy(handlerBinding.isEnabled() && handlerBinding.isRouteTemplateKey());
     }
 
     /**
@@ -136,35 +118,54 @@ public class RateLimitAutoConfiguration {
         return new RateLimitStrategyFactory(strategies);
     }
 
-    /**
-     * 限流配置服务
+   /* *//**
+     * 限流拦截器
      */
     @Bean
-    @ConditionalOnMissingBean(RateLimitConfigService.class)
-    public RateLimitConfigService rateLimitConfigService(RedisTemplate<String, Object> redisTemplate, RedisKeyGenerator redisKeyGenerator) {
+    public RateLimitInterceptor rateLimitInterceptor(RateLimitService rateLimitService) {
+        return new RateLimitInterceptor(rateLimitService);
+    }
 
-        return new RedisRateLimitConfigService(redisTemplate, redisKeyGenerator);
+    /**
+     * 启动完成后按路由模板预先绑定限流规则
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "rate-limit.handler-binding", name = "enabled", havingValue = "true")
+    public RouteTemplateBinder rateLimitRouteTemplateBinder(RateLimitService rateLimitService) {
+        return new RouteTemplateBinder(rateLimitService);
     }
 
+    /**
+     * @RateLimit方法注解限流切面
+     */
+    @Bean
+    @ConditionalOnMissingBean(RateLimitAspect.class)
+    @ConditionalOnProperty(prefix = "rate-limit.annotation", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public RateLimitAspect rateLimitAspect(RateLimitService rateLimitService) {
+        return new RateLimitAspect(rateLimitService);
+    }
 
     /**
-     * 限流服务
+     * RateLimitException的默认处理，返回429
      */
     @Bean
-    @ConditionalOnMissingBean
-    public RateLimitService rateLimitService(RedisTemplate<String, Object> redisTemplate,
-                                           RateLimitConfigService configService,
-                                           RateLimitStatsService statsService,
-                                           RateLimitStrategyFactory strategyFactory) {
-        return new RedisRateLimitService(redisTemplate, configService, statsService, strategyFactory);
+    @ConditionalOnMissingBean(RateLimitExceptionHandler.class)
+    @ConditionalOnProperty(prefix = "rate-limit.annotation", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public RateLimitExceptionHandler rateLimitExceptionHandler() {
+        return new RateLimitExceptionHandler();
     }
 
-   /* *//**
-     * 限流拦截器
+    /**
+     * 本节点秒级实时统计查询接口，不经过限流拦截器
      */
     @Bean
-    public RateLimitInterceptor rateLimitInterceptor(RateLimitService rateLimitService) {
-        return new RateLimitInterceptor(rateLimitService);
+    @ConditionalOnProperty(prefix = "rate-limit.live-stats", name = "enabled", havingValue = "true")
+    public SimpleUrlHandlerMapping rateLimitLiveStatsHandlerMapping(RateLimitProperties properties,
+                                                                    RateLimitService rateLimitService) {
+        SimpleUrlHandlerMapping mapping = new SimpleUrlHandlerMapping();
+        mapping.setUrlMap(Collections.singletonMap(properties.getLiveStats().getPath(), new LiveStatsHandler(rateLimitService)));
+        mapping.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return mapping;
     }
 
    /* *//**//**
@@ -184,27 +185,192 @@ public class RateLimitAutoConfiguration {
 
 
     /**
-     * 优化的统计服务（适用于大量用户场景）
-     * 当启用优化模式时使用此服务
+     * RedisTemplate配置，Redis在类路径上且使用Redis限流引擎或启用防重复提交时创建
      */
-    @Bean
-    @ConditionalOnMissingBean(RateLimitStatsService.class)
-    public RateLimitStatsService redisRateLimitStatsService(
-            RedisTemplate<String, Object> redisTemplate,
-            RateLimitConfigService configService,
-            IpRateLimitStrategy ipStrategy,
-            UserRateLimitStrategy userStrategy,
-            RedisKeyGenerator keyGenerator,
-            RateLimitProperties properties) {
-        if (properties.getStats().isOptimized()) {
-            return new OptimizedRateLimitStatsService(redisTemplate, configService, ipStrategy, userStrategy, keyGenerator, properties);
-
-        }else {
-            return new RedisRateLimitStatsService(redisTemplate, configService, ipStrategy, userStrategy, keyGenerator, properties);
+    @Configuration
+    @ConditionalOnClass(RedisTemplate.class)
+    @Conditional(RedisTemplateCondition.class)
+    public static class RedisTemplateConfiguration {
+
+        /**
+         * 配置RedisTemplate（只有在没有RedisConnectionFactory时才跳过）
+         */
+        @Bean
+        @ConditionalOnMissingBean(name = "redisTemplate")
+        public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory redisConnectionFactory) {
+            RedisTemplate<String, Object> template = new RedisTemplate<>();
+            template.setConnectionFactory(redisConnectionFactory);
+
+            // 设置键的序列化器
+            template.setKeySerializer(new StringRedisSerializer());
+            template.setHashKeySerializer(new StringRedisSerializer());
+
+            // 设置值的序列化器
+            template.setValueSerializer(new GenericJackson2JsonRedisSerializer(createObjectMapper()));
+            template.setHashValueSerializer(new GenericJackson2JsonRedisSerializer(createObjectMapper()));
+
+            template.afterPropertiesSet();
+            return template;
+        }
+
+        private ObjectMapper createObjectMapper() {
 
+            ObjectMapper om = new ObjectMapper();
+            om.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            om.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+            om.configure(JsonGenerator.Feature.WRITE_NUMBERS_AS_STRINGS, false);
+            om.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+            om.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+            om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+
+            return om;
         }
     }
 
+    /**
+     * 使用Redis限流引擎或启用防重复提交（基于Redis实现）时才需要RedisTemplate
+     */
+    static class RedisTemplateCondition extends AnyNestedCondition {
+
+        RedisTemplateCondition() {
+            super(ConfigurationPhase.REGISTER_BEAN);
+        }
+
+        @ConditionalOnProperty(prefix = "rate-limit", name = "engine", havingValue = "redis", matchIfMissing = true)
+        static class RedisEngine {
+        }
+
+        @ConditionalOnProperty(prefix = "rate-limit.duplicate-submit", name = "enabled", havingValue = "true", matchIfMissing = true)
+        static class DuplicateSubmitEnabled {
+        }
+    }
+
+    /**
+     * Redis限流引擎（默认）
+     */
+    @Configuration
+    @ConditionalOnClass(RedisTemplate.class)
+    @ConditionalOnProperty(prefix = "rate-limit", name = "engine", havingValue = "redis", matchIfMissing = true)
+    public static class RedisEngineConfiguration {
+
+        /**
+         * 限流配置服务
+         */
+        @Bean
+        @ConditionalOnMissingBean(RateLimitConfigService.class)
+        public RateLimitConfigService rateLimitConfigService(RedisTemplate<String, Object> redisTemplate, RedisKeyGenerator redisKeyGenerator,
+                                                             RateLimitProperties properties) {
+
+            RateLimitProperties.RulesConfig rules = properties.getRules();
+            if (!"static".equalsIgnoreCase(rules.getSource())) {
+                return new RedisRateLimitConfigService(redisTemplate, redisKeyGenerator,
+                        rules.getRefreshIntervalMillis(), rules.getSnapshotFile(), rules.isLegacyReconcileEnabled());
+            }
+
+            // 静态规则，可选叠加Redis中的覆盖规则
+            RedisRateLimitConfigService overrides = rules.isRedisOverrides()
+                    ? new RedisRateLimitConfigService(redisTemplate, redisKeyGenerator,
+                            rules.getRefreshIntervalMillis(), rules.getSnapshotFile(), rules.isLegacyReconcileEnabled())
+                    : null;
+            return new StaticRateLimitConfigService(StaticRateLimitConfigService.loadRules(rules), overrides);
+        }
+
+        /**
+         * 订阅限流规则变更通知
+         * 配置服务不使用Redis中的规则时（静态规则且未开启Redis覆盖）不注册监听，容器没有订阅频道时不会建立订阅连接
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = "rate-limit.rules", name = "pubsub-enabled", havingValue = "true", matchIfMissing = true)
+        public RedisMessageListenerContainer rateLimitRuleChangeListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                                  RateLimitConfigService configService,
+                                                                                  RedisKeyGenerator redisKeyGenerator) {
+            RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+            container.setConnectionFactory(connectionFactory);
+            boolean redisBacked = !(configService instanceof StaticRateLimitConfigService)
+                    || ((StaticRateLimitConfigService) configService).hasRedisOverrides();
+            if (configService instanceof MessageListener && redisBacked) {
+                container.addMessageListener((MessageListener) configService,
+                        new ChannelTopic(redisKeyGenerator.generateKey(RedisKeyGenerator.RULE_CHANGE_CHANNEL)));
+            }
+            return container;
+        }
+
+        /**
+         * 限流服务
+         */
+        @Bean
+        @ConditionalOnMissingBean
+        public RateLimitService rateLimitService(RedisTemplate<String, Object> redisTemplate,
+                                               RateLimitConfigService configService,
+                                               RateLimitStatsService statsService,
+                                               RateLimitStrategyFactory strategyFactory,
+                                               RateLimitProperties properties) {
+            return new RedisRateLimitService(redisTemplate, configService, statsService, strategyFactory, properties);
+        }
+
+        /**
+         * 优化的统计服务（适用于大量用户场景）
+         * 当启用优化模式时使用此服务
+         */
+        @Bean
+        @ConditionalOnMissingBean(RateLimitStatsService.class)
+        public RateLimitStatsService redisRateLimitStatsService(
+                RedisTemplate<String, Object> redisTemplate,
+                RateLimitConfigService configService,
+                IpRateLimitStrategy ipStrategy,
+                UserRateLimitStrategy userStrategy,
+                RedisKeyGenerator keyGenerator,
+                RateLimitProperties properties) {
+            if (properties.getStats().isOptimized()) {
+                return new OptimizedRateLimitStatsService(redisTemplate, configService, ipStrategy, userStrategy, keyGenerator, properties);
+
+            }else {
+                return new RedisRateLimitStatsService(redisTemplate, configService, ipStrategy, userStrategy, keyGenerator, properties);
+
+            }
+        }
+    }
+
+    /**
+     * 本地内存限流引擎，不依赖Redis
+     */
+    @Configuration
+    @ConditionalOnProperty(prefix = "rate-limit", name = "engine", havingValue = "local")
+    public static class LocalEngineConfiguration {
+
+        /**
+         * 本地限流配置服务
+         */
+        @Bean
+        @ConditionalOnMissingBean(RateLimitConfigService.class)
+        public RateLimitConfigService rateLimitConfigService(RateLimitProperties properties) {
+            if ("static".equalsIgnoreCase(properties.getRules().getSource())) {
+                return new StaticRateLimitConfigService(StaticRateLimitConfigService.loadRules(properties.getRules()));
+            }
+            return new LocalRateLimitConfigService();
+        }
+
+        /**
+         * 本地统计服务
+         */
+        @Bean
+        @ConditionalOnMissingBean(RateLimitStatsService.class)
+        public RateLimitStatsService localRateLimitStatsService() {
+            return new LocalRateLimitStatsService();
+        }
+
+        /**
+         * 本地限流服务
+         */
+        @Bean
+        @ConditionalOnMissingBean
+        public RateLimitService rateLimitService(RateLimitConfigService configService,
+                                                 RateLimitStatsService statsService,
+                                                 RateLimitStrategyFactory strategyFactory,
+                                                 RateLimitProperties properties) {
+            return new LocalRateLimitService(configService, statsService, strategyFactory, properties);
+        }
+    }
 
     @Configuration
     public static class WebConfig extends WebMvcConfigurerAdapter {
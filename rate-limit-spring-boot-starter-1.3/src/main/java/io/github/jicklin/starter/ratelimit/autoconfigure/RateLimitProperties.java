@@ -1,5 +1,6 @@
 package io.github.jicklin.starter.ratelimit.autoconfigure;
 
+import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import java.util.ArrayList;
@@ -36,6 +37,70 @@ public class RateLimitProperties {
      */
     private int defaultTimeWindow = 1;
 
+    /**
+     * 限流引擎
+     * REDIS: 基于Redis，多节点共享限流状态（默认）
+     * LOCAL: 基于本地内存，适用于单节点或没有Redis的部署，规则也保存在本地内存中
+     */
+    private Engine engine = Engine.REDIS;
+
+    /**
+     * 令牌桶引擎
+     * CLASSIC: 秒级时间戳，令牌按整秒批量补充（兼容旧版本）
+     * PRECISE: 毫秒级时间戳，保留小数令牌，令牌连续补充
+     */
+    private BucketEngine bucketEngine = BucketEngine.CLASSIC;
+
+    /**
+     * 令牌租约配置
+     */
+    private LeaseConfig lease = new LeaseConfig();
+
+    /**
+     * 本地限流引擎配置
+     */
+    private LocalConfig local = new LocalConfig();
+
+    /**
+     * 本地预过滤配置（Redis引擎）
+     */
+    private HybridConfig hybrid = new HybridConfig();
+
+    /**
+     * 规则加载配置
+     */
+    private RulesConfig rules = new RulesConfig();
+
+    /**
+     * 规则匹配结果缓存配置
+     */
+    private MatchCacheConfig matchCache = new MatchCacheConfig();
+
+    /**
+     * 路由模板绑定配置
+     */
+    private HandlerBindingConfig handlerBinding = new HandlerBindingConfig();
+
+    /**
+     * 方法注解限流配置
+     */
+    private AnnotationConfig annotation = new AnnotationConfig();
+
+    /**
+     * 被限流令牌桶的本地缓存配置（Redis引擎）
+     */
+    private BlockedCacheConfig blockedCache = new BlockedCacheConfig();
+
+    /**
+     * 并发检查合并配置（Redis引擎）
+     */
+    private CoalesceConfig coalesce = new CoalesceConfig();
+
+    /**
+     * 批量管道配置（Redis引擎）
+     */
+    private PipelineConfig pipeline = new PipelineConfig();
+
     /**
      * 拦截器配置
      */
@@ -46,11 +111,516 @@ public class RateLimitProperties {
      */
     private StatsConfig stats = new StatsConfig();
 
+    /**
+     * 本节点秒级实时统计配置
+     */
+    private LiveStatsConfig liveStats = new LiveStatsConfig();
+
     /**
      * 管理界面配置
      */
     private AdminConfig admin = new AdminConfig();
 
+    /**
+     * 限流引擎类型
+     */
+    public enum Engine {
+        /**
+         * Redis分布式限流
+         */
+        REDIS,
+
+        /**
+         * 本地内存限流
+         */
+        LOCAL
+    }
+
+    /**
+     * 令牌桶引擎类型
+     */
+    public enum BucketEngine {
+        /**
+         * 秒级精度，整数令牌
+         */
+        CLASSIC,
+
+        /**
+         * 毫秒级精度，小数令牌连续补充
+         */
+        PRECISE
+    }
+
+    /**
+     * 统计写入方式
+     */
+    public enum StatsWriteMode {
+        /**
+         * 每个请求在请求线程中直接写入Redis
+         */
+        SYNC,
+
+        /**
+         * 请求线程只累加本地计数，后台线程定期批量写入Redis
+         */
+        ASYNC,
+
+        /**
+         * 每个请求同步执行一次Lua脚本写入全部统计，过期时间只在键新建时设置
+         */
+        SCRIPT
+    }
+
+    public static class LocalConfig {
+        /**
+         * 本地最多保留的令牌桶数量
+         * 超出后清理已空闲（状态已恢复到初始值）的令牌桶，防止大量IP、用户耗尽内存
+         */
+        private int maxEntries = 100000;
+
+        // Getters and Setters
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class HybridConfig {
+        /**
+         * 是否启用本地预过滤
+         * 启用后每个节点在本地按份额运行一个令牌桶，只有本地通过的请求才访问Redis做权威检查，
+         * 攻击流量下被拒绝的请求不再消耗Redis调用
+         */
+        private boolean enabled = false;
+
+        /**
+         * 集群节点数，本地令牌桶的容量和速率 = 规则配置 / 节点数 × 宽松系数
+         */
+        private int nodeCount = 1;
+
+        /**
+         * 宽松系数，流量在节点间分布不均时避免本地预过滤误拒绝
+         */
+        private double slack = 1.5;
+
+        /**
+         * 本地最多保留的令牌桶数量
+         */
+        private int maxEntries = 100000;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        public void setNodeCount(int nodeCount) {
+            this.nodeCount = nodeCount;
+        }
+
+        public double getSlack() {
+            return slack;
+        }
+
+        public void setSlack(double slack) {
+            this.slack = slack;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class RulesConfig {
+        /**
+         * 规则来源：redis（默认，规则保存在Redis中）或 static（规则来自配置，启动时加载一次）
+         */
+        private String source = "redis";
+
+        /**
+         * 静态规则，source为static时使用
+         */
+        private List<RateLimitRule> definitions = new ArrayList<>();
+
+        /**
+         * 静态规则文件位置（YAML或JSON，如classpath:rate-limit-rules.yml），与definitions合并
+         */
+        private String location;
+
+        /**
+         * source为static时，是否允许通过Redis中的规则覆盖静态规则（规则ID相同时覆盖，其余规则追加）
+         */
+        private boolean redisOverrides = false;
+
+        /**
+         * 后台刷新规则快照的间隔（毫秒），刷新期间请求继续使用旧规则
+         * 未配置时根据是否订阅变更通知决定：订阅时定时刷新只用于兜底，默认5分钟；不订阅时默认10秒
+         */
+        private Long refreshIntervalMillis;
+
+        /**
+         * 是否订阅规则变更通知，收到通知后只重新加载变更的规则
+         */
+        private boolean pubsubEnabled = true;
+
+        /**
+         * 本地规则快照文件路径，为空时不使用；启动时先从该文件恢复规则，Redis不可用时也能立即开始限流
+         */
+        private String snapshotFile;
+
+        /**
+         * 是否在后台刷新时同步旧版本节点和工具写入规则ID集合的变更（每次刷新多一次SMEMBERS），
+         * 只在新旧版本混合部署的升级过渡期间开启
+         */
+        private boolean legacyReconcileEnabled = false;
+
+        // Getters and Setters
+        public String getSource() {
+            return source;
+        }
+
+        public void setSource(String source) {
+            this.source = source;
+        }
+
+        public List<RateLimitRule> getDefinitions() {
+            return definitions;
+        }
+
+        public void setDefinitions(List<RateLimitRule> definitions) {
+            this.definitions = definitions;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public void setLocation(String location) {
+            this.location = location;
+        }
+
+        public boolean isRedisOverrides() {
+            return redisOverrides;
+        }
+
+        public void setRedisOverrides(boolean redisOverrides) {
+            this.redisOverrides = redisOverrides;
+        }
+
+        public long getRefreshIntervalMillis() {
+            if (refreshIntervalMillis != null) {
+                return refreshIntervalMillis;
+            }
+            return pubsubEnabled ? 300000 : 10000;
+        }
+
+        public void setRefreshIntervalMillis(Long refreshIntervalMillis) {
+            this.refreshIntervalMillis = refreshIntervalMillis;
+        }
+
+        public boolean isPubsubEnabled() {
+            return pubsubEnabled;
+        }
+
+        public void setPubsubEnabled(boolean pubsubEnabled) {
+            this.pubsubEnabled = pubsubEnabled;
+        }
+
+        public String getSnapshotFile() {
+            return snapshotFile;
+        }
+
+        public void setSnapshotFile(String snapshotFile) {
+            this.snapshotFile = snapshotFile;
+        }
+
+        public boolean isLegacyReconcileEnabled() {
+            return legacyReconcileEnabled;
+        }
+
+        public void setLegacyReconcileEnabled(boolean legacyReconcileEnabled) {
+            this.legacyReconcileEnabled = legacyReconcileEnabled;
+        }
+    }
+
+    public static class HandlerBindingConfig {
+        /**
+         * 是否按处理方法的路由模板绑定规则，拦截器直接按路由模板取出规则，不再匹配请求路径
+         */
+        private boolean enabled = false;
+
+        /**
+         * 路径维度的令牌桶是否按路由模板（如/user/{id}）而不是实际请求路径计数
+         */
+        private boolean routeTemplateKey = true;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isRouteTemplateKey() {
+            return routeTemplateKey;
+        }
+
+        public void setRouteTemplateKey(boolean routeTemplateKey) {
+            this.routeTemplateKey = routeTemplateKey;
+        }
+    }
+
+    public static class MatchCacheConfig {
+        /**
+         * 是否缓存 (HTTP方法, URI) 的规则匹配结果，规则列表变化后自动失效
+         */
+        private boolean enabled = true;
+
+        /**
+         * 最多缓存的URI数量，URI第二次出现时才进入缓存
+         */
+        private int maxEntries = 10000;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class BlockedCacheConfig {
+        /**
+         * 是否启用被限流令牌桶的本地缓存
+         * 令牌桶被拒绝后，在脚本返回的重试时间内，同一令牌桶的请求直接在本地拒绝，不再访问Redis；
+         * 规则放宽或重置令牌桶后，已缓存的令牌桶在重试时间到期前仍被拒绝
+         */
+        private boolean enabled = false;
+
+        /**
+         * 本地最多缓存的令牌桶数量，已满时不再缓存新的令牌桶
+         */
+        private int maxEntries = 10000;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class AnnotationConfig {
+        /**
+         * 是否启用@RateLimit方法注解限流
+         */
+        private boolean enabled = true;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    public static class CoalesceConfig {
+        /**
+         * 是否合并同一令牌桶的并发检查
+         * 启用后同一节点上并发检查同一个令牌桶的请求合并为一次Redis调用，一次取多个令牌分给各个请求
+         * 只对只命中一个令牌桶算法令牌桶的请求生效
+         */
+        private boolean enabled = false;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    public static class PipelineConfig {
+        /**
+         * 是否启用批量管道
+         * 启用后各请求线程的限流脚本调用在很短的时间窗口内汇集，通过一次管道发送到Redis，
+         * 以有上限的等待时间换取更少的Redis往返，适用于高QPS场景
+         */
+        private boolean enabled = false;
+
+        /**
+         * 汇集调用的时间窗口（微秒）
+         */
+        private long windowMicros = 200;
+
+        /**
+         * 每批最多的调用数，凑满后立即发送
+         */
+        private int maxBatch = 64;
+
+        /**
+         * 等待发送的调用队列容量，队列已满时直接执行
+         */
+        private int queueCapacity = 10000;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getWindowMicros() {
+            return windowMicros;
+        }
+
+        public void setWindowMicros(long windowMicros) {
+            this.windowMicros = windowMicros;
+        }
+
+        public int getMaxBatch() {
+            return maxBatch;
+        }
+
+        public void setMaxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    public static class LeaseConfig {
+        /**
+         * 是否启用令牌租约
+         * 启用后节点从Redis令牌桶中批量预取令牌，在本地分发，大部分请求不再访问Redis
+         * 只对令牌桶算法的路径维度生效
+         */
+        private boolean enabled = false;
+
+        /**
+         * 租约有效期（毫秒），过期后未用完的令牌归还到Redis令牌桶
+         */
+        private long durationMillis = 1000;
+
+        /**
+         * 每次预取的最少令牌数
+         */
+        private int minSize = 1;
+
+        /**
+         * 每次预取的最多令牌数
+         */
+        private int maxSize = 1000;
+
+        /**
+         * 单个节点允许的最大误差（占令牌桶容量的比例）
+         * 租约大小不超过 容量 × 该比例，节点持有但未使用的令牌不会超过这个上限
+         */
+        private double maxErrorRatio = 0.1;
+
+        /**
+         * 本地最多保留的租约数量，超出后清理已过期的租约
+         */
+        private int maxEntries = 10000;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public void setDurationMillis(long durationMillis) {
+            this.durationMillis = durationMillis;
+        }
+
+        public int getMinSize() {
+            return minSize;
+        }
+
+        public void setMinSize(int minSize) {
+            this.minSize = minSize;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public double getMaxErrorRatio() {
+            return maxErrorRatio;
+        }
+
+        public void setMaxErrorRatio(double maxErrorRatio) {
+            this.maxErrorRatio = maxErrorRatio;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
     public static class InterceptorConfig {
         /**
          * 是否启用拦截器
@@ -167,6 +737,35 @@ public class RateLimitProperties {
          */
         private int aggregationWindowMinutes = 5;
 
+        /**
+         * 规则统计的写入方式
+         * SYNC: 每个请求同步写入Redis（默认）
+         * ASYNC: 请求线程只累加本地计数，每隔flushIntervalMillis在一个管道中写入增量
+         * SCRIPT: 每个请求同步执行一次Lua脚本写入全部统计
+         */
+        private StatsWriteMode writeMode = StatsWriteMode.SYNC;
+
+        /**
+         * 后台写入Redis的间隔（毫秒），用于ASYNC写入方式、本地热点统计和独立IP/用户数统计
+         */
+        private long flushIntervalMillis = 1000;
+
+        /**
+         * 是否在本节点统计热点（优化模式下使用）
+         * 启用后每个节点在内存中跟踪访问最多的IP和用户，定期合并到Redis的热点ZSET，请求线程不再写入热点ZSET
+         */
+        private boolean localHotspot = false;
+
+        /**
+         * 本地热点统计每个规则维度跟踪的值数量，不大于0时为hotspotTopN的两倍
+         */
+        private int hotspotSketchCapacity = 0;
+
+        /**
+         * 是否按分钟统计每个规则的独立IP和用户数量（HyperLogLog），由后台批量写入
+         */
+        private boolean uniqueClients = false;
+
         // Getters and Setters
         public boolean isEnabled() {
             return enabled;
@@ -239,6 +838,88 @@ public class RateLimitProperties {
         public void setAggregationWindowMinutes(int aggregationWindowMinutes) {
             this.aggregationWindowMinutes = aggregationWindowMinutes;
         }
+
+        public StatsWriteMode getWriteMode() {
+            return writeMode;
+        }
+
+        public void setWriteMode(StatsWriteMode writeMode) {
+            this.writeMode = writeMode;
+        }
+
+        public long getFlushIntervalMillis() {
+            return flushIntervalMillis;
+        }
+
+        public void setFlushIntervalMillis(long flushIntervalMillis) {
+            this.flushIntervalMillis = flushIntervalMillis;
+        }
+
+        public boolean isLocalHotspot() {
+            return localHotspot;
+        }
+
+        public void setLocalHotspot(boolean localHotspot) {
+            this.localHotspot = localHotspot;
+        }
+
+        public int getHotspotSketchCapacity() {
+            return hotspotSketchCapacity;
+        }
+
+        public void setHotspotSketchCapacity(int hotspotSketchCapacity) {
+            this.hotspotSketchCapacity = hotspotSketchCapacity;
+        }
+
+        public boolean isUniqueClients() {
+            return uniqueClients;
+        }
+
+        public void setUniqueClients(boolean uniqueClients) {
+            this.uniqueClients = uniqueClients;
+        }
+    }
+
+    public static class LiveStatsConfig {
+        /**
+         * 是否在本节点内存中按秒记录每个规则的允许、拒绝次数和限流检查耗时，不写入Redis
+         */
+        private boolean enabled = false;
+
+        /**
+         * 每个规则保留的秒数
+         */
+        private int seconds = 300;
+
+        /**
+         * 查询接口路径
+         */
+        private String path = "/ratelimit/live-stats";
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getSeconds() {
+            return seconds;
+        }
+
+        public void setSeconds(int seconds) {
+            this.seconds = seconds;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
     }
 
     public static class AdminConfig {
@@ -311,6 +992,102 @@ public class RateLimitProperties {
         this.defaultTimeWindow = defaultTimeWindow;
     }
 
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public BucketEngine getBucketEngine() {
+        return bucketEngine;
+    }
+
+    public void setBucketEngine(BucketEngine bucketEngine) {
+        this.bucketEngine = bucketEngine;
+    }
+
+    public LeaseConfig getLease() {
+        return lease;
+    }
+
+    public void setLease(LeaseConfig lease) {
+        this.lease = lease;
+    }
+
+    public LocalConfig getLocal() {
+        return local;
+    }
+
+    public void setLocal(LocalConfig local) {
+        this.local = local;
+    }
+
+    public HybridConfig getHybrid() {
+        return hybrid;
+    }
+
+    public void setHybrid(HybridConfig hybrid) {
+        this.hybrid = hybrid;
+    }
+
+    public RulesConfig getRules() {
+        return rules;
+    }
+
+    public void setRules(RulesConfig rules) {
+        this.rules = rules;
+    }
+
+    public MatchCacheConfig getMatchCache() {
+        return matchCache;
+    }
+
+    public void setMatchCache(MatchCacheConfig matchCache) {
+        this.matchCache = matchCache;
+    }
+
+    public HandlerBindingConfig getHandlerBinding() {
+        return handlerBinding;
+    }
+
+    public void setHandlerBinding(HandlerBindingConfig handlerBinding) {
+        this.handlerBinding = handlerBinding;
+    }
+
+    public AnnotationConfig getAnnotation() {
+        return annotation;
+    }
+
+    public void setAnnotation(AnnotationConfig annotation) {
+        this.annotation = annotation;
+    }
+
+    public BlockedCacheConfig getBlockedCache() {
+        return blockedCache;
+    }
+
+    public void setBlockedCache(BlockedCacheConfig blockedCache) {
+        this.blockedCache = blockedCache;
+    }
+
+    public CoalesceConfig getCoalesce() {
+        return coalesce;
+    }
+
+    public void setCoalesce(CoalesceConfig coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    public PipelineConfig getPipeline() {
+        return pipeline;
+    }
+
+    public void setPipeline(PipelineConfig pipeline) {
+        this.pipeline = pipeline;
+    }
+
     public InterceptorConfig getInterceptor() {
         return interceptor;
     }
@@ -327,6 +1104,14 @@ public class RateLimitProperties {
         this.stats = stats;
     }
 
+    public LiveStatsConfig getLiveStats() {
+        return liveStats;
+    }
+
+    public void setLiveStats(LiveStatsConfig liveStats) {
+        this.liveStats = liveStats;
+    }
+
     public AdminConfig getAdmin() {
         return admin;
     }
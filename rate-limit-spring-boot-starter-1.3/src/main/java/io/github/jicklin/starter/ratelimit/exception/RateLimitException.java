@@ -0,0 +1,35 @@
+package io.github.jicklin.starter.ratelimit.exception;
+
+/**
+ * 限流异常，@RateLimit标注的方法超出限制时抛出
+ */
+public class RateLimitException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 距离下一个可用令牌的毫秒数，未知时为0
+     */
+    private final long retryAfterMillis;
+
+    public RateLimitException(String message) {
+        super(message);
+        this.retryAfterMillis = 0;
+    }
+
+    public RateLimitException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * 获取重试等待时间（秒，向上取整）
+     */
+    public long getRetryAfterSeconds() {
+        return (retryAfterMillis + 999) / 1000;
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.jicklin.starter.ratelimit.exception;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RateLimitException的默认处理
+ *
+ * Controller方法（或其调用的Service方法）被@RateLimit限流时返回429，响应体与限流拦截器一致，
+ * 有重试等待时间时设置Retry-After（秒，向上取整）。
+ * 优先级最低，应用中处理RateLimitException的@ExceptionHandler优先生效。
+ */
+@ControllerAdvice
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class RateLimitExceptionHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitExceptionHandler.class);
+
+    @ExceptionHandler(RateLimitException.class)
+    public ResponseEntity<Map<String, Object>> handleRateLimitException(RateLimitException e, HttpServletRequest request) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("error", HttpStatus.TOO_MANY_REQUESTS.value());
+        result.put("message", e.getMessage());
+        result.put("timestamp", System.currentTimeMillis());
+        result.put("path", request.getRequestURI());
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .contentType(MediaType.APPLICATION_JSON_UTF8);
+        if (e.getRetryAfterMillis() > 0) {
+            builder.header("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+            result.put("retryAfter", e.getRetryAfterMillis());
+        }
+
+        logger.debug("方法调用被限流: {} {}", request.getMethod(), request.getRequestURI());
+        return builder.body(result);
+    }
+}
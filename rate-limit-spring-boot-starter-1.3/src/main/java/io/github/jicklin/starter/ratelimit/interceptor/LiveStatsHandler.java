@@ -0,0 +1,84 @@
+package io.github.jicklin.starter.ratelimit.interceptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.jicklin.starter.ratelimit.service.RateLimitService;
+import io.github.jicklin.starter.ratelimit.service.impl.AbstractRateLimitService;
+import io.github.jicklin.starter.ratelimit.service.impl.LiveStatsRing;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.HttpRequestHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本节点秒级实时统计查询接口
+ *
+ * 参数：ruleId（可选，不传时返回所有有记录的规则），seconds（最近的秒数，默认60）。
+ * 只读取本节点内存中的数据，不访问Redis；多节点部署时由看板分别查询各节点后汇总。
+ */
+public class LiveStatsHandler implements HttpRequestHandler {
+
+    private static final int DEFAULT_SECONDS = 60;
+
+    private final RateLimitService rateLimitService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public LiveStatsHandler(RateLimitService rateLimitService) {
+        this.rateLimitService = rateLimitService;
+    }
+
+    @Override
+    public void handleRequest(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+
+        LiveStatsRing liveStats = rateLimitService instanceof AbstractRateLimitService
+                ? ((AbstractRateLimitService) rateLimitService).getLiveStats()
+                : null;
+        if (liveStats == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("error", "未启用秒级实时统计");
+            objectMapper.writeValue(response.getWriter(), error);
+            return;
+        }
+
+        int seconds = DEFAULT_SECONDS;
+        String secondsParam = request.getParameter("seconds");
+        if (secondsParam != null) {
+            try {
+                seconds = Integer.parseInt(secondsParam);
+            } catch (NumberFormatException e) {
+                response.setStatus(HttpStatus.BAD_REQUEST.value());
+                Map<String, Object> error = new LinkedHashMap<>();
+                error.put("error", "seconds参数不是整数: " + secondsParam);
+                objectMapper.writeValue(response.getWriter(), error);
+                return;
+            }
+        }
+        seconds = Math.max(1, Math.min(seconds, liveStats.getSeconds()));
+
+        String ruleId = request.getParameter("ruleId");
+        List<String> ruleIds = ruleId != null ? Collections.singletonList(ruleId) : liveStats.getRuleIds();
+        long now = System.currentTimeMillis();
+
+        Map<String, LiveStatsRing.Series> rules = new LinkedHashMap<>();
+        for (String id : ruleIds) {
+            LiveStatsRing.Series series = liveStats.getSeries(id, seconds, now);
+            if (series != null) {
+                rules.put(id, series);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("seconds", seconds);
+        result.put("rules", rules);
+        objectMapper.writeValue(response.getWriter(), result);
+    }
+}
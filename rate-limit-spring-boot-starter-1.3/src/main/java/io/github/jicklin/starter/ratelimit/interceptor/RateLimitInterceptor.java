@@ -61,6 +61,14 @@ public class RateLimitInterceptor extends HandlerInterceptorAdapter {
         result.put("timestamp", System.currentTimeMillis());
         result.put("path", request.getRequestURI());
 
+        // 限流服务给出了精确的等待时间时，返回Retry-After（秒，向上取整）
+        Object retryAfter = request.getAttribute(RateLimitService.RETRY_AFTER_ATTRIBUTE);
+        if (retryAfter instanceof Long) {
+            long retryAfterMillis = (Long) retryAfter;
+            response.setHeader("Retry-After", String.valueOf((retryAfterMillis + 999) / 1000));
+            result.put("retryAfter", retryAfterMillis);
+        }
+
         String jsonResponse = objectMapper.writeValueAsString(result);
         response.getWriter().write(jsonResponse);
 
@@ -0,0 +1,48 @@
+package io.github.jicklin.starter.ratelimit.interceptor;
+
+import io.github.jicklin.starter.ratelimit.service.RateLimitService;
+import io.github.jicklin.starter.ratelimit.service.impl.AbstractRateLimitService;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 应用启动完成后收集所有处理方法的路由模板，预先绑定限流规则
+ */
+public class RouteTemplateBinder implements ApplicationListener<ContextRefreshedEvent> {
+
+    private final RateLimitService rateLimitService;
+
+    public RouteTemplateBinder(RateLimitService rateLimitService) {
+        this.rateLimitService = rateLimitService;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (!(rateLimitService instanceof AbstractRateLimitService)) {
+            return;
+        }
+
+        ApplicationContext context = event.getApplicationContext();
+        String contextPath = "";
+        if (context instanceof WebApplicationContext && ((WebApplicationContext) context).getServletContext() != null) {
+            contextPath = ((WebApplicationContext) context).getServletContext().getContextPath();
+        }
+
+        Set<String> routeTemplates = new LinkedHashSet<>();
+        for (RequestMappingHandlerMapping mapping : context.getBeansOfType(RequestMappingHandlerMapping.class).values()) {
+            for (RequestMappingInfo info : mapping.getHandlerMethods().keySet()) {
+                for (String pattern : info.getPatternsCondition().getPatterns()) {
+                    routeTemplates.add(contextPath + pattern);
+                }
+            }
+        }
+        ((AbstractRateLimitService) rateLimitService).bindRouteTemplates(routeTemplates);
+    }
+}
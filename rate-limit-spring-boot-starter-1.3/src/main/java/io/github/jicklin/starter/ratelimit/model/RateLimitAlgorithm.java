@@ -0,0 +1,43 @@
+package io.github.jicklin.starter.ratelimit.model;
+
+/**
+ * 限流算法枚举
+ */
+public enum RateLimitAlgorithm {
+
+    /**
+     * 令牌桶（Hash存储tokens和补充时间，精度由rate-limit.bucket-engine决定）
+     */
+    TOKEN_BUCKET(""),
+
+    /**
+     * 通用信元速率算法（GCRA），每个键只存储一个理论到达时间（TAT），
+     * 限流效果与令牌桶等价，内存占用和命令数更少，并能给出精确的重试等待时间
+     */
+    GCRA(":gcra"),
+
+    /**
+     * 固定窗口计数，每个窗口一个计数键（INCR + PEXPIRE），
+     * 适合IP、用户等高基数维度，窗口内限额 = 补充速率 × 窗口时长
+     */
+    FIXED_WINDOW(":fw"),
+
+    /**
+     * 滑动窗口计数（近似），按时间比例加权上一个窗口的计数，
+     * 平滑固定窗口边界处的突发，存储开销与固定窗口相同
+     */
+    SLIDING_WINDOW(":sw");
+
+    /**
+     * 键后缀，不同算法的存储结构不同，使用不同的键避免类型冲突
+     */
+    private final String keySuffix;
+
+    RateLimitAlgorithm(String keySuffix) {
+        this.keySuffix = keySuffix;
+    }
+
+    public String getKeySuffix() {
+        return keySuffix;
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.jicklin.starter.ratelimit.model;
+
+/**
+ * 单个令牌桶的检查描述
+ *
+ * 一次请求可能命中多条规则，每条规则又包含路径、IP、用户三个维度，
+ * 每个维度对应一个令牌桶。所有令牌桶在一次脚本调用中统一检查，
+ * 检查结果回填到allowed和remainingTokens字段。
+ */
+public class RateLimitBucket {
+
+    public static final String DIMENSION_PATH = "path";
+    public static final String DIMENSION_IP = "ip";
+    public static final String DIMENSION_USER = "user";
+    public static final String DIMENSION_METHOD = "method";
+
+    /**
+     * 令牌桶键
+     */
+    private final String key;
+
+    /**
+     * 所属规则ID
+     */
+    private final String ruleId;
+
+    /**
+     * 维度（path、ip、user）
+     */
+    private final String dimension;
+
+    /**
+     * 限流算法
+     */
+    private final RateLimitAlgorithm algorithm;
+
+    /**
+     * 令牌桶容量
+     */
+    private final int capacity;
+
+    /**
+     * 令牌补充速率（每秒）
+     */
+    private final int refillRate;
+
+    /**
+     * 时间窗口（毫秒）
+     */
+    private final long timeWindowMillis;
+
+    /**
+     * 该令牌桶自身是否有可用令牌
+     */
+    private boolean allowed;
+
+    /**
+     * 检查后的剩余令牌数
+     */
+    private long remainingTokens;
+
+    /**
+     * 被限流时距离下一个可用令牌的毫秒数，通过时为0
+     */
+    private long retryAfterMillis;
+
+    public RateLimitBucket(String key, String ruleId, String dimension, RateLimitAlgorithm algorithm,
+                           int capacity, int refillRate, long timeWindowMillis) {
+        this.algorithm = algorithm != null ? algorithm : RateLimitAlgorithm.TOKEN_BUCKET;
+        this.key = key + this.algorithm.getKeySuffix();
+        this.ruleId = ruleId;
+        this.dimension = dimension;
+        this.capacity = capacity;
+        this.refillRate = refillRate;
+        this.timeWindowMillis = timeWindowMillis;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getRuleId() {
+        return ruleId;
+    }
+
+    public String getDimension() {
+        return dimension;
+    }
+
+    public RateLimitAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getRefillRate() {
+        return refillRate;
+    }
+
+    public long getTimeWindowMillis() {
+        return timeWindowMillis;
+    }
+
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    public void setAllowed(boolean allowed) {
+        this.allowed = allowed;
+    }
+
+    public long getRemainingTokens() {
+        return remainingTokens;
+    }
+
+    public void setRemainingTokens(long remainingTokens) {
+        this.remainingTokens = remainingTokens;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    public void setRetryAfterMillis(long retryAfterMillis) {
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitBucket{" +
+                "key='" + key + '\'' +
+                ", dimension='" + dimension + '\'' +
+                ", algorithm=" + algorithm +
+                ", capacity=" + capacity +
+                ", refillRate=" + refillRate +
+                ", allowed=" + allowed +
+                ", remainingTokens=" + remainingTokens +
+                ", retryAfterMillis=" + retryAfterMillis +
+                '}';
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.jicklin.starter.ratelimit.model;
+
+import io.github.jicklin.starter.ratelimit.annotation.RateLimit;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 方法限流描述，由@RateLimit注解解析得到，每个方法只解析一次
+ *
+ * 注解参数转换为一条不含路径模式的限流规则，IP和用户维度沿用规则的维度开关，
+ * 方法维度使用固定的令牌桶键。
+ */
+public class RateLimitMethodDescriptor {
+
+    private static final String KEY_PREFIX = "rate_limit:method:";
+
+    /**
+     * 由注解参数生成的规则，规则ID为"@"加限流标识
+     */
+    private final RateLimitRule rule;
+
+    /**
+     * 方法维度的令牌桶键，未启用方法维度时为null
+     */
+    private final String methodKey;
+
+    /**
+     * 超出限制时的提示信息
+     */
+    private final String message;
+
+    private RateLimitMethodDescriptor(RateLimitRule rule, String methodKey, String message) {
+        this.rule = rule;
+        this.methodKey = methodKey;
+        this.message = message;
+    }
+
+    /**
+     * 解析方法上的限流注解
+     *
+     * @param method 被标注的方法
+     * @param rateLimit 方法上的限流注解
+     */
+    public static RateLimitMethodDescriptor of(Method method, RateLimit rateLimit) {
+        String key = rateLimit.key().isEmpty() ? defaultKey(method) : rateLimit.key();
+        List<RateLimit.Dimension> dimensions = Arrays.asList(rateLimit.dimensions());
+
+        RateLimitRule rule = new RateLimitRule();
+        rule.setId("@" + key);
+        rule.setName(key);
+        rule.setBucketCapacity(rateLimit.capacity());
+        rule.setRefillRate(rateLimit.rate());
+        rule.setTimeWindow(rateLimit.timeWindow());
+        rule.setTimeWindowUnit(rateLimit.timeUnit());
+        rule.setAlgorithm(rateLimit.algorithm());
+        rule.setEnableIpLimit(dimensions.contains(RateLimit.Dimension.IP));
+        rule.setEnableUserLimit(dimensions.contains(RateLimit.Dimension.USER));
+
+        String methodKey = dimensions.contains(RateLimit.Dimension.METHOD) ? KEY_PREFIX + rule.getId() : null;
+        return new RateLimitMethodDescriptor(rule, methodKey, rateLimit.message());
+    }
+
+    /**
+     * 默认限流标识"类名#方法名(参数类型)"，包含参数类型使重载方法各自使用独立的令牌桶
+     */
+    private static String defaultKey(Method method) {
+        StringBuilder key = new StringBuilder(method.getDeclaringClass().getName())
+                .append('#').append(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(parameterTypes[i].getSimpleName());
+        }
+        return key.append(')').toString();
+    }
+
+    public RateLimitRule getRule() {
+        return rule;
+    }
+
+    public String getMethodKey() {
+        return methodKey;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
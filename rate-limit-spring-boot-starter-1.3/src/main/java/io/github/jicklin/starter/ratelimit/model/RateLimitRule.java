@@ -1,8 +1,12 @@
 package io.github.jicklin.starter.ratelimit.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.github.jicklin.starter.ratelimit.util.CompiledPathPattern;
+
 import java.io.Serializable;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 限流规则配置模型
@@ -36,6 +40,11 @@ public class RateLimitRule implements Serializable {
      */
     private String pathPattern;
 
+    /**
+     * 编译后的路径模式，首次匹配时根据pathPattern编译
+     */
+    private transient volatile CompiledPathPattern compiledPathPattern;
+
     /**
      * 支持的HTTP方法列表
      */
@@ -52,10 +61,23 @@ public class RateLimitRule implements Serializable {
     private int refillRate;
 
     /**
-     * 时间窗口（秒）
+     * 时间窗口（单位由timeWindowUnit决定，默认秒）
      */
     private int timeWindow;
 
+    /**
+     * 时间窗口单位，高频接口可使用MILLISECONDS设置亚秒级窗口
+     *
+     * 令牌桶和GCRA的补充速率固定为每秒refillRate个，窗口只影响令牌桶键的最短保留时间和无补充时的重试时间；
+     * 固定窗口和滑动窗口按窗口时长计数，亚秒级窗口直接生效
+     */
+    private TimeUnit timeWindowUnit;
+
+    /**
+     * 限流算法，默认令牌桶
+     */
+    private RateLimitAlgorithm algorithm;
+
     /**
      * 是否启用IP维度限流
      */
@@ -86,6 +108,16 @@ public class RateLimitRule implements Serializable {
      */
     private Integer userBucketCapacity;
 
+    /**
+     * IP维度限流算法，为空时使用规则的algorithm
+     */
+    private RateLimitAlgorithm ipAlgorithm;
+
+    /**
+     * 用户维度限流算法，为空时使用规则的algorithm
+     */
+    private RateLimitAlgorithm userAlgorithm;
+
     /**
      * 优先级（数字越小优先级越高）
      */
@@ -106,6 +138,8 @@ public class RateLimitRule implements Serializable {
         this.updateTime = System.currentTimeMillis();
         this.enabled = true;
         this.priority = 100;
+        this.timeWindowUnit = TimeUnit.SECONDS;
+        this.algorithm = RateLimitAlgorithm.TOKEN_BUCKET;
     }
 
     // Getters and Setters
@@ -147,6 +181,20 @@ public class RateLimitRule implements Serializable {
 
     public void setPathPattern(String pathPattern) {
         this.pathPattern = pathPattern;
+        this.compiledPathPattern = null;
+    }
+
+    /**
+     * 获取编译后的路径模式，规则对象加载后只编译一次
+     */
+    @JsonIgnore
+    public CompiledPathPattern getCompiledPathPattern() {
+        CompiledPathPattern compiled = compiledPathPattern;
+        if (compiled == null) {
+            compiled = CompiledPathPattern.compile(pathPattern);
+            compiledPathPattern = compiled;
+        }
+        return compiled;
     }
 
     public List<HttpMethod> getHttpMethods() {
@@ -181,6 +229,31 @@ public class RateLimitRule implements Serializable {
         this.timeWindow = timeWindow;
     }
 
+    public TimeUnit getTimeWindowUnit() {
+        return timeWindowUnit;
+    }
+
+    public void setTimeWindowUnit(TimeUnit timeWindowUnit) {
+        this.timeWindowUnit = timeWindowUnit;
+    }
+
+    /**
+     * 获取毫秒级时间窗口
+     */
+    @JsonIgnore
+    public long getTimeWindowMillis() {
+        TimeUnit unit = timeWindowUnit != null ? timeWindowUnit : TimeUnit.SECONDS;
+        return unit.toMillis(timeWindow);
+    }
+
+    public RateLimitAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(RateLimitAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
     public boolean isEnableIpLimit() {
         return enableIpLimit;
     }
@@ -229,6 +302,22 @@ public class RateLimitRule implements Serializable {
         this.userBucketCapacity = userBucketCapacity;
     }
 
+    public RateLimitAlgorithm getIpAlgorithm() {
+        return ipAlgorithm;
+    }
+
+    public void setIpAlgorithm(RateLimitAlgorithm ipAlgorithm) {
+        this.ipAlgorithm = ipAlgorithm;
+    }
+
+    public RateLimitAlgorithm getUserAlgorithm() {
+        return userAlgorithm;
+    }
+
+    public void setUserAlgorithm(RateLimitAlgorithm userAlgorithm) {
+        this.userAlgorithm = userAlgorithm;
+    }
+
     public int getPriority() {
         return priority;
     }
@@ -276,6 +365,8 @@ public class RateLimitRule implements Serializable {
                 ", bucketCapacity=" + bucketCapacity +
                 ", refillRate=" + refillRate +
                 ", timeWindow=" + timeWindow +
+                ", timeWindowUnit=" + timeWindowUnit +
+                ", algorithm=" + algorithm +
                 ", enableIpLimit=" + enableIpLimit +
                 ", enableUserLimit=" + enableUserLimit +
                 '}';
@@ -35,7 +35,7 @@ public interface RateLimitConfigService {
     /**
      * 获取启用的限流规则
      *
-     * @return 启用的规则列表
+     * @return 启用的规则列表（按优先级排序，只读，请求路径上会频繁调用）
      */
     List<RateLimitRule> getEnabledRules();
 
@@ -1,5 +1,6 @@
 package io.github.jicklin.starter.ratelimit.service;
 
+import io.github.jicklin.starter.ratelimit.model.RateLimitMethodDescriptor;
 import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
 
 import javax.servlet.http.HttpServletRequest;
@@ -9,6 +10,11 @@ import javax.servlet.http.HttpServletRequest;
  */
 public interface RateLimitService {
 
+    /**
+     * 请求属性名：被限流时距离下一个可用令牌的毫秒数（Long）
+     */
+    String RETRY_AFTER_ATTRIBUTE = RateLimitService.class.getName() + ".RETRY_AFTER_MILLIS";
+
     /**
      * 检查请求是否被限流
      *
@@ -26,6 +32,15 @@ public interface RateLimitService {
      */
     boolean isAllowed(HttpServletRequest request, RateLimitRule rule);
 
+    /**
+     * 检查@RateLimit标注的方法是否允许调用，不做路径匹配
+     *
+     * @param request HTTP请求，非Web调用时为null（只检查方法维度）
+     * @param descriptor 方法限流描述
+     * @return 是否允许通过
+     */
+    boolean isAllowed(HttpServletRequest request, RateLimitMethodDescriptor descriptor);
+
     /**
      * 获取剩余令牌数
      *
@@ -0,0 +1,375 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.autoconfigure.RateLimitProperties;
+import io.github.jicklin.starter.ratelimit.model.HttpMethod;
+import io.github.jicklin.starter.ratelimit.model.RateLimitAlgorithm;
+import io.github.jicklin.starter.ratelimit.model.RateLimitBucket;
+import io.github.jicklin.starter.ratelimit.model.RateLimitMethodDescriptor;
+import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
+import io.github.jicklin.starter.ratelimit.service.RateLimitConfigService;
+import io.github.jicklin.starter.ratelimit.service.RateLimitService;
+import io.github.jicklin.starter.ratelimit.service.RateLimitStatsService;
+import io.github.jicklin.starter.ratelimit.strategy.RateLimitStrategy;
+import io.github.jicklin.starter.ratelimit.strategy.RateLimitStrategyFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 限流服务公共流程
+ *
+ * 负责规则匹配、按规则收集路径/IP/用户维度的令牌桶、记录统计信息，
+ * 令牌桶的实际检查由子类实现（Redis或本地内存）。
+ */
+public abstract class AbstractRateLimitService implements RateLimitService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AbstractRateLimitService.class);
+
+    protected final RateLimitConfigService configService;
+    protected final RateLimitStatsService statsService;
+    protected final RateLimitStrategyFactory strategyFactory;
+
+    /**
+     * 启用规则的索引，规则列表变化时重建
+     */
+    private volatile RuleIndex ruleIndex;
+
+    /**
+     * 规则匹配结果缓存，未启用时为null
+     */
+    private final RuleMatchCache matchCache;
+
+    /**
+     * 是否按路由模板绑定规则
+     */
+    private final boolean handlerBinding;
+
+    /**
+     * 路由模板绑定，规则索引变化时重建
+     */
+    private volatile RouteRuleBinding routeBinding;
+
+    /**
+     * 本节点秒级实时统计，未启用时为null
+     */
+    private final LiveStatsRing liveStats;
+
+    protected AbstractRateLimitService(RateLimitConfigService configService,
+                                       RateLimitStatsService statsService,
+                                       RateLimitStrategyFactory strategyFactory,
+                                       RateLimitProperties properties) {
+        this.configService = configService;
+        this.statsService = statsService;
+        this.strategyFactory = strategyFactory;
+
+        RateLimitProperties.MatchCacheConfig matchCacheConfig = properties.getMatchCache();
+        this.matchCache = matchCacheConfig.isEnabled() ? new RuleMatchCache(matchCacheConfig.getMaxEntries()) : null;
+        this.handlerBinding = properties.getHandlerBinding().isEnabled();
+        RateLimitProperties.LiveStatsConfig liveStatsConfig = properties.getLiveStats();
+        this.liveStats = liveStatsConfig.isEnabled() ? new LiveStatsRing(liveStatsConfig.getSeconds()) : null;
+    }
+
+    /**
+     * 检查多个令牌桶，全部通过时才扣减，每个令牌桶的检查结果回填到bucket对象
+     *
+     * @param buckets 请求命中的所有令牌桶
+     * @return 是否全部通过
+     */
+    protected abstract boolean checkTokenBuckets(List<RateLimitBucket> buckets);
+
+    @Override
+    public boolean isAllowed(HttpServletRequest request) {
+        long start = liveStats != null ? System.nanoTime() : 0;
+        try {
+            List<RateLimitRule> matchedRules = getMatchedRules(request);
+
+            if (matchedRules.isEmpty()) {
+                return true;
+            }
+
+            // 收集所有命中规则的多维度令牌桶，一次检查完成
+            List<RateLimitBucket> buckets = new ArrayList<>();
+            for (RateLimitRule rule : matchedRules) {
+                collectBuckets(request, rule, buckets);
+            }
+
+            boolean allowed = checkTokenBuckets(buckets);
+            if (!allowed) {
+                exposeRetryAfter(request, buckets);
+            }
+            long latency = liveStats != null ? System.nanoTime() - start : 0;
+
+            // 按规则优先级记录统计信息（带请求上下文，支持IP和用户维度统计）
+            for (RateLimitRule rule : matchedRules) {
+                boolean ruleAllowed = isRuleAllowed(rule, buckets);
+                if (liveStats != null) {
+                    liveStats.record(rule.getId(), ruleAllowed, latency);
+                }
+                statsService.recordRequest(request, rule.getId(), ruleAllowed);
+
+                if (!ruleAllowed) {
+                    break;
+                }
+            }
+
+            return allowed;
+        } catch (Exception e) {
+            logger.error("限流检查异常", e);
+            // 异常情况下允许请求通过，避免影响业务
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isAllowed(HttpServletRequest request, RateLimitRule rule) {
+        if (rule == null || !rule.isEnabled()) {
+            return true;
+        }
+
+        try {
+            // 默认使用路径限流策略
+            RateLimitStrategy pathStrategy = strategyFactory.getStrategy(rule);
+            RateLimitBucket pathBucket = new RateLimitBucket(pathStrategy.generateKey(request, rule), rule.getId(),
+                    RateLimitBucket.DIMENSION_PATH, rule.getAlgorithm(), rule.getBucketCapacity(), rule.getRefillRate(),
+                    rule.getTimeWindowMillis());
+
+            // 检查路径限流
+            List<RateLimitBucket> buckets = Collections.singletonList(pathBucket);
+            if (!checkTokenBuckets(buckets)) {
+                exposeRetryAfter(request, buckets);
+                return false;
+            }
+
+            return true;
+        } catch (Exception e) {
+            logger.error("限流检查异常: " + rule.getName(), e);
+            return true; // 异常情况下允许通过
+        }
+    }
+
+    @Override
+    public boolean isAllowed(HttpServletRequest request, RateLimitMethodDescriptor descriptor) {
+        RateLimitRule rule = descriptor.getRule();
+        long start = liveStats != null ? System.nanoTime() : 0;
+        try {
+            List<RateLimitBucket> buckets = new ArrayList<>(3);
+            if (descriptor.getMethodKey() != null) {
+                buckets.add(new RateLimitBucket(descriptor.getMethodKey(), rule.getId(), RateLimitBucket.DIMENSION_METHOD,
+                        rule.getAlgorithm(), rule.getBucketCapacity(), rule.getRefillRate(), rule.getTimeWindowMillis()));
+            }
+            if (request != null) {
+                collectClientBuckets(request, rule, buckets);
+            }
+            if (buckets.isEmpty()) {
+                return true;
+            }
+
+            boolean allowed = checkTokenBuckets(buckets);
+            if (liveStats != null) {
+                liveStats.record(rule.getId(), allowed, System.nanoTime() - start);
+            }
+            if (request != null) {
+                if (!allowed) {
+                    exposeRetryAfter(request, buckets);
+                }
+                statsService.recordRequest(request, rule.getId(), allowed);
+            } else {
+                statsService.recordRequest(rule.getId(), allowed);
+            }
+            return allowed;
+        } catch (Exception e) {
+            logger.error("限流检查异常: " + rule.getName(), e);
+            return true; // 异常情况下允许通过
+        }
+    }
+
+    /**
+     * 获取请求匹配的规则，按优先级排序，返回的列表不能修改
+     * 启用匹配结果缓存时，同一 (HTTP方法, URI) 在规则列表不变期间只匹配一次
+     */
+    protected List<RateLimitRule> getMatchedRules(HttpServletRequest request) {
+        if (handlerBinding) {
+            // 已经映射到处理方法的请求按路由模板取出绑定的规则
+            Object routeTemplate = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            if (routeTemplate instanceof String) {
+                return getRouteBinding().getRules(request.getMethod(), request.getContextPath() + routeTemplate,
+                        request.getRequestURI());
+            }
+        }
+
+        RuleIndex index = getRuleIndex();
+        String key = null;
+        if (matchCache != null) {
+            key = request.getMethod() + " " + request.getRequestURI();
+            List<RateLimitRule> cached = matchCache.get(key, index.getVersion());
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        List<RateLimitRule> matchedRules = new ArrayList<>();
+        for (RateLimitRule rule : index.getCandidates(request.getMethod(), request.getRequestURI())) {
+            if (matchesRule(request, rule)) {
+                matchedRules.add(rule);
+            }
+        }
+
+        if (matchCache != null) {
+            matchedRules = Collections.unmodifiableList(matchedRules);
+            matchCache.put(key, index.getVersion(), matchedRules);
+        }
+        return matchedRules;
+    }
+
+    /**
+     * 获取启用规则的索引，规则服务返回的规则对象变化时重建
+     */
+    protected RuleIndex getRuleIndex() {
+        List<RateLimitRule> rules = configService.getEnabledRules();
+        RuleIndex index = ruleIndex;
+        if (index == null || !index.isBuiltFrom(rules)) {
+            index = RuleIndex.build(rules);
+            ruleIndex = index;
+            if (matchCache != null) {
+                matchCache.clear();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 获取路由模板绑定，规则索引变化时重建，新的绑定在路由模板第一次出现时计算
+     */
+    protected RouteRuleBinding getRouteBinding() {
+        RuleIndex index = getRuleIndex();
+        RouteRuleBinding binding = routeBinding;
+        if (binding == null || binding.getIndex() != index) {
+            binding = new RouteRuleBinding(index);
+            routeBinding = binding;
+        }
+        return binding;
+    }
+
+    /**
+     * 本节点秒级实时统计，未启用时返回null
+     */
+    public LiveStatsRing getLiveStats() {
+        return liveStats;
+    }
+
+    /**
+     * 预先计算路由模板绑定的规则，应用启动完成后调用
+     *
+     * @param routeTemplates 含上下文路径的路由模板
+     */
+    public void bindRouteTemplates(Collection<String> routeTemplates) {
+        if (handlerBinding) {
+            RouteRuleBinding binding = getRouteBinding();
+            binding.bindAll(routeTemplates);
+            logger.info("已为{}个路由模板绑定限流规则", binding.size());
+        }
+    }
+
+    /**
+     * 获取规则匹配结果缓存，可用于查看命中率和缓存数量，未启用时返回null
+     */
+    public RuleMatchCache getMatchCache() {
+        return matchCache;
+    }
+
+    /**
+     * 收集规则的多维度令牌桶
+     */
+    protected void collectBuckets(HttpServletRequest request, RateLimitRule rule, List<RateLimitBucket> buckets) {
+        // 1. 路径限流（默认维度）
+        RateLimitStrategy pathStrategy = strategyFactory.getStrategy(rule);
+        buckets.add(new RateLimitBucket(pathStrategy.generateKey(request, rule), rule.getId(),
+                RateLimitBucket.DIMENSION_PATH, rule.getAlgorithm(), rule.getBucketCapacity(), rule.getRefillRate(), rule.getTimeWindowMillis()));
+
+        collectClientBuckets(request, rule, buckets);
+    }
+
+    /**
+     * 收集规则的IP和用户维度令牌桶
+     */
+    protected void collectClientBuckets(HttpServletRequest request, RateLimitRule rule, List<RateLimitBucket> buckets) {
+        // 2. IP限流（如果启用）
+        if (rule.isEnableIpLimit()) {
+            RateLimitStrategy ipStrategy = strategyFactory.getIpStrategy(rule);
+            if (ipStrategy != null && ipStrategy.extractIdentifier(request) != null) {
+                int capacity = rule.getIpBucketCapacity() != null ? rule.getIpBucketCapacity() : rule.getBucketCapacity();
+                int rate = rule.getIpRequestLimit() != null ? rule.getIpRequestLimit() : rule.getRefillRate();
+                RateLimitAlgorithm algorithm = rule.getIpAlgorithm() != null ? rule.getIpAlgorithm() : rule.getAlgorithm();
+                buckets.add(new RateLimitBucket(ipStrategy.generateKey(request, rule), rule.getId(),
+                        RateLimitBucket.DIMENSION_IP, algorithm, capacity, rate, rule.getTimeWindowMillis()));
+            }
+        }
+
+        // 3. 用户限流（如果启用，没有用户ID时跳过）
+        if (rule.isEnableUserLimit()) {
+            RateLimitStrategy userStrategy = strategyFactory.getUserStrategy(rule);
+            if (userStrategy != null && userStrategy.extractIdentifier(request) != null) {
+                int capacity = rule.getUserBucketCapacity() != null ? rule.getUserBucketCapacity() : rule.getBucketCapacity();
+                int rate = rule.getUserRequestLimit() != null ? rule.getUserRequestLimit() : rule.getRefillRate();
+                RateLimitAlgorithm algorithm = rule.getUserAlgorithm() != null ? rule.getUserAlgorithm() : rule.getAlgorithm();
+                buckets.add(new RateLimitBucket(userStrategy.generateKey(request, rule), rule.getId(),
+                        RateLimitBucket.DIMENSION_USER, algorithm, capacity, rate, rule.getTimeWindowMillis()));
+            }
+        }
+    }
+
+    /**
+     * 判断规则的所有维度是否都通过
+     */
+    protected boolean isRuleAllowed(RateLimitRule rule, List<RateLimitBucket> buckets) {
+        for (RateLimitBucket bucket : buckets) {
+            if (bucket.getRuleId().equals(rule.getId()) && !bucket.isAllowed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 将被限流令牌桶中最长的重试等待时间写入请求属性，供拦截器设置Retry-After
+     */
+    protected void exposeRetryAfter(HttpServletRequest request, List<RateLimitBucket> buckets) {
+        long retryAfter = 0;
+        for (RateLimitBucket bucket : buckets) {
+            if (!bucket.isAllowed()) {
+                retryAfter = Math.max(retryAfter, bucket.getRetryAfterMillis());
+            }
+        }
+        if (retryAfter > 0) {
+            request.setAttribute(RateLimitService.RETRY_AFTER_ATTRIBUTE, retryAfter);
+        }
+    }
+
+    /**
+     * 检查请求是否匹配规则
+     */
+    protected boolean matchesRule(HttpServletRequest request, RateLimitRule rule) {
+        // 检查路径模式
+        String requestPath = request.getRequestURI();
+        if (!rule.getCompiledPathPattern().matches(requestPath)) {
+            return false;
+        }
+
+        // 检查HTTP方法
+        if (rule.getHttpMethods() != null && !rule.getHttpMethods().isEmpty()) {
+            String requestMethod = request.getMethod();
+            HttpMethod httpMethod = HttpMethod.fromString(requestMethod);
+            if (httpMethod == null || !rule.getHttpMethods().contains(httpMethod)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
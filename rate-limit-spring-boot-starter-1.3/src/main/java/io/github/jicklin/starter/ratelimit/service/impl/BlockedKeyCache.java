@@ -0,0 +1,124 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.model.RateLimitBucket;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 被限流令牌桶的本地缓存
+ *
+ * 令牌桶被拒绝时，脚本会返回距离下一个可用令牌的时间。在这段时间内令牌桶不可能恢复可用
+ * （其他节点的请求只会让令牌更少），因此同一令牌桶的后续请求可以直接在本地拒绝，不再访问Redis。
+ * 缓存有数量上限，已满时先清理过期条目，仍然已满则不再缓存新的令牌桶。
+ * 清理需要遍历全部条目，两次清理之间至少间隔EVICT_INTERVAL_MILLIS，
+ * 缓存已满时大量被拒绝的请求不会反复遍历。
+ */
+public class BlockedKeyCache {
+
+    /**
+     * 两次清理过期条目的最小间隔（毫秒）
+     */
+    private static final long EVICT_INTERVAL_MILLIS = 100;
+
+    private final int maxEntries;
+
+    /**
+     * 下一次允许清理的时间（毫秒）
+     */
+    private final AtomicLong nextEvictTime = new AtomicLong();
+
+    /**
+     * 令牌桶键 -> 解除限流的时间（毫秒）
+     */
+    private final Map<String, Long> blockedUntil = new ConcurrentHashMap<>();
+
+    public BlockedKeyCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 检查令牌桶是否仍在限流期内，命中时直接回填拒绝结果
+     *
+     * @return 是否有令牌桶仍在限流期内
+     */
+    public boolean rejectBlocked(List<RateLimitBucket> buckets) {
+        if (blockedUntil.isEmpty()) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean blocked = false;
+        for (RateLimitBucket bucket : buckets) {
+            Long until = blockedUntil.get(bucket.getKey());
+            if (until != null && until > now) {
+                bucket.setAllowed(false);
+                bucket.setRemainingTokens(0);
+                bucket.setRetryAfterMillis(until - now);
+                blocked = true;
+            } else {
+                if (until != null) {
+                    blockedUntil.remove(bucket.getKey(), until);
+                }
+                // 未检查的令牌桶不计为被限流的维度
+                bucket.setAllowed(true);
+            }
+        }
+        return blocked;
+    }
+
+    /**
+     * 记录被拒绝的令牌桶及其重试时间
+     */
+    public void recordBlocked(List<RateLimitBucket> buckets) {
+        long now = System.currentTimeMillis();
+        for (RateLimitBucket bucket : buckets) {
+            if (bucket.isAllowed() || bucket.getRetryAfterMillis() <= 0) {
+                continue;
+            }
+            if (blockedUntil.size() >= maxEntries && !blockedUntil.containsKey(bucket.getKey())) {
+                evictExpired(now);
+                if (blockedUntil.size() >= maxEntries) {
+                    continue;
+                }
+            }
+            blockedUntil.put(bucket.getKey(), now + bucket.getRetryAfterMillis());
+        }
+    }
+
+    public void remove(String key) {
+        blockedUntil.remove(key);
+    }
+
+    public void clear() {
+        blockedUntil.clear();
+        nextEvictTime.set(0);
+    }
+
+    /**
+     * 当前缓存的令牌桶数量
+     */
+    public int size() {
+        return blockedUntil.size();
+    }
+
+    /**
+     * 清理过期条目，未到下一次清理时间或其他线程正在清理时直接返回
+     */
+    private void evictExpired(long now) {
+        long next = nextEvictTime.get();
+        if (now < next || !nextEvictTime.compareAndSet(next, Long.MAX_VALUE)) {
+            return;
+        }
+        Iterator<Long> iterator = blockedUntil.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() <= now) {
+                iterator.remove();
+            }
+        }
+        nextEvictTime.set(now + EVICT_INTERVAL_MILLIS);
+    }
+}
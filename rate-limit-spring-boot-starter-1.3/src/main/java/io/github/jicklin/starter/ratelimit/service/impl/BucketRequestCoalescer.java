@@ -0,0 +1,230 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.model.RateLimitAlgorithm;
+import io.github.jicklin.starter.ratelimit.model.RateLimitBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 同一令牌桶的并发检查合并器
+ *
+ * 同一节点上并发检查同一个令牌桶的请求合并为一次Redis调用：第一个到达的线程作为发起者，
+ * 等待该令牌桶上一次调用返回期间到达的线程加入同一批次，发起者一次请求k个令牌，
+ * 取到的令牌按到达顺序分给批次内的线程，其余线程被拒绝。
+ * 同一令牌桶同一时刻最多只有一次调用，热点令牌桶的Redis调用次数与请求线程数无关。
+ *
+ * 只对令牌桶算法生效。
+ */
+public class BucketRequestCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BucketRequestCoalescer.class);
+
+    /**
+     * Lua脚本：从令牌桶中最多取走requested个令牌
+     *
+     * KEYS[1]: 令牌桶键
+     * ARGV[1]: 当前时间（毫秒）
+     * ARGV[2..6]: algorithm, capacity, refill_rate, time_window_ms, requested
+     * 返回: {granted, remaining_tokens, retry_after}
+     */
+    private static final String ACQUIRE_SCRIPT =
+        RedisRateLimitService.TOKEN_BUCKET_FUNCTIONS +
+        "\n" +
+        "local algorithm = tonumber(ARGV[2])\n" +
+        "local capacity = tonumber(ARGV[3])\n" +
+        "local refill_rate = tonumber(ARGV[4])\n" +
+        "local window_ms = math.max(1, tonumber(ARGV[5]))\n" +
+        "local requested = tonumber(ARGV[6])\n" +
+        "\n" +
+        "local state = check_bucket(algorithm, KEYS[1], capacity, refill_rate, window_ms)\n" +
+        "local granted = math.max(0, math.min(requested, math.floor(state.tokens)))\n" +
+        "local rest = state.tokens - granted\n" +
+        "-- 没有取走令牌时不写回，与多令牌桶脚本被拒绝时的行为一致\n" +
+        "if granted > 0 then\n" +
+        "    write_bucket(algorithm, KEYS[1], capacity, refill_rate, window_ms, rest, state.stamp)\n" +
+        "end\n" +
+        "-- 有线程没有取到令牌时，按取走后的剩余令牌计算重试时间\n" +
+        "local retry = 0\n" +
+        "if granted < requested then\n" +
+        "    if refill_rate <= 0 then\n" +
+        "        retry = window_ms\n" +
+        "    elseif algorithm == 1 then\n" +
+        "        retry = math.ceil((1 - rest) * 1000 / refill_rate)\n" +
+        "    else\n" +
+        "        retry = math.max(1, (state.stamp + 1) * 1000 - now_ms)\n" +
+        "    end\n" +
+        "end\n" +
+        "return {granted, math.floor(rest), retry}";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final DefaultRedisScript<List<Object>> acquireScript;
+
+    private final Map<String, KeyQueue> queues = new ConcurrentHashMap<>();
+
+    public BucketRequestCoalescer(RedisTemplate<String, Object> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+
+        this.acquireScript = RedisRateLimitService.createListScript(ACQUIRE_SCRIPT);
+    }
+
+    /**
+     * 判断令牌桶是否可以合并检查
+     */
+    public boolean supports(RateLimitBucket bucket) {
+        return bucket.getAlgorithm() == RateLimitAlgorithm.TOKEN_BUCKET;
+    }
+
+    /**
+     * 检查令牌桶并取一个令牌，检查结果回填到bucket对象
+     *
+     * @return 是否取到令牌
+     */
+    public boolean tryAcquire(RateLimitBucket bucket, int bucketAlgorithm) {
+        KeyQueue queue;
+        Flight flight;
+        boolean leader;
+        while (true) {
+            queue = queues.computeIfAbsent(bucket.getKey(), key -> new KeyQueue());
+            synchronized (queue) {
+                if (queue.removed) {
+                    continue;
+                }
+                leader = queue.open == null;
+                if (leader) {
+                    queue.open = new Flight();
+                }
+                flight = queue.open;
+                flight.size++;
+                break;
+            }
+        }
+
+        if (leader) {
+            lead(queue, flight, bucket, bucketAlgorithm);
+        }
+        flight.await();
+        return flight.take(bucket);
+    }
+
+    /**
+     * 等待该令牌桶上一次调用返回后，为整个批次发起一次调用
+     */
+    private void lead(KeyQueue queue, Flight flight, RateLimitBucket bucket, int bucketAlgorithm) {
+        int requested;
+        boolean interrupted = false;
+        synchronized (queue) {
+            while (queue.inFlight) {
+                try {
+                    queue.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            queue.inFlight = true;
+            queue.open = null;
+            requested = flight.size;
+        }
+
+        try {
+            List<Object> result = redisTemplate.execute(acquireScript, Collections.singletonList(bucket.getKey()),
+                    System.currentTimeMillis(), bucketAlgorithm, bucket.getCapacity(), bucket.getRefillRate(),
+                    bucket.getTimeWindowMillis(), requested);
+            flight.complete(((Number) result.get(0)).longValue(), ((Number) result.get(1)).longValue(),
+                    ((Number) result.get(2)).longValue());
+
+            logger.debug("合并令牌桶检查: key={}, requested={}, granted={}", bucket.getKey(), requested, result.get(0));
+        } catch (Exception e) {
+            logger.error("合并令牌桶检查异常: " + bucket, e);
+            flight.fail();
+        } finally {
+            synchronized (queue) {
+                queue.inFlight = false;
+                if (queue.open == null) {
+                    queue.removed = true;
+                    queues.remove(bucket.getKey(), queue);
+                }
+                queue.notifyAll();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 单个令牌桶在本节点的调用队列，同一时刻最多一次调用在执行，另有一个批次在等待
+     */
+    private static class KeyQueue {
+        private Flight open;
+        private boolean inFlight;
+        private boolean removed;
+    }
+
+    /**
+     * 一次合并调用的批次
+     */
+    private static class Flight {
+        private int size;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicInteger taken = new AtomicInteger();
+        private volatile long granted;
+        private volatile long remainingTokens;
+        private volatile long retryAfterMillis;
+        private volatile boolean failed;
+
+        void complete(long granted, long remainingTokens, long retryAfterMillis) {
+            this.granted = granted;
+            this.remainingTokens = remainingTokens;
+            this.retryAfterMillis = retryAfterMillis;
+            done.countDown();
+        }
+
+        void fail() {
+            this.failed = true;
+            done.countDown();
+        }
+
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean take(RateLimitBucket bucket) {
+            // 与单次检查一致，异常情况下拒绝请求
+            if (failed) {
+                bucket.setAllowed(false);
+                return false;
+            }
+
+            int index = taken.getAndIncrement();
+            if (index < granted) {
+                bucket.setAllowed(true);
+                bucket.setRemainingTokens(remainingTokens + granted - index - 1);
+                return true;
+            }
+            bucket.setAllowed(false);
+            bucket.setRemainingTokens(0);
+            bucket.setRetryAfterMillis(retryAfterMillis);
+            return false;
+        }
+    }
+}
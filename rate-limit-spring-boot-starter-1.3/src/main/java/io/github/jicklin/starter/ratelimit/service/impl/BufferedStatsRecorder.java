@@ -0,0 +1,288 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.util.RedisKeyGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 规则请求统计的本地缓冲
+ *
+ * 请求线程只在内存中按 (规则, 分钟) 累加允许和拒绝次数，不访问Redis，也不分配对象。
+ * 后台线程定期把上次写入以来的增量在一个管道中写入规则统计Hash和分钟实时统计Hash，
+ * 键和字段与同步写入时相同。计数只增不减，按已写入的值计算增量，写入期间的并发递增不会丢失；
+ * 写入失败时增量保留到下一次写入。节点宕机时最多丢失一个写入间隔内的计数。
+ */
+public class BufferedStatsRecorder implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(BufferedStatsRecorder.class);
+
+    private static final long MINUTE_MILLIS = 60 * 1000;
+
+    private static final long STATS_TTL_SECONDS = TimeUnit.DAYS.toSeconds(7);
+    private static final long REALTIME_TTL_SECONDS = TimeUnit.HOURS.toSeconds(24);
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final RedisKeyGenerator keyGenerator;
+
+    private final Map<String, RuleCounters> counters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    public BufferedStatsRecorder(RedisTemplate<String, Object> redisTemplate, RedisKeyGenerator keyGenerator,
+                                 long flushIntervalMillis) {
+        this.redisTemplate = redisTemplate;
+        this.keyGenerator = keyGenerator;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-stats-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一次请求
+     *
+     * @param ruleId 规则ID
+     * @param allowed 是否允许
+     */
+    public void record(String ruleId, boolean allowed) {
+        record(ruleId, allowed, System.currentTimeMillis());
+    }
+
+    public void record(String ruleId, boolean allowed, long now) {
+        RuleCounters rule = counters.get(ruleId);
+        if (rule == null) {
+            rule = counters.computeIfAbsent(ruleId, RuleCounters::new);
+        }
+        rule.minute(now).add(allowed, now);
+    }
+
+    /**
+     * 把缓冲的增量写入Redis，由后台线程定期调用
+     */
+    public synchronized void flush() {
+        List<Delta> deltas = new ArrayList<>();
+        for (RuleCounters rule : counters.values()) {
+            rule.collect(deltas);
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                write(connection, deltas);
+                return null;
+            });
+            for (Delta delta : deltas) {
+                delta.commit();
+            }
+            logger.debug("限流统计写入Redis: {}个分钟计数", deltas.size());
+        } catch (Exception e) {
+            logger.error("限流统计写入Redis异常，增量保留到下一次写入", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    /**
+     * 在一个管道中写入所有增量，同一规则的多个分钟合并为一次规则统计更新
+     */
+    @SuppressWarnings("unchecked")
+    private void write(RedisConnection connection, List<Delta> deltas) {
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) redisTemplate.getHashKeySerializer();
+        RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) redisTemplate.getHashValueSerializer();
+
+        connection.openPipeline();
+        try {
+            int i = 0;
+            while (i < deltas.size()) {
+                String ruleId = deltas.get(i).counters.ruleId;
+                long allowed = 0;
+                long blocked = 0;
+                long lastRequestTime = 0;
+
+                for (; i < deltas.size() && deltas.get(i).counters.ruleId.equals(ruleId); i++) {
+                    Delta delta = deltas.get(i);
+                    allowed += delta.allowed;
+                    blocked += delta.blocked;
+                    lastRequestTime = Math.max(lastRequestTime, delta.minute.lastRequestTime);
+
+                    byte[] realtimeKey = keySerializer.serialize(keyGenerator.generateRealtimeKey(ruleId, delta.minute.minute));
+                    connection.hIncrBy(realtimeKey, hashKeySerializer.serialize("requests"), delta.allowed + delta.blocked);
+                    if (delta.allowed > 0) {
+                        connection.hIncrBy(realtimeKey, hashKeySerializer.serialize("allowed"), delta.allowed);
+                    }
+                    if (delta.blocked > 0) {
+                        connection.hIncrBy(realtimeKey, hashKeySerializer.serialize("blocked"), delta.blocked);
+                    }
+                    connection.expire(realtimeKey, REALTIME_TTL_SECONDS);
+                }
+
+                byte[] statsKey = keySerializer.serialize(keyGenerator.generateStatsKey(ruleId));
+                connection.hIncrBy(statsKey, hashKeySerializer.serialize("totalRequests"), allowed + blocked);
+                if (allowed > 0) {
+                    connection.hIncrBy(statsKey, hashKeySerializer.serialize("allowedRequests"), allowed);
+                }
+                if (blocked > 0) {
+                    connection.hIncrBy(statsKey, hashKeySerializer.serialize("blockedRequests"), blocked);
+                }
+                connection.hSet(statsKey, hashKeySerializer.serialize("lastRequestTime"), hashValueSerializer.serialize(lastRequestTime));
+                connection.expire(statsKey, STATS_TTL_SECONDS);
+            }
+        } finally {
+            connection.closePipeline();
+        }
+    }
+
+    /**
+     * 单个规则的计数
+     */
+    private static class RuleCounters {
+        private final String ruleId;
+
+        /**
+         * 当前分钟的计数
+         */
+        private volatile MinuteCounters current;
+
+        /**
+         * 已经过去、可能还有增量没有写入的分钟，由this保护
+         */
+        private final List<MinuteCounters> closed = new ArrayList<>();
+
+        RuleCounters(String ruleId) {
+            this.ruleId = ruleId;
+        }
+
+        MinuteCounters minute(long now) {
+            long minute = now - now % MINUTE_MILLIS;
+            MinuteCounters counters = current;
+            // 时钟回拨时继续计入当前分钟
+            if (counters != null && minute <= counters.minute) {
+                return counters;
+            }
+            synchronized (this) {
+                counters = current;
+                if (counters == null || minute > counters.minute) {
+                    if (counters != null) {
+                        closed.add(counters);
+                    }
+                    counters = new MinuteCounters(minute);
+                    current = counters;
+                }
+                return counters;
+            }
+        }
+
+        /**
+         * 收集有增量的分钟计数
+         * 过去的分钟在结束后至少再收集一次，保证切换分钟时正在进行的递增也被写入，全部写入后丢弃
+         */
+        synchronized void collect(List<Delta> deltas) {
+            for (int i = closed.size() - 1; i >= 0; i--) {
+                MinuteCounters counters = closed.get(i);
+                if (counters.collectedAfterClose && !counters.hasUnwritten()) {
+                    closed.remove(i);
+                }
+            }
+            for (MinuteCounters counters : closed) {
+                counters.collectedAfterClose = true;
+                addDelta(counters, deltas);
+            }
+            if (current != null) {
+                addDelta(current, deltas);
+            }
+        }
+
+        private void addDelta(MinuteCounters counters, List<Delta> deltas) {
+            long allowed = counters.allowed.sum();
+            long blocked = counters.blocked.sum();
+            if (allowed > counters.writtenAllowed || blocked > counters.writtenBlocked) {
+                deltas.add(new Delta(this, counters, allowed, blocked));
+            }
+        }
+    }
+
+    /**
+     * 单个规则一分钟内的计数
+     */
+    private static class MinuteCounters {
+        private final long minute;
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder blocked = new LongAdder();
+        private volatile long lastRequestTime;
+
+        /**
+         * 已写入Redis的计数，只由写入线程访问
+         */
+        private long writtenAllowed;
+        private long writtenBlocked;
+        private boolean collectedAfterClose;
+
+        MinuteCounters(long minute) {
+            this.minute = minute;
+        }
+
+        boolean hasUnwritten() {
+            return allowed.sum() > writtenAllowed || blocked.sum() > writtenBlocked;
+        }
+
+        void add(boolean isAllowed, long now) {
+            if (isAllowed) {
+                allowed.increment();
+            } else {
+                blocked.increment();
+            }
+            if (now > lastRequestTime) {
+                lastRequestTime = now;
+            }
+        }
+    }
+
+    /**
+     * 一次写入的增量
+     */
+    private static class Delta {
+        private final RuleCounters counters;
+        private final MinuteCounters minute;
+        private final long allowedTotal;
+        private final long blockedTotal;
+        private final long allowed;
+        private final long blocked;
+
+        Delta(RuleCounters counters, MinuteCounters minute, long allowedTotal, long blockedTotal) {
+            this.counters = counters;
+            this.minute = minute;
+            this.allowedTotal = allowedTotal;
+            this.blockedTotal = blockedTotal;
+            this.allowed = allowedTotal - minute.writtenAllowed;
+            this.blocked = blockedTotal - minute.writtenBlocked;
+        }
+
+        void commit() {
+            minute.writtenAllowed = allowedTotal;
+            minute.writtenBlocked = blockedTotal;
+        }
+    }
+}
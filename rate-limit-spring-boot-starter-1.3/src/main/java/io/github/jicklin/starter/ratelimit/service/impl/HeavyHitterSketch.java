@@ -0,0 +1,165 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 高频值统计（Space-Saving算法）
+ *
+ * 最多跟踪capacity个值，内存固定。跟踪已满时新值替换计数最小的值，并继承其计数作为误差，
+ * 因此每个值的计数是真实次数的上界，计数减误差是下界；真实次数超过 总次数/capacity 的值一定被跟踪。
+ * 计数最小的值用小顶堆维护，每次记录为O(log capacity)。
+ *
+ * 关闭后不再接受新的记录，调用方换用新的实例，用于按周期汇总后写入Redis。
+ */
+public class HeavyHitterSketch {
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    private int size;
+    private long total;
+    private boolean closed;
+
+    public HeavyHitterSketch(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.counters = new HashMap<>(Math.min(this.capacity, 1024) * 2);
+        this.heap = new Counter[this.capacity];
+    }
+
+    /**
+     * 记录一次出现
+     *
+     * @return 是否记录成功，已关闭时返回false
+     */
+    public synchronized boolean offer(String item) {
+        if (closed) {
+            return false;
+        }
+        total++;
+
+        Counter counter = counters.get(item);
+        if (counter != null) {
+            counter.count++;
+            siftDown(counter.index);
+        } else if (size < capacity) {
+            counter = new Counter(item);
+            counter.count = 1;
+            counter.index = size;
+            heap[size++] = counter;
+            counters.put(item, counter);
+            siftUp(counter.index);
+        } else {
+            // 替换计数最小的值，新值继承其计数作为误差
+            counter = heap[0];
+            counters.remove(counter.item);
+            counter.item = item;
+            counter.error = counter.count;
+            counter.count++;
+            counters.put(item, counter);
+            siftDown(0);
+        }
+        return true;
+    }
+
+    /**
+     * 关闭并返回跟踪的值，按计数从大到小排序
+     */
+    public synchronized List<Counter> close() {
+        closed = true;
+        List<Counter> result = new ArrayList<>(Arrays.asList(heap).subList(0, size));
+        Collections.sort(result, (a, b) -> Long.compare(b.count, a.count));
+        return result;
+    }
+
+    /**
+     * 记录的总次数
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void siftUp(int index) {
+        Counter counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            move(heap[parent], index);
+            index = parent;
+        }
+        move(counter, index);
+    }
+
+    private void siftDown(int index) {
+        Counter counter = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            move(heap[child], index);
+            index = child;
+        }
+        move(counter, index);
+    }
+
+    private void move(Counter counter, int index) {
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    /**
+     * 单个值的计数
+     */
+    public static class Counter {
+        private String item;
+        private long count;
+        private long error;
+        private int index;
+
+        Counter(String item) {
+            this.item = item;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        /**
+         * 计数（真实次数的上界）
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * 计数的最大误差
+         */
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * 确定发生的次数（真实次数的下界）
+         */
+        public long getGuaranteedCount() {
+            return count - error;
+        }
+    }
+}
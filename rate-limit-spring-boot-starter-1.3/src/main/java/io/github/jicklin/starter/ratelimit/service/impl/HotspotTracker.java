@@ -0,0 +1,164 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.util.RedisKeyGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地热点统计
+ *
+ * 每个 (规则, 维度) 在本节点用一个HeavyHitterSketch跟踪访问最多的IP或用户，请求线程不访问Redis。
+ * 后台线程每个周期换用新的Sketch，把上一周期确定发生的次数合并到Redis的热点ZSET，
+ * 再裁剪到前topN个，ZSET的格式与逐个请求写入时相同。
+ */
+public class HotspotTracker implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotspotTracker.class);
+
+    private static final long HOTSPOT_TTL_SECONDS = TimeUnit.HOURS.toSeconds(24);
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final RedisKeyGenerator keyGenerator;
+    private final int topN;
+    private final int sketchCapacity;
+
+    /**
+     * 规则ID -> 维度 -> 当前周期的Sketch
+     */
+    private final Map<String, Map<String, Slot>> slots = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * @param sketchCapacity 每个 (规则, 维度) 跟踪的值数量，不大于0时为topN的两倍
+     */
+    public HotspotTracker(RedisTemplate<String, Object> redisTemplate, RedisKeyGenerator keyGenerator,
+                          int topN, int sketchCapacity, long flushIntervalMillis) {
+        this.redisTemplate = redisTemplate;
+        this.keyGenerator = keyGenerator;
+        this.topN = topN;
+        // 默认跟踪topN的两倍，减少排在topN附近的值被替换
+        this.sketchCapacity = sketchCapacity > 0 ? Math.max(topN, sketchCapacity) : 2 * topN;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-hotspot-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param dimension 维度（ip、user）
+     * @param value 维度值
+     */
+    public void record(String ruleId, String dimension, String value) {
+        Map<String, Slot> dimensions = slots.get(ruleId);
+        if (dimensions == null) {
+            dimensions = slots.computeIfAbsent(ruleId, key -> new ConcurrentHashMap<>());
+        }
+        Slot slot = dimensions.get(dimension);
+        if (slot == null) {
+            slot = dimensions.computeIfAbsent(dimension, key -> new Slot(ruleId, key, sketchCapacity));
+        }
+        // 写入线程换用新Sketch时重试
+        while (!slot.sketch.offer(value)) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 把上一周期的热点合并到Redis，由后台线程定期调用
+     */
+    public synchronized void flush() {
+        List<Slot> flushed = new ArrayList<>();
+        List<List<HeavyHitterSketch.Counter>> hitters = new ArrayList<>();
+        for (Map<String, Slot> dimensions : slots.values()) {
+            for (Slot slot : dimensions.values()) {
+                HeavyHitterSketch sketch = slot.sketch;
+                if (sketch.getTotal() == 0) {
+                    continue;
+                }
+                slot.sketch = new HeavyHitterSketch(sketchCapacity);
+                flushed.add(slot);
+                hitters.add(sketch.close());
+            }
+        }
+        if (flushed.isEmpty()) {
+            return;
+        }
+
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                write(connection, flushed, hitters);
+                return null;
+            });
+            logger.debug("热点统计合并到Redis: {}个规则维度", flushed.size());
+        } catch (Exception e) {
+            logger.error("热点统计合并到Redis异常", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void write(RedisConnection connection, List<Slot> flushed, List<List<HeavyHitterSketch.Counter>> hitters) {
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+
+        connection.openPipeline();
+        try {
+            for (int i = 0; i < flushed.size(); i++) {
+                Slot slot = flushed.get(i);
+                byte[] hotspotKey = keySerializer.serialize(keyGenerator.generateHotspotStatsKey(slot.ruleId, slot.dimension));
+                int written = 0;
+                for (HeavyHitterSketch.Counter counter : hitters.get(i)) {
+                    // 只合并确定发生的次数，刚被替换进来的值不会挤进Redis中的热点
+                    if (counter.getGuaranteedCount() > 0) {
+                        connection.zIncrBy(hotspotKey, counter.getGuaranteedCount(), valueSerializer.serialize(counter.getItem()));
+                        if (++written >= topN) {
+                            break;
+                        }
+                    }
+                }
+                connection.zRemRange(hotspotKey, 0, -topN - 1);
+                connection.expire(hotspotKey, HOTSPOT_TTL_SECONDS);
+            }
+        } finally {
+            connection.closePipeline();
+        }
+    }
+
+    /**
+     * 单个 (规则, 维度) 的当前Sketch
+     */
+    private static class Slot {
+        private final String ruleId;
+        private final String dimension;
+        private volatile HeavyHitterSketch sketch;
+
+        Slot(String ruleId, String dimension, int capacity) {
+            this.ruleId = ruleId;
+            this.dimension = dimension;
+            this.sketch = new HeavyHitterSketch(capacity);
+        }
+    }
+}
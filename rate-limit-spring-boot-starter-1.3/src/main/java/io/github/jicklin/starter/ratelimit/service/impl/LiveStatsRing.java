@@ -0,0 +1,206 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 本节点按秒统计的限流实时数据
+ *
+ * 每个规则一个环形缓冲，保留最近seconds秒，每秒一个槽位记录允许次数、拒绝次数、限流检查耗时总和与最大值。
+ * 所有槽位存放在一个long数组中，记录时只做原子递增，不分配对象，也不访问Redis。
+ * 槽位中记录所属的秒，进入新的一秒时由第一个记录的线程加锁清零，读取时跳过不属于查询时间段的槽位。
+ */
+public class LiveStatsRing {
+
+    private static final int STAMP = 0;
+    private static final int ALLOWED = 1;
+    private static final int BLOCKED = 2;
+    private static final int LATENCY_SUM = 3;
+    private static final int LATENCY_MAX = 4;
+    private static final int FIELDS = 5;
+
+    private final int seconds;
+    private final Map<String, RuleRing> rings = new ConcurrentHashMap<>();
+
+    /**
+     * @param seconds 保留的秒数
+     */
+    public LiveStatsRing(int seconds) {
+        this.seconds = Math.max(1, seconds);
+    }
+
+    /**
+     * 记录一次限流检查
+     *
+     * @param ruleId 规则ID
+     * @param allowed 是否允许
+     * @param latencyNanos 限流检查耗时（纳秒）
+     */
+    public void record(String ruleId, boolean allowed, long latencyNanos) {
+        record(ruleId, allowed, latencyNanos, System.currentTimeMillis());
+    }
+
+    public void record(String ruleId, boolean allowed, long latencyNanos, long nowMillis) {
+        RuleRing ring = rings.get(ruleId);
+        if (ring == null) {
+            ring = rings.computeIfAbsent(ruleId, key -> new RuleRing(seconds));
+        }
+        ring.record(nowMillis / 1000, allowed, latencyNanos);
+    }
+
+    /**
+     * 获取规则最近的每秒统计
+     *
+     * @param ruleId 规则ID
+     * @param lastSeconds 最近的秒数，不超过保留的秒数
+     * @return 每秒统计，规则没有记录时为null
+     */
+    public Series getSeries(String ruleId, int lastSeconds) {
+        return getSeries(ruleId, lastSeconds, System.currentTimeMillis());
+    }
+
+    public Series getSeries(String ruleId, int lastSeconds, long nowMillis) {
+        RuleRing ring = rings.get(ruleId);
+        if (ring == null) {
+            return null;
+        }
+        int count = Math.max(1, Math.min(lastSeconds, seconds));
+        return ring.read(nowMillis / 1000 - count + 1, count);
+    }
+
+    /**
+     * 有记录的规则ID
+     */
+    public List<String> getRuleIds() {
+        List<String> ruleIds = new ArrayList<>(rings.keySet());
+        Collections.sort(ruleIds);
+        return ruleIds;
+    }
+
+    public int getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * 单个规则的环形缓冲
+     */
+    private static class RuleRing {
+        private final int size;
+        private final AtomicLongArray data;
+
+        RuleRing(int size) {
+            this.size = size;
+            this.data = new AtomicLongArray(size * FIELDS);
+            // 槽位初始不属于任何一秒
+            for (int i = 0; i < size; i++) {
+                data.set(i * FIELDS + STAMP, -1);
+            }
+        }
+
+        void record(long second, boolean allowed, long latencyNanos) {
+            int base = (int) (second % size) * FIELDS;
+            if (data.get(base + STAMP) != second && !roll(base, second)) {
+                return;
+            }
+            data.incrementAndGet(base + (allowed ? ALLOWED : BLOCKED));
+            data.addAndGet(base + LATENCY_SUM, latencyNanos);
+            long max;
+            while ((max = data.get(base + LATENCY_MAX)) < latencyNanos
+                    && !data.compareAndSet(base + LATENCY_MAX, max, latencyNanos)) {
+                // 重试
+            }
+        }
+
+        /**
+         * 槽位进入新的一秒时清零，计数清零后再更新所属的秒，之后的记录不会被清掉
+         *
+         * @return 槽位是否属于second，槽位已属于更新的一秒（时钟回拨）时返回false，丢弃这次记录
+         */
+        private synchronized boolean roll(int base, long second) {
+            long stamp = data.get(base + STAMP);
+            if (stamp == second) {
+                return true;
+            }
+            if (stamp > second) {
+                return false;
+            }
+            for (int field = 1; field < FIELDS; field++) {
+                data.set(base + field, 0);
+            }
+            data.set(base + STAMP, second);
+            return true;
+        }
+
+        Series read(long startSecond, int count) {
+            long[] allowed = new long[count];
+            long[] blocked = new long[count];
+            long[] avgLatency = new long[count];
+            long[] maxLatency = new long[count];
+            for (int i = 0; i < count; i++) {
+                long second = startSecond + i;
+                int base = (int) (second % size) * FIELDS;
+                if (data.get(base + STAMP) != second) {
+                    continue;
+                }
+                allowed[i] = data.get(base + ALLOWED);
+                blocked[i] = data.get(base + BLOCKED);
+                long requests = allowed[i] + blocked[i];
+                avgLatency[i] = requests > 0 ? data.get(base + LATENCY_SUM) / requests / 1000 : 0;
+                maxLatency[i] = data.get(base + LATENCY_MAX) / 1000;
+            }
+            return new Series(startSecond, allowed, blocked, avgLatency, maxLatency);
+        }
+    }
+
+    /**
+     * 规则连续若干秒的统计，数组下标i对应 startSecond + i
+     */
+    public static class Series {
+        private final long startSecond;
+        private final long[] allowed;
+        private final long[] blocked;
+        private final long[] avgLatencyMicros;
+        private final long[] maxLatencyMicros;
+
+        Series(long startSecond, long[] allowed, long[] blocked, long[] avgLatencyMicros, long[] maxLatencyMicros) {
+            this.startSecond = startSecond;
+            this.allowed = allowed;
+            this.blocked = blocked;
+            this.avgLatencyMicros = avgLatencyMicros;
+            this.maxLatencyMicros = maxLatencyMicros;
+        }
+
+        /**
+         * 第一个数据点的时间（秒级时间戳）
+         */
+        public long getStartSecond() {
+            return startSecond;
+        }
+
+        public long[] getAllowed() {
+            return allowed;
+        }
+
+        public long[] getBlocked() {
+            return blocked;
+        }
+
+        /**
+         * 每秒平均限流检查耗时（微秒）
+         */
+        public long[] getAvgLatencyMicros() {
+            return avgLatencyMicros;
+        }
+
+        /**
+         * 每秒最大限流检查耗时（微秒）
+         */
+        public long[] getMaxLatencyMicros() {
+            return maxLatencyMicros;
+        }
+    }
+}
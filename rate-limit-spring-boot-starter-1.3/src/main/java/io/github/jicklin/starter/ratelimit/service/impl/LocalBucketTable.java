@@ -0,0 +1,563 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.model.RateLimitBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 本地内存令牌桶表
+ *
+ * 令牌桶和GCRA都使用理论到达时间（TAT）实现，通过CAS无锁更新，令牌按微秒连续补充
+ * （相当于PRECISE令牌桶引擎）；补充速率为0的令牌桶与Redis脚本一致不补充令牌，
+ * 最后一次取走令牌后两个时间窗口没有新的取走时恢复为满桶（对应Redis键过期）；
+ * 固定窗口/滑动窗口使用不可变的窗口状态CAS替换。
+ *
+ * 令牌桶表有容量上限，达到上限时按CLOCK算法淘汰：时钟指针在令牌桶之间循环，
+ * 空闲的令牌桶（状态已经恢复到初始值）直接清理，最近访问过的令牌桶清除访问标记后保留一轮，
+ * 未访问且仍有令牌的令牌桶才会被清理；正在限流的令牌桶从不清理，否则重新创建后会变成满桶。
+ * 每次插入最多检查固定数量的令牌桶，淘汰开销均摊到每次插入。
+ * 删除或替换的令牌桶标记为已删除，时钟指针经过时丢弃；已删除的令牌桶多于有效令牌桶时，
+ * 插入时顺带清理环形队列，避免反复删除重建的热点键让队列无限增长。
+ * 找不到可清理的令牌桶时允许超出上限10%，超出后新的令牌桶不再缓存（按未限流处理），
+ * 已被限流的令牌桶保持不变。
+ *
+ * share用于按比例缩放令牌桶容量和补充速率：本地限流引擎使用1，
+ * Redis引擎的本地预过滤使用 1 / 节点数 × 宽松系数。
+ */
+public class LocalBucketTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalBucketTable.class);
+
+    /**
+     * 每次插入时时钟指针最多检查的令牌桶数量
+     */
+    private static final int SCAN_LIMIT = 64;
+
+    /**
+     * 令牌桶全部在限流中时，两次完整扫描之间的最小间隔（微秒）
+     */
+    private static final long SATURATED_BACKOFF_MICROS = 100000;
+
+    /**
+     * 超出上限告警的最小间隔（微秒）
+     */
+    private static final long WARN_INTERVAL_MICROS = 60000000;
+
+    private final int maxEntries;
+    private final int hardLimit;
+    private final double share;
+
+    private final Map<String, LocalBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * CLOCK算法的环形队列，队首为时钟指针，已删除或已替换的令牌桶在指针经过时丢弃
+     */
+    private final Queue<LocalBucket> clock = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 环形队列长度，ConcurrentLinkedQueue.size()需要遍历整个队列
+     */
+    private final AtomicInteger clockSize = new AtomicInteger();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private volatile long saturatedUntil;
+
+    private final AtomicLong nextWarnTime = new AtomicLong();
+    private final AtomicLong untracked = new AtomicLong();
+
+    public LocalBucketTable(int maxEntries, double share) {
+        this.maxEntries = maxEntries;
+        this.hardLimit = maxEntries + maxEntries / 10;
+        this.share = share;
+    }
+
+    /**
+     * 检查多个令牌桶，全部通过时才扣减，每个令牌桶的检查结果回填到bucket对象
+     *
+     * @return 是否全部通过
+     */
+    public boolean tryAcquire(List<RateLimitBucket> requestBuckets) {
+        long now = currentMicros();
+        LocalBucket[] locals = new LocalBucket[requestBuckets.size()];
+        int acquired = 0;
+        boolean allowed = true;
+        for (int i = 0; i < locals.length; i++) {
+            RateLimitBucket bucket = requestBuckets.get(i);
+            LocalBucket local = getBucket(bucket, now);
+            locals[i] = local;
+            // 已有令牌桶被拒绝时，剩余的令牌桶只检查不扣减
+            if (!allowed) {
+                bucket.setAllowed(local.remaining(now) >= 1);
+                continue;
+            }
+            long retryAfter = local.tryAcquire(now);
+            bucket.setAllowed(retryAfter == 0);
+            bucket.setRetryAfterMillis(retryAfter);
+            bucket.setRemainingTokens(local.remaining(now));
+            if (retryAfter == 0) {
+                acquired++;
+            } else {
+                allowed = false;
+            }
+        }
+
+        // 任一令牌桶被拒绝时，撤销已扣减的令牌，保证多令牌桶检查全部通过或全部不扣减
+        if (!allowed) {
+            for (int i = 0; i < acquired; i++) {
+                locals[i].release(now);
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * 获取令牌桶剩余令牌数
+     *
+     * @param key 令牌桶键（包含算法后缀）
+     * @param defaultValue 令牌桶不存在时的返回值
+     */
+    public long getRemainingTokens(String key, long defaultValue) {
+        LocalBucket local = buckets.get(key);
+        return local != null ? local.remaining(currentMicros()) : defaultValue;
+    }
+
+    public void remove(String key) {
+        LocalBucket removed = buckets.remove(key);
+        if (removed != null) {
+            removed.removed = true;
+        }
+    }
+
+    public void clear() {
+        buckets.clear();
+        while (clock.poll() != null) {
+            clockSize.decrementAndGet();
+        }
+    }
+
+    /**
+     * 当前令牌桶数量
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * 获取令牌桶，不存在或规则参数已变更时重新创建
+     * 令牌桶表已满且没有可清理的令牌桶时，返回不缓存的新令牌桶
+     */
+    private LocalBucket getBucket(RateLimitBucket bucket, long now) {
+        int capacity = scale(bucket.getCapacity());
+        int refillRate = scale(bucket.getRefillRate());
+        long windowMicros = Math.max(1, bucket.getTimeWindowMillis()) * 1000;
+
+        LocalBucket local = buckets.get(bucket.getKey());
+        if (local != null && local.matches(capacity, refillRate, windowMicros)) {
+            if (!local.referenced) {
+                local.referenced = true;
+            }
+            return local;
+        }
+
+        String key = bucket.getKey();
+        LocalBucket created;
+        switch (bucket.getAlgorithm()) {
+            case FIXED_WINDOW:
+                created = new WindowBucket(key, capacity, refillRate, windowMicros, false);
+                break;
+            case SLIDING_WINDOW:
+                created = new WindowBucket(key, capacity, refillRate, windowMicros, true);
+                break;
+            case TOKEN_BUCKET:
+                created = refillRate > 0
+                        ? new GcraBucket(key, capacity, refillRate, windowMicros)
+                        : new NonRefillingBucket(key, capacity, windowMicros);
+                break;
+            default:
+                created = new GcraBucket(key, capacity, refillRate, windowMicros);
+        }
+
+        if (local == null) {
+            if (buckets.size() >= maxEntries && !evict(now)) {
+                warnSaturated(now);
+                return created;
+            }
+            LocalBucket existing = buckets.putIfAbsent(key, created);
+            if (existing != null) {
+                return existing;
+            }
+        } else {
+            LocalBucket replaced = buckets.put(key, created);
+            if (replaced != null) {
+                replaced.removed = true;
+            }
+        }
+        offer(created);
+        return created;
+    }
+
+    /**
+     * 令牌桶加入环形队列，已删除的令牌桶多于有效令牌桶时清理队列
+     */
+    private void offer(LocalBucket bucket) {
+        clock.offer(bucket);
+        int size = clockSize.incrementAndGet();
+        int live = buckets.size();
+        if (size - live > Math.max(SCAN_LIMIT, live) && evicting.compareAndSet(false, true)) {
+            try {
+                for (Iterator<LocalBucket> it = clock.iterator(); it.hasNext(); ) {
+                    if (it.next().removed) {
+                        it.remove();
+                        clockSize.decrementAndGet();
+                    }
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    private int scale(int value) {
+        // 补充速率为0表示不补充，缩放后仍为0
+        return share == 1 || value <= 0 ? value : (int) Math.max(1, Math.ceil(value * share));
+    }
+
+    /**
+     * 移动时钟指针淘汰一个令牌桶
+     * 通常最多检查SCAN_LIMIT个令牌桶，找不到时暂时超出上限；
+     * 达到硬上限时检查一整圈，仍然找不到说明全部在限流中，一段时间内不再重复扫描
+     *
+     * @return 是否可以插入新的令牌桶
+     */
+    private boolean evict(long now) {
+        boolean overLimit = buckets.size() >= hardLimit;
+        if (overLimit && now < saturatedUntil) {
+            return false;
+        }
+        if (!evicting.compareAndSet(false, true)) {
+            // 其他线程正在淘汰，未达到硬上限时直接插入
+            return !overLimit;
+        }
+        try {
+            int limit = overLimit ? clockSize.get() : SCAN_LIMIT;
+            for (int i = 0; i < limit; i++) {
+                LocalBucket candidate = clock.poll();
+                if (candidate == null) {
+                    break;
+                }
+                clockSize.decrementAndGet();
+                if (candidate.removed) {
+                    continue;
+                }
+                if (candidate.isIdle(now) || (!candidate.referenced && candidate.remaining(now) >= 1)) {
+                    if (buckets.remove(candidate.key, candidate)) {
+                        candidate.removed = true;
+                        return true;
+                    }
+                    continue;
+                }
+                candidate.referenced = false;
+                clock.offer(candidate);
+                clockSize.incrementAndGet();
+            }
+            if (overLimit) {
+                saturatedUntil = now + SATURATED_BACKOFF_MICROS;
+            }
+            return !overLimit;
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * 令牌桶表已满时的告警，按时间间隔限频，告警中带上期间未缓存的令牌桶数量
+     */
+    private void warnSaturated(long now) {
+        long count = untracked.incrementAndGet();
+        long next = nextWarnTime.get();
+        if (now >= next && nextWarnTime.compareAndSet(next, now + WARN_INTERVAL_MICROS)) {
+            untracked.addAndGet(-count);
+            logger.warn("本地令牌桶数量达到上限{}且都在限流中，{}次请求的令牌桶未缓存", hardLimit, count);
+        }
+    }
+
+    private static long currentMicros() {
+        return System.nanoTime() / 1000;
+    }
+
+    /**
+     * 本地令牌桶
+     */
+    private abstract static class LocalBucket {
+        final String key;
+        final int capacity;
+        final int refillRate;
+        final long windowMicros;
+
+        /**
+         * CLOCK访问标记，时钟指针经过时清除
+         */
+        volatile boolean referenced;
+
+        /**
+         * 已从令牌桶表删除或被替换，时钟指针经过时丢弃
+         */
+        volatile boolean removed;
+
+        LocalBucket(String key, int capacity, int refillRate, long windowMicros) {
+            this.key = key;
+            this.capacity = capacity;
+            this.refillRate = refillRate;
+            this.windowMicros = windowMicros;
+        }
+
+        boolean matches(int capacity, int refillRate, long windowMicros) {
+            return this.capacity == capacity && this.refillRate == refillRate && this.windowMicros == windowMicros;
+        }
+
+        /**
+         * 尝试扣减一个令牌
+         *
+         * @return 通过时为0，否则为距离下一个可用令牌的毫秒数
+         */
+        abstract long tryAcquire(long now);
+
+        /**
+         * 撤销一次扣减
+         */
+        abstract void release(long now);
+
+        abstract long remaining(long now);
+
+        /**
+         * 状态是否已恢复到初始值
+         */
+        abstract boolean isIdle(long now);
+    }
+
+    /**
+     * 补充速率为0的令牌桶：令牌只减不增，状态在最后一次取走令牌两个时间窗口后过期，
+     * 与Redis脚本中令牌桶键的过期时间一致
+     */
+    private static class NonRefillingBucket extends LocalBucket {
+        private final long ttlMicros;
+        private final AtomicReference<UsageState> state = new AtomicReference<>(new UsageState(0, Long.MIN_VALUE));
+
+        NonRefillingBucket(String key, int capacity, long windowMicros) {
+            super(key, capacity, 0, windowMicros);
+            this.ttlMicros = windowMicros * 2;
+        }
+
+        @Override
+        long tryAcquire(long now) {
+            while (true) {
+                UsageState current = state.get();
+                long used = current.used(now);
+                if (used + 1 > capacity) {
+                    return Math.max(1, (current.expiresAt - now + 999) / 1000);
+                }
+                if (state.compareAndSet(current, new UsageState(used + 1, now + ttlMicros))) {
+                    return 0;
+                }
+            }
+        }
+
+        @Override
+        void release(long now) {
+            while (true) {
+                UsageState current = state.get();
+                if (current.used <= 0) {
+                    return;
+                }
+                if (state.compareAndSet(current, new UsageState(current.used - 1, current.expiresAt))) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        long remaining(long now) {
+            return Math.max(0, capacity - state.get().used(now));
+        }
+
+        @Override
+        boolean isIdle(long now) {
+            return now >= state.get().expiresAt;
+        }
+    }
+
+    /**
+     * 不补充令牌桶的不可变状态：已取走的令牌数和过期时间（微秒）
+     */
+    private static class UsageState {
+        final long used;
+        final long expiresAt;
+
+        UsageState(long used, long expiresAt) {
+            this.used = used;
+            this.expiresAt = expiresAt;
+        }
+
+        long used(long now) {
+            return now >= expiresAt ? 0 : used;
+        }
+    }
+
+    /**
+     * 令牌桶/GCRA：只保存理论到达时间，容量决定可突发的请求数
+     */
+    private static class GcraBucket extends LocalBucket {
+        private final long interval;
+        private final long tolerance;
+        private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+
+        GcraBucket(String key, int capacity, int refillRate, long windowMicros) {
+            super(key, capacity, refillRate, windowMicros);
+            this.interval = refillRate > 0 ? Math.max(1, 1000000L / refillRate) : windowMicros;
+            this.tolerance = capacity * interval;
+        }
+
+        @Override
+        long tryAcquire(long now) {
+            while (true) {
+                long current = tat.get();
+                long newTat = Math.max(current, now) + interval;
+                long allowAt = newTat - tolerance;
+                if (now < allowAt) {
+                    return Math.max(1, (allowAt - now + 999) / 1000);
+                }
+                if (tat.compareAndSet(current, newTat)) {
+                    return 0;
+                }
+            }
+        }
+
+        @Override
+        void release(long now) {
+            long current;
+            do {
+                current = tat.get();
+            } while (!tat.compareAndSet(current, current - interval));
+        }
+
+        @Override
+        long remaining(long now) {
+            long allowAt = Math.max(tat.get(), now) - tolerance;
+            return Math.max(0, Math.min(capacity, (now - allowAt) / interval));
+        }
+
+        @Override
+        boolean isIdle(long now) {
+            return tat.get() <= now;
+        }
+    }
+
+    /**
+     * 固定窗口/滑动窗口计数，窗口内限额 = 补充速率 × 窗口时长（至少为1）
+     */
+    private static class WindowBucket extends LocalBucket {
+        private final boolean sliding;
+        private final long limit;
+        private final AtomicReference<WindowState> state = new AtomicReference<>(new WindowState(Long.MIN_VALUE, 0, 0));
+
+        WindowBucket(String key, int capacity, int refillRate, long windowMicros, boolean sliding) {
+            super(key, capacity, refillRate, windowMicros);
+            this.sliding = sliding;
+            this.limit = Math.max(1, refillRate * (windowMicros / 1000) / 1000);
+        }
+
+        @Override
+        long tryAcquire(long now) {
+            long index = now / windowMicros;
+            while (true) {
+                WindowState current = state.get();
+                WindowState rolled = current.roll(index);
+                double used = estimate(rolled, now);
+                if (used + 1 > limit) {
+                    return retryAfter(rolled, now);
+                }
+                if (state.compareAndSet(current, new WindowState(index, rolled.current + 1, rolled.previous))) {
+                    return 0;
+                }
+            }
+        }
+
+        @Override
+        void release(long now) {
+            while (true) {
+                WindowState current = state.get();
+                if (current.current <= 0) {
+                    return;
+                }
+                if (state.compareAndSet(current, new WindowState(current.index, current.current - 1, current.previous))) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        long remaining(long now) {
+            WindowState rolled = state.get().roll(now / windowMicros);
+            return Math.max(0, (long) Math.floor(limit - estimate(rolled, now)));
+        }
+
+        @Override
+        boolean isIdle(long now) {
+            long index = now / windowMicros;
+            return state.get().index < (sliding ? index - 1 : index);
+        }
+
+        private double estimate(WindowState rolled, long now) {
+            if (!sliding) {
+                return rolled.current;
+            }
+            double elapsed = now - rolled.index * windowMicros;
+            return rolled.previous * (1 - elapsed / windowMicros) + rolled.current;
+        }
+
+        private long retryAfter(WindowState rolled, long now) {
+            long elapsed = now - rolled.index * windowMicros;
+            long retry = windowMicros - elapsed;
+            if (sliding && rolled.current + 1 <= limit && rolled.previous > 0) {
+                // 等到上一个窗口的加权计数衰减到足够低
+                retry = (long) Math.ceil((1 - (double) (limit - rolled.current - 1) / rolled.previous) * windowMicros - elapsed);
+            }
+            return Math.max(1, (retry + 999) / 1000);
+        }
+    }
+
+    /**
+     * 不可变的窗口状态
+     */
+    private static class WindowState {
+        final long index;
+        final long current;
+        final long previous;
+
+        WindowState(long index, long current, long previous) {
+            this.index = index;
+            this.current = current;
+            this.previous = previous;
+        }
+
+        /**
+         * 滚动到指定窗口
+         */
+        WindowState roll(long target) {
+            if (index == target) {
+                return this;
+            }
+            return new WindowState(target, 0, index == target - 1 ? current : 0);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
+import io.github.jicklin.starter.ratelimit.service.RateLimitConfigService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 基于本地内存的限流配置服务实现
+ *
+ * 本地限流引擎使用，规则通过编程方式保存，只在当前节点生效，重启后丢失
+ */
+public class LocalRateLimitConfigService implements RateLimitConfigService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalRateLimitConfigService.class);
+
+    private final Map<String, RateLimitRule> rules = new ConcurrentHashMap<>();
+
+    /**
+     * 按优先级排序的启用规则，规则变更时重建
+     */
+    private volatile List<RateLimitRule> enabledRules = Collections.emptyList();
+
+    @Override
+    public RateLimitRule saveRule(RateLimitRule rule) {
+        if (rule.getId() == null || rule.getId().trim().isEmpty()) {
+            rule.setId(UUID.randomUUID().toString());
+        }
+
+        rule.setUpdateTime(System.currentTimeMillis());
+        rules.put(rule.getId(), rule);
+        refreshEnabledRules();
+
+        logger.info("保存限流规则: {} - {}", rule.getId(), rule.getName());
+        return rule;
+    }
+
+    @Override
+    public RateLimitRule getRule(String ruleId) {
+        return rules.get(ruleId);
+    }
+
+    @Override
+    public List<RateLimitRule> getAllRules() {
+        return rules.values().stream()
+                .sorted(Comparator.comparingInt(RateLimitRule::getPriority))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 获取启用规则的快照，返回的列表不能修改
+     */
+    @Override
+    public List<RateLimitRule> getEnabledRules() {
+        return enabledRules;
+    }
+
+    @Override
+    public void deleteRule(String ruleId) {
+        rules.remove(ruleId);
+        refreshEnabledRules();
+
+        logger.info("删除限流规则: {}", ruleId);
+    }
+
+    @Override
+    public void toggleRule(String ruleId, boolean enabled) {
+        RateLimitRule rule = rules.get(ruleId);
+        if (rule != null) {
+            rule.setEnabled(enabled);
+            saveRule(rule);
+
+            logger.info("切换限流规则状态: {} - {}", ruleId, enabled ? "启用" : "禁用");
+        }
+    }
+
+    @Override
+    public boolean exists(String ruleId) {
+        return rules.containsKey(ruleId);
+    }
+
+    @Override
+    public void updatePriority(String ruleId, int priority) {
+        RateLimitRule rule = rules.get(ruleId);
+        if (rule != null) {
+            rule.setPriority(priority);
+            saveRule(rule);
+
+            logger.info("更新限流规则优先级: {} - {}", ruleId, priority);
+        }
+    }
+
+    private synchronized void refreshEnabledRules() {
+        enabledRules = Collections.unmodifiableList(getAllRules().stream()
+                .filter(RateLimitRule::isEnabled)
+                .collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.autoconfigure.RateLimitProperties;
+import io.github.jicklin.starter.ratelimit.model.RateLimitAlgorithm;
+import io.github.jicklin.starter.ratelimit.model.RateLimitBucket;
+import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
+import io.github.jicklin.starter.ratelimit.service.RateLimitConfigService;
+import io.github.jicklin.starter.ratelimit.service.RateLimitStatsService;
+import io.github.jicklin.starter.ratelimit.strategy.RateLimitStrategyFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+/**
+ * 基于本地内存的限流服务实现
+ *
+ * 适用于单节点或没有Redis的部署，规则语义与RedisRateLimitService一致，
+ * 令牌桶状态保存在有容量上限的LocalBucketTable中。
+ */
+public class LocalRateLimitService extends AbstractRateLimitService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalRateLimitService.class);
+
+    private final LocalBucketTable bucketTable;
+
+    public LocalRateLimitService(RateLimitConfigService configService,
+                                 RateLimitStatsService statsService,
+                                 RateLimitStrategyFactory strategyFactory,
+                                 RateLimitProperties properties) {
+        super(configService, statsService, strategyFactory, properties);
+        this.bucketTable = new LocalBucketTable(properties.getLocal().getMaxEntries(), 1);
+    }
+
+    @Override
+    protected boolean checkTokenBuckets(List<RateLimitBucket> buckets) {
+        return bucketTable.tryAcquire(buckets);
+    }
+
+    @Override
+    public long getRemainingTokens(HttpServletRequest request, RateLimitRule rule) {
+        if (rule == null || !rule.isEnabled()) {
+            return rule != null ? rule.getBucketCapacity() : 0;
+        }
+
+        String key = strategyFactory.getStrategy(rule).generateKey(request, rule);
+        return bucketTable.getRemainingTokens(key + rule.getAlgorithm().getKeySuffix(), rule.getBucketCapacity());
+    }
+
+    @Override
+    public void reset(HttpServletRequest request, RateLimitRule rule) {
+        if (rule == null) {
+            return;
+        }
+
+        String key = strategyFactory.getStrategy(rule).generateKey(request, rule);
+        for (RateLimitAlgorithm algorithm : RateLimitAlgorithm.values()) {
+            bucketTable.remove(key + algorithm.getKeySuffix());
+        }
+        logger.info("重置限流状态: {} - {}", rule.getName(), key);
+    }
+
+    @Override
+    public void resetAll() {
+        bucketTable.clear();
+        logger.info("重置所有限流状态");
+    }
+
+    /**
+     * 当前令牌桶数量
+     */
+    public int getBucketCount() {
+        return bucketTable.size();
+    }
+}
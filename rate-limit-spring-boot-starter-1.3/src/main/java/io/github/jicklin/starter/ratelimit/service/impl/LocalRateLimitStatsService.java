@@ -0,0 +1,79 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.model.RateLimitRecord;
+import io.github.jicklin.starter.ratelimit.model.RateLimitStats;
+import io.github.jicklin.starter.ratelimit.service.RateLimitStatsService;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于本地内存的限流统计服务实现
+ *
+ * 本地限流引擎使用，只按规则累计请求数，不记录IP、用户维度和详细记录
+ */
+public class LocalRateLimitStatsService implements RateLimitStatsService {
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordRequest(String ruleId, boolean allowed) {
+        Counter counter = counters.get(ruleId);
+        if (counter == null) {
+            counters.putIfAbsent(ruleId, new Counter());
+            counter = counters.get(ruleId);
+        }
+
+        counter.total.incrementAndGet();
+        if (allowed) {
+            counter.allowed.incrementAndGet();
+        } else {
+            counter.blocked.incrementAndGet();
+        }
+        counter.lastRequestTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public void recordRequest(HttpServletRequest request, String ruleId, boolean allowed) {
+        recordRequest(ruleId, allowed);
+    }
+
+    @Override
+    public void recordRateLimitDetail(RateLimitRecord record) {
+        // 本地统计不保存详细记录
+    }
+
+    /**
+     * 获取规则的统计信息
+     *
+     * @param ruleId 规则ID
+     * @return 统计信息，没有请求时返回null
+     */
+    public RateLimitStats getStats(String ruleId) {
+        Counter counter = counters.get(ruleId);
+        if (counter == null) {
+            return null;
+        }
+
+        RateLimitStats stats = new RateLimitStats(ruleId, null);
+        stats.setTotalRequests(counter.total.get());
+        stats.setAllowedRequests(counter.allowed.get());
+        stats.setBlockedRequests(counter.blocked.get());
+        stats.setLastRequestTime(counter.lastRequestTime);
+        stats.setStartTime(counter.startTime);
+        stats.setEndTime(System.currentTimeMillis());
+        stats.calculateRequestRate();
+        stats.calculateBlockRate();
+        return stats;
+    }
+
+    private static class Counter {
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong allowed = new AtomicLong();
+        private final AtomicLong blocked = new AtomicLong();
+        private final long startTime = System.currentTimeMillis();
+        private volatile long lastRequestTime;
+    }
+}
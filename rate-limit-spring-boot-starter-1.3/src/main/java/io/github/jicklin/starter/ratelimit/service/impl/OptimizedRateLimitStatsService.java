@@ -11,6 +11,7 @@ import io.github.jicklin.starter.ratelimit.strategy.impl.UserRateLimitStrategy;
 import io.github.jicklin.starter.ratelimit.util.RedisKeyGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.data.redis.core.RedisTemplate;
 
 import javax.servlet.http.HttpServletRequest;
@@ -22,7 +23,7 @@ import java.util.concurrent.TimeUnit;
  * 优化的限流统计服务实现
  * 专门处理大量用户参与的场景，减少Redis键数量
  */
-public class OptimizedRateLimitStatsService implements RateLimitStatsService {
+public class OptimizedRateLimitStatsService implements RateLimitStatsService, DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(OptimizedRateLimitStatsService.class);
 
@@ -33,6 +34,26 @@ public class OptimizedRateLimitStatsService implements RateLimitStatsService {
     private final RedisKeyGenerator keyGenerator;
     private final RateLimitProperties properties;
 
+    /**
+     * ASYNC写入方式下的本地统计缓冲，SYNC时为null
+     */
+    private final BufferedStatsRecorder statsRecorder;
+
+    /**
+     * SCRIPT写入方式下一次写入全部统计的脚本，其他写入方式时为null
+     */
+    private final StatsScriptWriter scriptWriter;
+
+    /**
+     * 独立IP/用户数统计，未启用时为null
+     */
+    private final UniqueClientCounter uniqueClientCounter;
+
+    /**
+     * 本地热点统计，未启用时为null
+     */
+    private final HotspotTracker hotspotTracker;
+
     public OptimizedRateLimitStatsService(RedisTemplate<String, Object> redisTemplate,
                                         RateLimitConfigService configService,
                                         IpRateLimitStrategy ipStrategy,
@@ -45,10 +66,38 @@ public class OptimizedRateLimitStatsService implements RateLimitStatsService {
         this.userStrategy = userStrategy;
         this.keyGenerator = keyGenerator;
         this.properties = properties;
+
+        RateLimitProperties.StatsConfig stats = properties.getStats();
+        this.statsRecorder = stats.getWriteMode() == RateLimitProperties.StatsWriteMode.ASYNC
+                ? new BufferedStatsRecorder(redisTemplate, keyGenerator, stats.getFlushIntervalMillis())
+                : null;
+        this.scriptWriter = stats.getWriteMode() == RateLimitProperties.StatsWriteMode.SCRIPT
+                ? new StatsScriptWriter(redisTemplate, keyGenerator)
+                : null;
+        this.uniqueClientCounter = stats.isUniqueClients()
+                ? new UniqueClientCounter(redisTemplate, keyGenerator, stats.getFlushIntervalMillis())
+                : null;
+        this.hotspotTracker = stats.isLocalHotspot()
+                ? new HotspotTracker(redisTemplate, keyGenerator, stats.getHotspotTopN(),
+                        stats.getHotspotSketchCapacity(), stats.getFlushIntervalMillis())
+                : null;
     }
 
     @Override
     public void recordRequest(String ruleId, boolean allowed) {
+        if (statsRecorder != null) {
+            statsRecorder.record(ruleId, allowed);
+            return;
+        }
+        if (scriptWriter != null) {
+            try {
+                scriptWriter.recordDetailed(ruleId, allowed, Collections.<String, String>emptyMap());
+            } catch (Exception e) {
+                logger.error("记录请求统计异常: " + ruleId, e);
+            }
+            return;
+        }
+
         try {
             String statsKey = keyGenerator.generateStatsKey(ruleId);
 
@@ -102,6 +151,14 @@ public class OptimizedRateLimitStatsService implements RateLimitStatsService {
 
     @Override
     public void recordRequest(HttpServletRequest request, String ruleId, boolean allowed) {
+        if (uniqueClientCounter != null) {
+            recordUniqueClients(request, ruleId);
+        }
+        if (scriptWriter != null) {
+            recordWithScript(request, ruleId, allowed);
+            return;
+        }
+
         // 先记录基础统计
         recordRequest(ruleId, allowed);
 
@@ -129,6 +186,50 @@ public class OptimizedRateLimitStatsService implements RateLimitStatsService {
         }
     }
 
+    /**
+     * 记录独立IP/用户数统计
+     */
+    private void recordUniqueClients(HttpServletRequest request, String ruleId) {
+        try {
+            String ip = ipStrategy.extractIdentifier(request);
+            if (ip != null) {
+                uniqueClientCounter.record(ruleId, "ip", ip);
+            }
+            String userId = userStrategy.extractIdentifier(request);
+            if (userId != null) {
+                uniqueClientCounter.record(ruleId, "user", userId);
+            }
+        } catch (Exception e) {
+            logger.error("记录独立IP/用户数统计异常: " + ruleId, e);
+        }
+    }
+
+    /**
+     * 用一次脚本调用记录基础统计和IP、用户热点统计
+     */
+    private void recordWithScript(HttpServletRequest request, String ruleId, boolean allowed) {
+        try {
+            Map<String, String> dimensionValues = new LinkedHashMap<>(4);
+            String ip = ipStrategy.extractIdentifier(request);
+            if (ip != null) {
+                dimensionValues.put("ip", ip);
+            }
+            String userId = userStrategy.extractIdentifier(request);
+            if (userId != null) {
+                dimensionValues.put("user", userId);
+            }
+            if (hotspotTracker != null) {
+                for (Map.Entry<String, String> entry : dimensionValues.entrySet()) {
+                    hotspotTracker.record(ruleId, entry.getKey(), entry.getValue());
+                }
+                dimensionValues = Collections.emptyMap();
+            }
+            scriptWriter.recordHotspot(ruleId, allowed, dimensionValues, properties.getStats().getHotspotTopN());
+        } catch (Exception e) {
+            logger.error("记录请求统计异常: " + ruleId, e);
+        }
+    }
+
     /**
      * 优化的统计记录方法
      * 直接使用采样和热点统计，不再判断数量
@@ -181,6 +282,10 @@ public class OptimizedRateLimitStatsService implements RateLimitStatsService {
      * 使用采样和热点统计
      */
     private void recordHotspotStats(String ruleId, String dimension, String dimensionValue, boolean allowed) {
+        if (hotspotTracker != null) {
+            hotspotTracker.record(ruleId, dimension, dimensionValue);
+            return;
+        }
 
         // 热点统计：记录访问频率高的IP/用户
         String hotspotKey = keyGenerator.generateHotspotStatsKey(ruleId, dimension);
@@ -239,4 +344,17 @@ public class OptimizedRateLimitStatsService implements RateLimitStatsService {
             return 0L;
         }
     }
+
+    @Override
+    public void destroy() {
+        if (statsRecorder != null) {
+            statsRecorder.destroy();
+        }
+        if (uniqueClientCounter != null) {
+            uniqueClientCounter.destroy();
+        }
+        if (hotspotTracker != null) {
+            hotspotTracker.destroy();
+        }
+    }
 }
@@ -0,0 +1,261 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.autoconfigure.RateLimitProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.util.ClassUtils;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限流脚本的批量管道执行器
+ *
+ * 各请求线程提交的脚本调用进入队列，后台线程在一个很短的时间窗口内（或凑满一批后）
+ * 把收集到的调用通过一次管道发送到Redis，每个调用的结果分别返回给提交的线程。
+ * 以有上限的等待时间换取更少的Redis往返和系统调用。
+ *
+ * 脚本在第一次使用前通过SCRIPT LOAD加载，管道中使用EVALSHA；返回NOSCRIPT的调用没有执行，重新加载脚本后逐个执行。
+ * 管道本身执行失败（如连接异常）时无法确定哪些调用已经执行，该批调用全部按异常处理，与单次调用异常时的处理一致。
+ *
+ * spring-data-redis 1.x 的Jedis连接不支持在管道中执行脚本，Jedis连接直接使用Jedis客户端发送管道命令。
+ */
+public class PipelinedScriptExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelinedScriptExecutor.class);
+
+    private static final boolean JEDIS_PRESENT =
+            ClassUtils.isPresent("redis.clients.jedis.Jedis", PipelinedScriptExecutor.class.getClassLoader());
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Call> queue;
+    private final Thread dispatcher;
+
+    /**
+     * 已加载到Redis的脚本SHA1
+     */
+    private final Set<String> loadedScripts = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running = true;
+
+    public PipelinedScriptExecutor(RedisTemplate<String, Object> redisTemplate, RateLimitProperties.PipelineConfig config) {
+        this.redisTemplate = redisTemplate;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(config.getWindowMicros());
+        this.maxBatch = Math.max(1, config.getMaxBatch());
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity()));
+
+        this.dispatcher = new Thread(this::dispatchLoop, "rate-limit-pipeline");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * 提交脚本调用并等待结果，队列已满或执行器已关闭时直接执行
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+        Call call = new Call(script, keys, args);
+        if (!running || !queue.offer(call)) {
+            return redisTemplate.execute(script, keys, args);
+        }
+
+        // 调用已经提交，结果可能已经扣减了令牌，等待期间不响应中断
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return (T) call.future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 停止后台线程，队列中剩余的调用逐个直接执行
+     */
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    private void dispatchLoop() {
+        List<Call> batch = new ArrayList<>(maxBatch);
+        try {
+            while (running) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    Call next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            logger.debug("限流脚本管道执行器已停止");
+        }
+
+        queue.drainTo(batch);
+        for (Call call : batch) {
+            executeDirectly(call);
+        }
+    }
+
+    private void flush(List<Call> batch) {
+        if (batch.size() == 1) {
+            executeDirectly(batch.get(0));
+            return;
+        }
+
+        List<Object> results;
+        try {
+            loadScripts(batch);
+            results = redisTemplate.execute((RedisCallback<List<Object>>) connection -> evalShaPipelined(connection, batch));
+        } catch (Exception e) {
+            logger.error("限流脚本管道执行异常: " + batch.size() + "个调用", e);
+            for (Call call : batch) {
+                call.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        logger.debug("限流脚本管道执行: {}个调用", batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Call call = batch.get(i);
+            Object result = i < results.size() ? results.get(i) : null;
+            if (!(result instanceof Exception)) {
+                call.future.complete(result);
+            } else if (String.valueOf(((Exception) result).getMessage()).contains("NOSCRIPT")) {
+                // 脚本缓存被清空（如Redis重启），该调用没有执行
+                loadedScripts.clear();
+                executeDirectly(call);
+            } else {
+                call.future.completeExceptionally((Exception) result);
+            }
+        }
+    }
+
+    /**
+     * 在一个管道中执行一批EVALSHA，返回每个调用的原始结果，执行出错的调用对应位置为异常对象
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> evalShaPipelined(RedisConnection connection, List<Call> batch) {
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        RedisSerializer<Object> argsSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+
+        if (JEDIS_PRESENT && JedisPipeline.isJedis(connection.getNativeConnection())) {
+            return JedisPipeline.evalSha(connection.getNativeConnection(), batch, keySerializer, argsSerializer);
+        }
+
+        connection.openPipeline();
+        for (Call call : batch) {
+            connection.evalSha(call.script.getSha1(), ReturnType.fromJavaType(call.script.getResultType()),
+                    call.keys.size(), call.keysAndArgs(keySerializer, argsSerializer));
+        }
+        try {
+            return connection.closePipeline();
+        } catch (RedisPipelineException e) {
+            return e.getPipelineResult();
+        }
+    }
+
+    private void loadScripts(List<Call> batch) {
+        for (Call call : batch) {
+            RedisScript<?> script = call.script;
+            if (!loadedScripts.contains(script.getSha1())) {
+                redisTemplate.execute((RedisConnection connection) ->
+                        connection.scriptLoad(script.getScriptAsString().getBytes()), true);
+                loadedScripts.add(script.getSha1());
+            }
+        }
+    }
+
+    private void executeDirectly(Call call) {
+        try {
+            call.future.complete(redisTemplate.execute(call.script, call.keys, call.args));
+        } catch (Exception e) {
+            call.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 直接使用Jedis客户端发送管道命令，Jedis不在类路径上时不会加载
+     */
+    private static class JedisPipeline {
+
+        static boolean isJedis(Object nativeConnection) {
+            return nativeConnection instanceof Jedis;
+        }
+
+        static List<Object> evalSha(Object nativeConnection, List<Call> batch,
+                                    RedisSerializer<String> keySerializer, RedisSerializer<Object> argsSerializer) {
+            Client client = ((Jedis) nativeConnection).getClient();
+            for (Call call : batch) {
+                client.evalsha(call.script.getSha1().getBytes(StandardCharsets.UTF_8), call.keys.size(),
+                        call.keysAndArgs(keySerializer, argsSerializer));
+            }
+            // 依次读取所有回复，出错的命令对应位置为JedisDataException
+            return client.getAll();
+        }
+    }
+
+    /**
+     * 一次脚本调用
+     */
+    private static class Call {
+        private final RedisScript<?> script;
+        private final List<String> keys;
+        private final Object[] args;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Call(RedisScript<?> script, List<String> keys, Object[] args) {
+            this.script = script;
+            this.keys = keys;
+            this.args = args;
+        }
+
+        byte[][] keysAndArgs(RedisSerializer<String> keySerializer, RedisSerializer<Object> argsSerializer) {
+            byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+            int i = 0;
+            for (String key : keys) {
+                keysAndArgs[i++] = keySerializer.serialize(key);
+            }
+            for (Object arg : args) {
+                keysAndArgs[i++] = argsSerializer.serialize(arg);
+            }
+            return keysAndArgs;
+        }
+    }
+}
@@ -1,42 +1,154 @@
 package io.github.jicklin.starter.ratelimit.service.impl;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
 import io.github.jicklin.starter.ratelimit.service.RateLimitConfigService;
 import io.github.jicklin.starter.ratelimit.util.RedisKeyGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
-
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * 基于Redis的限流配置服务实现
- * 优化版本：添加本地缓存以提高性能
+ * 优化版本：启用规则保存为不可变快照，请求线程无锁读取；后台线程定时刷新快照，
+ * 刷新期间请求线程继续使用旧快照，刷新失败时保留旧快照
+ *
+ * 全部规则保存在一个Hash中，与规则版本在同一个脚本中原子更新，加载全部规则只需一次HGETALL。
+ * 同时保留按规则分键的存储，兼容旧版本节点。旧版本节点和工具只写入规则ID集合和按规则分键的存储，
+ * 升级过渡期间可以开启旧版本规则同步：后台刷新时规则版本没有变化也会读取规则ID集合（一次SMEMBERS），
+ * 把旧版本新增、删除的规则同步到规则集合；旧版本只修改已有规则的内容无法被发现，
+ * 所有节点和工具升级后才能通过旧的存储格式修改规则，此时应关闭同步。
+ *
+ * 规则变更时递增规则版本并在变更通知频道上发布"版本号:规则ID"，订阅了频道的节点只重新加载变更的规则。
+ * 收到的版本不连续（漏掉了通知）时重新加载全部规则；后台定时刷新作为兜底，
+ * 版本没有变化时只读取一次版本号（开启旧版本规则同步时再读取一次规则ID集合）。
+ *
+ * 配置了快照文件时，每次快照更新后写入本地文件；启动时先从文件恢复快照，不等待Redis即可开始限流，再在后台与Redis同步。
  */
-public class RedisRateLimitConfigService implements RateLimitConfigService {
+public class RedisRateLimitConfigService implements RateLimitConfigService, MessageListener, DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisRateLimitConfigService.class);
 
+    /**
+     * 更新规则集合中的一个规则并递增规则版本，返回新版本
+     * KEYS[1]: 规则集合键, KEYS[2]: 规则版本键
+     * ARGV[1]: 规则ID, ARGV[2]: 规则JSON（省略时删除规则）
+     */
+    private static final String UPDATE_RULE_SET_SCRIPT =
+        "if #ARGV > 1 then\n" +
+        "    redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])\n" +
+        "else\n" +
+        "    redis.call('HDEL', KEYS[1], ARGV[1])\n" +
+        "end\n" +
+        "return redis.call('INCR', KEYS[2])";
+
+    /**
+     * 首次加载失败后第一次重试的延迟（毫秒），之后每次加倍，不超过MAX_RETRY_MILLIS
+     */
+    private static final long INITIAL_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 30000;
+
     private final RedisTemplate<String, Object> redisTemplate;
     private final RedisKeyGenerator redisKeyGenerator;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    // 缓存相关
-    private volatile List<RateLimitRule> allRulesCache = null;
-    private volatile List<RateLimitRule> enabledRulesCache = null;
-    private volatile long lastCacheUpdateTime = 0;
-    private final long cacheExpireTime = 10000; // 10秒缓存过期时间
-    private final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
+    /**
+     * 全部规则（含禁用规则）的快照：不可变、按优先级排序，首次使用前为null
+     */
+    private volatile List<RateLimitRule> rulesSnapshot;
+
+    /**
+     * 启用规则的快照：不可变、按优先级排序、路径模式已编译，与rulesSnapshot同时更新
+     */
+    private volatile List<RateLimitRule> enabledRulesSnapshot;
+
+    /**
+     * 当前快照对应的规则版本，由loadLock保护，未知时为-1
+     */
+    private volatile long snapshotVersion = -1;
+    private final Object loadLock = new Object();
+    private final ScheduledExecutorService refresher;
     private final Map<String, RateLimitRule> singleRuleCache = new ConcurrentHashMap<>();
 
+    /**
+     * 本地快照文件，未配置时为null
+     */
+    private final File snapshotFile;
+
+    /**
+     * 后台刷新时是否同步旧版本节点写入规则ID集合的变更
+     */
+    private final boolean legacyReconcileEnabled;
+
     public RedisRateLimitConfigService(RedisTemplate<String, Object> redisTemplate,RedisKeyGenerator redisKeyGenerator) {
+        this(redisTemplate, redisKeyGenerator, 10000);
+    }
+
+    /**
+     * @param refreshIntervalMillis 后台刷新规则快照的间隔（毫秒）
+     */
+    public RedisRateLimitConfigService(RedisTemplate<String, Object> redisTemplate, RedisKeyGenerator redisKeyGenerator,
+                                       long refreshIntervalMillis) {
+        this(redisTemplate, redisKeyGenerator, refreshIntervalMillis, null);
+    }
+
+    /**
+     * @param refreshIntervalMillis 后台刷新规则快照的间隔（毫秒）
+     * @param snapshotFile 本地快照文件路径，为空时不使用本地快照
+     */
+    public RedisRateLimitConfigService(RedisTemplate<String, Object> redisTemplate, RedisKeyGenerator redisKeyGenerator,
+                                       long refreshIntervalMillis, String snapshotFile) {
+        this(redisTemplate, redisKeyGenerator, refreshIntervalMillis, snapshotFile, false);
+    }
+
+    /**
+     * @param refreshIntervalMillis 后台刷新规则快照的间隔（毫秒）
+     * @param snapshotFile 本地快照文件路径，为空时不使用本地快照
+     * @param legacyReconcileEnabled 后台刷新时是否同步旧版本节点写入的规则，只在升级过渡期间开启
+     */
+    public RedisRateLimitConfigService(RedisTemplate<String, Object> redisTemplate, RedisKeyGenerator redisKeyGenerator,
+                                       long refreshIntervalMillis, String snapshotFile, boolean legacyReconcileEnabled) {
         this.redisTemplate = redisTemplate;
 
         this.redisKeyGenerator = redisKeyGenerator;
+
+        this.snapshotFile = snapshotFile != null && !snapshotFile.trim().isEmpty() ? new File(snapshotFile.trim()) : null;
+
+        this.legacyReconcileEnabled = legacyReconcileEnabled;
+
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-rule-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.refresher.scheduleWithFixedDelay(this::refreshInBackground,
+                refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+
+        if (loadSnapshotFile()) {
+            // 立即在后台与Redis同步
+            this.refresher.execute(this::refreshInBackground);
+        }
     }
 
     @Override
@@ -53,9 +165,10 @@ public class RedisRateLimitConfigService implements RateLimitConfigService {
 
             redisTemplate.opsForValue().set(key, ruleJson);
             redisTemplate.opsForSet().add(redisKeyGenerator.generateKey(RedisKeyGenerator.RULE_LIST_KEY), rule.getId());
+            long version = updateRuleSet(rule.getId(), ruleJson);
 
-            // 清除缓存
-            clearCache();
+            // 更新本地缓存并通知其他节点
+            publishChange(version, rule.getId());
 
             logger.info("保存限流规则: {} - {}", rule.getId(), rule.getName());
             return rule;
@@ -93,44 +206,39 @@ public class RedisRateLimitConfigService implements RateLimitConfigService {
 
     @Override
     public List<RateLimitRule> getAllRules() {
-        return loadAllRulesFromRedis();
-
+        try {
+            return loadAllRulesFromRedis();
+        } catch (Exception e) {
+            logger.error("从Redis加载所有限流规则异常", e);
+            return new ArrayList<>();
+        }
     }
 
+    /**
+     * 获取启用规则的快照，返回的列表不能修改
+     * 只有第一次调用时同步加载，之后由后台线程刷新
+     */
     @Override
     public List<RateLimitRule> getEnabledRules() {
-        // 使用读锁检查启用规则缓存
-        cacheLock.readLock().lock();
-        try {
-            if (enabledRulesCache != null && !isCacheExpired()) {
-                return new ArrayList<>(enabledRulesCache);
-            }
-        } finally {
-            cacheLock.readLock().unlock();
+        List<RateLimitRule> snapshot = enabledRulesSnapshot;
+        if (snapshot != null) {
+            return snapshot;
         }
+        ensureLoaded();
+        return enabledRulesSnapshot;
+    }
 
-        // 缓存过期或不存在，使用写锁重新加载
-        cacheLock.writeLock().lock();
-        try {
-            // 双重检查
-            if (enabledRulesCache != null && !isCacheExpired()) {
-                return new ArrayList<>(enabledRulesCache);
-            }
-
-            // 先获取所有规则（可能会触发allRulesCache的更新）
-            List<RateLimitRule> allRules = getAllRules();
-            List<RateLimitRule> enabledRules = allRules.stream()
-                    .filter(RateLimitRule::isEnabled)
-                    .collect(Collectors.toList());
-
-            // 更新启用规则缓存
-            enabledRulesCache = enabledRules;
-            lastCacheUpdateTime = System.currentTimeMillis();
-
-            return new ArrayList<>(enabledRules);
-        } finally {
-            cacheLock.writeLock().unlock();
+    /**
+     * 获取全部规则（含禁用规则）的快照，返回的列表不能修改，规则变更后返回新的列表对象
+     * 与getAllRules不同，不访问Redis
+     */
+    public List<RateLimitRule> getRuleSnapshot() {
+        List<RateLimitRule> snapshot = rulesSnapshot;
+        if (snapshot != null) {
+            return snapshot;
         }
+        ensureLoaded();
+        return rulesSnapshot;
     }
 
     @Override
@@ -139,13 +247,14 @@ public class RedisRateLimitConfigService implements RateLimitConfigService {
             String key = redisKeyGenerator.generateRuleConfigKey(ruleId);
             redisTemplate.delete(key);
             redisTemplate.opsForSet().remove(redisKeyGenerator.generateKey(RedisKeyGenerator.RULE_LIST_KEY), ruleId);
+            long version = updateRuleSet(ruleId, null);
 
             // 删除相关的统计数据
             String statsKey = redisKeyGenerator.generateStatsKey(ruleId);
             redisTemplate.delete(statsKey);
 
-            // 清除缓存
-            clearCache();
+            // 更新本地缓存并通知其他节点
+            publishChange(version, ruleId);
 
             logger.info("删除限流规则: {}", ruleId);
         } catch (Exception e) {
@@ -161,7 +270,7 @@ public class RedisRateLimitConfigService implements RateLimitConfigService {
             if (rule != null) {
                 rule.setEnabled(enabled);
                 rule.setUpdateTime(System.currentTimeMillis());
-                saveRule(rule); // saveRule 方法会自动清除缓存
+                saveRule(rule); // saveRule 方法会自动通知规则变更
 
                 logger.info("切换限流规则状态: {} - {}", ruleId, enabled ? "启用" : "禁用");
             }
@@ -188,7 +297,7 @@ public class RedisRateLimitConfigService implements RateLimitConfigService {
             if (rule != null) {
                 rule.setPriority(priority);
                 rule.setUpdateTime(System.currentTimeMillis());
-                saveRule(rule); // saveRule 方法会自动清除缓存
+                saveRule(rule); // saveRule 方法会自动通知规则变更
 
                 logger.info("更新限流规则优先级: {} - {}", ruleId, priority);
             }
@@ -199,68 +308,375 @@ public class RedisRateLimitConfigService implements RateLimitConfigService {
     }
 
     /**
-     * 从Redis批量加载所有规则
+     * 处理规则变更通知
      */
-    private List<RateLimitRule> loadAllRulesFromRedis() {
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf(':');
+        if (separator <= 0) {
+            logger.warn("无法识别的限流规则变更通知: {}", body);
+            return;
+        }
         try {
-            List<RateLimitRule> rules = new ArrayList<>();
-
-            // 获取所有规则ID
-            Set<Object> ruleIds = redisTemplate.opsForSet().members(redisKeyGenerator.generateKey(RedisKeyGenerator.RULE_LIST_KEY));
-            if (ruleIds != null && !ruleIds.isEmpty()) {
-                // 批量获取规则数据
-                List<String> keys = ruleIds.stream()
-                        .map(ruleId -> redisKeyGenerator.generateRuleConfigKey(ruleId.toString()))
-                        .collect(Collectors.toList());
-
-                List<Object> ruleDataList = redisTemplate.opsForValue().multiGet(keys);
-
-                // 解析规则数据
-                for (int i = 0; i < ruleDataList.size(); i++) {
-                    Object ruleData = ruleDataList.get(i);
-                    if (ruleData != null) {
-                        try {
-                            RateLimitRule rule = objectMapper.readValue(ruleData.toString(), RateLimitRule.class);
-                            rules.add(rule);
-                            // 同时更新单个规则缓存
-                            singleRuleCache.put(rule.getId(), rule);
-                        } catch (Exception e) {
-                            logger.warn("解析限流规则失败: {}", keys.get(i), e);
-                        }
+            applyChange(Long.parseLong(body.substring(0, separator)), body.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            logger.warn("无法识别的限流规则变更通知: {}", body);
+        }
+    }
+
+    /**
+     * 停止后台刷新线程
+     */
+    @Override
+    public void destroy() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * 从Redis的规则集合中一次加载所有规则
+     */
+    private List<RateLimitRule> loadAllRulesFromRedis() {
+        String ruleSetKey = redisKeyGenerator.generateKey(RedisKeyGenerator.RULE_SET_KEY);
+        Map<Object, Object> ruleSet = redisTemplate.opsForHash().entries(ruleSetKey);
+        if (ruleSet.isEmpty()) {
+            // 规则集合为空时可能只有旧版本按规则分键存储的数据，读取后写入规则集合
+            ruleSet = loadLegacyRuleSet();
+            if (!ruleSet.isEmpty()) {
+                redisTemplate.opsForHash().putAll(ruleSetKey, ruleSet);
+                logger.info("已将{}条限流规则写入规则集合", ruleSet.size());
+            }
+        }
+
+        // 解析规则数据
+        List<RateLimitRule> rules = new ArrayList<>(ruleSet.size());
+        for (Map.Entry<Object, Object> entry : ruleSet.entrySet()) {
+            try {
+                RateLimitRule rule = objectMapper.readValue(entry.getValue().toString(), RateLimitRule.class);
+                rules.add(rule);
+                // 同时更新单个规则缓存
+                singleRuleCache.put(rule.getId(), rule);
+            } catch (Exception e) {
+                logger.warn("解析限流规则失败: {}", entry.getKey(), e);
+            }
+        }
+
+        // 按优先级排序
+        return rules.stream()
+                .sorted(Comparator.comparingInt(RateLimitRule::getPriority))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 按旧的存储格式（规则ID集合 + 每个规则一个键）批量读取规则，返回规则ID到规则JSON的映射
+     */
+    private Map<Object, Object> loadLegacyRuleSet() {
+        Map<Object, Object> ruleSet = new HashMap<>();
+        Set<Object> ruleIds = redisTemplate.opsForSet().members(redisKeyGenerator.generateKey(RedisKeyGenerator.RULE_LIST_KEY));
+        if (ruleIds == null || ruleIds.isEmpty()) {
+            return ruleSet;
+        }
+
+        List<Object> idList = new ArrayList<>(ruleIds);
+        List<String> keys = idList.stream()
+                .map(ruleId -> redisKeyGenerator.generateRuleConfigKey(ruleId.toString()))
+                .collect(Collectors.toList());
+        List<Object> ruleDataList = redisTemplate.opsForValue().multiGet(keys);
+        for (int i = 0; i < ruleDataList.size(); i++) {
+            if (ruleDataList.get(i) != null) {
+                ruleSet.put(idList.get(i).toString(), ruleDataList.get(i));
+            }
+        }
+        return ruleSet;
+    }
+
+    /**
+     * 第一次使用时同步加载快照
+     */
+    private void ensureLoaded() {
+        synchronized (loadLock) {
+            if (rulesSnapshot == null) {
+                try {
+                    refreshSnapshot();
+                } catch (Exception e) {
+                    // 首次加载失败时使用空快照，由后台线程按退避间隔重试直到加载成功，避免请求线程反复访问Redis
+                    logger.error("从Redis加载所有限流规则异常", e);
+                    replaceSnapshot(Collections.emptyList(), -1);
+                    scheduleRetry(INITIAL_RETRY_MILLIS);
+                }
+            }
+        }
+    }
+
+    /**
+     * 首次加载失败后重试加载，不等待定时刷新；定时刷新或变更通知已经加载成功时停止重试
+     */
+    private void scheduleRetry(long delayMillis) {
+        if (refresher.isShutdown()) {
+            return;
+        }
+        refresher.schedule(() -> {
+            if (snapshotVersion >= 0) {
+                return;
+            }
+            try {
+                refreshSnapshot();
+                logger.info("重试加载限流规则成功");
+            } catch (Exception e) {
+                long nextDelayMillis = Math.min(delayMillis * 2, MAX_RETRY_MILLIS);
+                logger.error("重试加载限流规则异常，" + nextDelayMillis + "毫秒后再次重试", e);
+                scheduleRetry(nextDelayMillis);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 从Redis加载规则并替换快照，加载失败时抛出异常，旧快照保持不变
+     */
+    private void refreshSnapshot() {
+        synchronized (loadLock) {
+            // 先读取版本再加载规则，加载到的规则不会比记录的版本旧
+            long version = readVersion();
+            replaceSnapshot(loadAllRulesFromRedis(), version);
+            saveSnapshotFile();
+        }
+    }
+
+    /**
+     * 替换全部规则和启用规则的快照
+     *
+     * @param rules 按优先级排序的全部规则
+     * @param version 规则版本
+     */
+    private void replaceSnapshot(List<RateLimitRule> rules, long version) {
+        synchronized (loadLock) {
+            List<RateLimitRule> enabledRules = new ArrayList<>();
+            for (RateLimitRule rule : rules) {
+                if (rule.isEnabled()) {
+                    // 预先编译路径模式，请求线程不再编译
+                    rule.getCompiledPathPattern();
+                    enabledRules.add(rule);
+                }
+            }
+            rulesSnapshot = Collections.unmodifiableList(new ArrayList<>(rules));
+            enabledRulesSnapshot = Collections.unmodifiableList(enabledRules);
+            snapshotVersion = version;
+        }
+    }
+
+    /**
+     * 应用一次规则变更：版本连续时只重新加载变更的规则，否则重新加载全部规则
+     *
+     * @param version 变更后的规则版本
+     * @param ruleId 变更的规则ID
+     */
+    private void applyChange(long version, String ruleId) {
+        synchronized (loadLock) {
+            singleRuleCache.remove(ruleId);
+            List<RateLimitRule> snapshot = rulesSnapshot;
+            if (snapshot == null || version <= snapshotVersion) {
+                // 尚未加载或已经包含该变更（如本节点自己发布的通知）
+                return;
+            }
+
+            try {
+                if (version != snapshotVersion + 1) {
+                    logger.debug("限流规则版本不连续: {} -> {}，重新加载全部规则", snapshotVersion, version);
+                    refreshSnapshot();
+                    return;
+                }
+
+                List<RateLimitRule> rules = new ArrayList<>(snapshot.size() + 1);
+                for (RateLimitRule rule : snapshot) {
+                    if (!ruleId.equals(rule.getId())) {
+                        rules.add(rule);
                     }
                 }
+                RateLimitRule changed = loadRuleFromRedis(ruleId);
+                if (changed != null) {
+                    rules.add(changed);
+                    rules.sort(Comparator.comparingInt(RateLimitRule::getPriority));
+                }
+                replaceSnapshot(rules, version);
+                saveSnapshotFile();
+                logger.debug("已应用限流规则变更: {} (版本 {})", ruleId, version);
+            } catch (Exception e) {
+                // 版本保持不变，下一次通知或后台刷新时重新加载全部规则
+                logger.error("应用限流规则变更异常: " + ruleId, e);
             }
+        }
+    }
+
+    /**
+     * 在规则集合中保存或删除一个规则，同时递增规则版本
+     *
+     * @param ruleJson 规则JSON，为null时删除规则
+     * @return 新的规则版本
+     */
+    @SuppressWarnings("unchecked")
+    private long updateRuleSet(String ruleId, String ruleJson) {
+        // 字段和值按模板的Hash序列化方式编码，与opsForHash读取的格式一致
+        RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) redisTemplate.getHashKeySerializer();
+        RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) redisTemplate.getHashValueSerializer();
+        byte[][] keysAndArgs = ruleJson != null
+                ? new byte[][]{rawKey(RedisKeyGenerator.RULE_SET_KEY), rawKey(RedisKeyGenerator.RULE_VERSION_KEY),
+                        hashKeySerializer.serialize(ruleId), hashValueSerializer.serialize(ruleJson)}
+                : new byte[][]{rawKey(RedisKeyGenerator.RULE_SET_KEY), rawKey(RedisKeyGenerator.RULE_VERSION_KEY),
+                        hashKeySerializer.serialize(ruleId)};
+        Long version = redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.eval(UPDATE_RULE_SET_SCRIPT.getBytes(StandardCharsets.UTF_8), ReturnType.INTEGER, 2, keysAndArgs));
+        return version;
+    }
+
+    /**
+     * 更新本节点的快照后发布变更通知
+     */
+    private void publishChange(long version, String ruleId) {
+        try {
+            applyChange(version, ruleId);
 
-            // 按优先级排序
-            return rules.stream()
-                    .sorted(Comparator.comparingInt(RateLimitRule::getPriority))
-                    .collect(Collectors.toList());
+            byte[] message = (version + ":" + ruleId).getBytes(StandardCharsets.UTF_8);
+            redisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.publish(rawKey(RedisKeyGenerator.RULE_CHANGE_CHANNEL), message));
         } catch (Exception e) {
-            logger.error("从Redis加载所有限流规则异常", e);
-            return new ArrayList<>();
+            logger.error("发布限流规则变更通知异常: " + ruleId, e);
+            reloadCache();
+        }
+    }
+
+    /**
+     * 读取当前规则版本，没有发生过变更时为0
+     */
+    private long readVersion() {
+        byte[] value = redisTemplate.execute((RedisConnection connection) ->
+                connection.get(rawKey(RedisKeyGenerator.RULE_VERSION_KEY)), true);
+        return value != null ? Long.parseLong(new String(value, StandardCharsets.UTF_8)) : 0;
+    }
+
+    /**
+     * 从Redis读取单个规则，不存在时返回null
+     */
+    private RateLimitRule loadRuleFromRedis(String ruleId) throws Exception {
+        Object ruleData = redisTemplate.opsForHash().get(redisKeyGenerator.generateKey(RedisKeyGenerator.RULE_SET_KEY), ruleId);
+        return ruleData != null ? objectMapper.readValue(ruleData.toString(), RateLimitRule.class) : null;
+    }
+
+    /**
+     * 从本地快照文件恢复规则快照
+     *
+     * @return 是否恢复成功
+     */
+    private boolean loadSnapshotFile() {
+        if (snapshotFile == null || !snapshotFile.isFile()) {
+            return false;
+        }
+        try {
+            JsonNode root = objectMapper.readTree(snapshotFile);
+            List<RateLimitRule> rules = objectMapper.convertValue(root.get("rules"),
+                    new TypeReference<List<RateLimitRule>>() {});
+            replaceSnapshot(rules, root.path("version").asLong(-1));
+            logger.info("已从本地快照恢复{}条限流规则: {}", rules.size(), snapshotFile);
+            return true;
+        } catch (Exception e) {
+            logger.warn("读取限流规则本地快照失败: " + snapshotFile, e);
+            return false;
         }
     }
 
     /**
-     * 检查缓存是否过期
+     * 把当前快照写入本地文件，先写临时文件再替换，进程中断时不会留下不完整的文件
      */
-    private boolean isCacheExpired() {
-        return System.currentTimeMillis() - lastCacheUpdateTime > cacheExpireTime;
+    private void saveSnapshotFile() {
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            Map<String, Object> content = new LinkedHashMap<>();
+            content.put("version", snapshotVersion);
+            content.put("rules", rulesSnapshot);
+
+            File dir = snapshotFile.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.isDirectory()) {
+                Files.createDirectories(dir.toPath());
+            }
+            File tmp = new File(dir, snapshotFile.getName() + ".tmp");
+            objectMapper.writeValue(tmp, content);
+            Files.move(tmp.toPath(), snapshotFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("写入限流规则本地快照失败: " + snapshotFile, e);
+        }
+    }
+
+    private byte[] rawKey(String key) {
+        return redisKeyGenerator.generateKey(key).getBytes(StandardCharsets.UTF_8);
     }
 
     /**
-     * 清除所有缓存
+     * 后台定时刷新，规则版本没有变化时不重新加载，失败时继续使用旧快照
      */
-    private void clearCache() {
-        cacheLock.writeLock().lock();
+    private void refreshInBackground() {
         try {
-            allRulesCache = null;
-            enabledRulesCache = null;
-            singleRuleCache.clear();
-            lastCacheUpdateTime = 0;
-            logger.debug("已清除限流规则缓存");
-        } finally {
-            cacheLock.writeLock().unlock();
+            if (rulesSnapshot != null && readVersion() == snapshotVersion) {
+                if (legacyReconcileEnabled) {
+                    reconcileLegacyRules();
+                }
+                return;
+            }
+            refreshSnapshot();
+        } catch (Exception e) {
+            logger.error("刷新限流规则快照异常，继续使用旧规则", e);
+        }
+    }
+
+    /**
+     * 把旧版本节点和工具写入规则ID集合的变更同步到规则集合
+     * 规则ID集合与快照一致时只需一次SMEMBERS；新增的规则写入规则集合，ID集合和规则键都已删除的规则从规则集合删除，
+     * 每个变更都递增规则版本并发布通知，其他节点按正常的变更通知处理
+     */
+    private void reconcileLegacyRules() {
+        Set<Object> members = redisTemplate.opsForSet().members(redisKeyGenerator.generateKey(RedisKeyGenerator.RULE_LIST_KEY));
+        Set<String> legacyIds = new HashSet<>();
+        if (members != null) {
+            for (Object member : members) {
+                legacyIds.add(member.toString());
+            }
+        }
+        Set<String> snapshotIds = new HashSet<>();
+        for (RateLimitRule rule : rulesSnapshot) {
+            snapshotIds.add(rule.getId());
+        }
+        if (legacyIds.equals(snapshotIds)) {
+            return;
+        }
+
+        for (String ruleId : legacyIds) {
+            if (!snapshotIds.contains(ruleId)) {
+                Object ruleData = redisTemplate.opsForValue().get(redisKeyGenerator.generateRuleConfigKey(ruleId));
+                if (ruleData != null) {
+                    publishChange(updateRuleSet(ruleId, ruleData.toString()), ruleId);
+                    logger.info("同步旧版本写入的限流规则: {}", ruleId);
+                }
+            }
+        }
+        for (String ruleId : snapshotIds) {
+            if (!legacyIds.contains(ruleId) && !redisTemplate.hasKey(redisKeyGenerator.generateRuleConfigKey(ruleId))) {
+                publishChange(updateRuleSet(ruleId, null), ruleId);
+                logger.info("同步旧版本删除的限流规则: {}", ruleId);
+            }
+        }
+    }
+
+    /**
+     * 清除单个规则缓存并立即重新加载快照
+     */
+    private void reloadCache() {
+        singleRuleCache.clear();
+        try {
+            refreshSnapshot();
+            logger.debug("已重新加载限流规则缓存");
+        } catch (Exception e) {
+            logger.error("重新加载限流规则缓存异常，等待后台刷新", e);
         }
     }
 }
@@ -1,271 +1,503 @@
 package io.github.jicklin.starter.ratelimit.service.impl;
 
-import io.github.jicklin.starter.ratelimit.model.HttpMethod;
+import io.github.jicklin.starter.ratelimit.autoconfigure.RateLimitProperties;
+import io.github.jicklin.starter.ratelimit.model.RateLimitAlgorithm;
+import io.github.jicklin.starter.ratelimit.model.RateLimitBucket;
 import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
 import io.github.jicklin.starter.ratelimit.service.RateLimitConfigService;
-import io.github.jicklin.starter.ratelimit.service.RateLimitService;
 import io.github.jicklin.starter.ratelimit.service.RateLimitStatsService;
 import io.github.jicklin.starter.ratelimit.strategy.RateLimitStrategy;
 import io.github.jicklin.starter.ratelimit.strategy.RateLimitStrategyFactory;
-import io.github.jicklin.starter.ratelimit.util.AntPathMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 
 import javax.servlet.http.HttpServletRequest;
-import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 
 /**
  * 基于Redis的限流服务实现
  */
-public class RedisRateLimitService implements RateLimitService {
+public class RedisRateLimitService extends AbstractRateLimitService implements DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisRateLimitService.class);
 
     private final RedisTemplate<String, Object> redisTemplate;
-    private final RateLimitConfigService configService;
-    private final RateLimitStatsService statsService;
-    private final RateLimitStrategyFactory strategyFactory;
+    private final RateLimitProperties properties;
 
     /**
-     * Lua脚本：令牌桶算法实现
-     * 修复多次填充问题：确保同一时间点不会重复填充令牌
+     * 算法编码（传入Lua脚本）
      */
-    private static final String TOKEN_BUCKET_SCRIPT =
-        "local key = KEYS[1]\n" +
-        "local capacity = tonumber(ARGV[1])\n" +
-        "local refill_rate = tonumber(ARGV[2])\n" +
-        "local time_window = tonumber(ARGV[3])\n" +
-        "local now = tonumber(ARGV[4])\n" +
+    private static final int ALGORITHM_CLASSIC_BUCKET = 0;
+    private static final int ALGORITHM_PRECISE_BUCKET = 1;
+    private static final int ALGORITHM_GCRA = 2;
+    private static final int ALGORITHM_FIXED_WINDOW = 3;
+    private static final int ALGORITHM_SLIDING_WINDOW = 4;
+
+    /**
+     * 令牌桶公共Lua函数：检查（只读）与写回，多令牌桶脚本和令牌租约脚本共用
+     * ARGV[1]固定为当前时间（毫秒）
+     */
+    static final String TOKEN_BUCKET_FUNCTIONS =
+        "local now_ms = tonumber(ARGV[1])\n" +
+        "\n" +
+        "-- 经典令牌桶：refill_rate是每秒补充的令牌数，elapsed是秒数\n" +
+        "local function check_classic(key, capacity, refill_rate, window_ms)\n" +
+        "    local now = math.floor(now_ms / 1000)\n" +
+        "    local bucket = redis.call('HMGET', key, 'tokens', 'last_refill')\n" +
+        "    local tokens = tonumber(bucket[1]) or capacity\n" +
+        "    local last_refill = tonumber(bucket[2]) or now\n" +
+        "    local elapsed = math.max(0, now - last_refill)\n" +
+        "    local tokens_to_add = math.floor(elapsed * refill_rate)\n" +
+        "    -- 只有当需要添加令牌时才更新last_refill，避免重复填充\n" +
+        "    if tokens_to_add > 0 then\n" +
+        "        tokens = math.min(capacity, tokens + tokens_to_add)\n" +
+        "        last_refill = now\n" +
+        "    end\n" +
+        "    local retry = 0\n" +
+        "    if tokens < 1 then\n" +
+        "        retry = refill_rate > 0 and math.max(1, (last_refill + 1) * 1000 - now_ms) or window_ms\n" +
+        "    end\n" +
+        "    return {allowed = tokens >= 1, tokens = tokens, stamp = last_refill, retry = retry}\n" +
+        "end\n" +
+        "\n" +
+        "-- 精确令牌桶：按毫秒连续补充小数令牌\n" +
+        "local function check_precise(key, capacity, refill_rate, window_ms)\n" +
+        "    local bucket = redis.call('HMGET', key, 'tokens', 'last_refill_ms')\n" +
+        "    local tokens = tonumber(bucket[1]) or capacity\n" +
+        "    local last_refill = tonumber(bucket[2]) or now_ms\n" +
+        "    local elapsed = math.max(0, now_ms - last_refill)\n" +
+        "    tokens = math.min(capacity, tokens + elapsed * refill_rate / 1000)\n" +
+        "    local retry = 0\n" +
+        "    if tokens < 1 then\n" +
+        "        retry = refill_rate > 0 and math.ceil((1 - tokens) * 1000 / refill_rate) or window_ms\n" +
+        "    end\n" +
+        "    -- 并发请求携带的时间可能早于已写入的时间戳，时间戳不能回退，否则会重复补充令牌\n" +
+        "    return {allowed = tokens >= 1, tokens = tokens, stamp = math.max(last_refill, now_ms), retry = retry}\n" +
+        "end\n" +
+        "\n" +
+        "local function check_bucket(algorithm, key, capacity, refill_rate, window_ms)\n" +
+        "    if algorithm == 1 then\n" +
+        "        return check_precise(key, capacity, refill_rate, window_ms)\n" +
+        "    end\n" +
+        "    return check_classic(key, capacity, refill_rate, window_ms)\n" +
+        "end\n" +
         "\n" +
-        "local bucket = redis.call('HMGET', key, 'tokens', 'last_refill')\n" +
-        "local tokens = tonumber(bucket[1]) or capacity\n" +
-        "local last_refill = tonumber(bucket[2]) or now\n" +
+        "-- 写回令牌桶状态并设置过期时间\n" +
+        "-- 令牌按refill_rate每秒补充，与时间窗口无关，过期时间至少保留到令牌桶补满，\n" +
+        "-- 否则亚秒级窗口的空桶提前过期后重新创建为满桶；经典引擎按整秒补充，多保留一秒\n" +
+        "local function write_bucket(algorithm, key, capacity, refill_rate, window_ms, tokens, stamp)\n" +
+        "    local ttl = window_ms * 2\n" +
+        "    if refill_rate > 0 then\n" +
+        "        local refill_ms = math.ceil(capacity * 1000 / refill_rate)\n" +
+        "        ttl = math.max(ttl, algorithm == 1 and refill_ms or refill_ms + 1000)\n" +
+        "    end\n" +
+        "    if algorithm == 1 then\n" +
+        "        redis.call('HMSET', key, 'tokens', tokens, 'last_refill_ms', stamp)\n" +
+        "    else\n" +
+        "        redis.call('HMSET', key, 'tokens', tokens, 'last_refill', stamp)\n" +
+        "    end\n" +
+        "    redis.call('PEXPIRE', key, math.max(1, ttl))\n" +
+        "end\n";
+
+    /**
+     * Lua脚本：多令牌桶原子检查
+     * 一次调用检查请求命中的所有令牌桶（多条规则 × 路径/IP/用户维度），
+     * 只有全部令牌桶都通过时才统一扣减，否则不做任何修改。
+     *
+     * 经典令牌桶：秒级时间戳，令牌按整秒批量补充，时间戳存储在last_refill字段
+     * 精确令牌桶：毫秒级时间戳，保留小数令牌连续补充，时间戳存储在last_refill_ms字段，
+     *            两种引擎使用不同的时间戳字段，切换引擎时不会误读对方的时间戳
+     * GCRA：每个键只存储理论到达时间（毫秒），使用SET ... PX一次写入
+     * 固定窗口/滑动窗口：键后追加窗口序号作为计数键，INCR + PEXPIRE，
+     *            窗口内限额 = refill_rate × 窗口时长（至少为1）
+     *
+     * 脚本访问的键全部通过KEYS传入，窗口计数键由调用方按ARGV[1]的时间计算，保证Redis Cluster下的键声明完整
+     * KEYS: 每个令牌桶依次为 令牌桶键, 当前窗口计数键, 上一个窗口计数键（非窗口算法三者均为令牌桶键）
+     * ARGV[1]: 当前时间（毫秒）
+     * ARGV[2..]: 每个令牌桶依次为 algorithm, capacity, refill_rate, time_window_ms
+     * 返回: {all_allowed, allowed_1, tokens_1, retry_after_1, allowed_2, tokens_2, retry_after_2, ...}
+     */
+    private static final String MULTI_TOKEN_BUCKET_SCRIPT =
+        TOKEN_BUCKET_FUNCTIONS +
         "\n" +
-        "-- 计算需要补充的令牌数（修复：确保时间间隔计算正确）\n" +
-        "local elapsed = math.max(0, now - last_refill)\n" +
-        "-- refill_rate是每秒补充的令牌数，elapsed是秒数\n" +
-        "local tokens_to_add = math.floor(elapsed * refill_rate)\n" +
+        "-- GCRA：emission_interval为每个令牌的间隔，容量决定可突发的请求数\n" +
+        "local function check_gcra(key, capacity, refill_rate, window_ms)\n" +
+        "    local interval = refill_rate > 0 and 1000 / refill_rate or window_ms\n" +
+        "    local tat = math.max(tonumber(redis.call('GET', key)) or now_ms, now_ms)\n" +
+        "    local new_tat = tat + interval\n" +
+        "    local allow_at = new_tat - capacity * interval\n" +
+        "    if now_ms < allow_at then\n" +
+        "        return {allowed = false, tokens = 0, stamp = tat, retry = math.ceil(allow_at - now_ms)}\n" +
+        "    end\n" +
+        "    local remaining = math.floor((now_ms - allow_at) / interval)\n" +
+        "    return {allowed = true, tokens = remaining + 1, stamp = new_tat, retry = 0}\n" +
+        "end\n" +
         "\n" +
-        "-- 只有当需要添加令牌时才更新last_refill，避免重复填充\n" +
-        "local new_last_refill = last_refill\n" +
-        "if tokens_to_add > 0 then\n" +
-        "    tokens = math.min(capacity, tokens + tokens_to_add)\n" +
-        "    new_last_refill = now\n" +
+        "-- 窗口算法的限额：与令牌桶保持相同的平均速率\n" +
+        "local function window_limit(refill_rate, window_ms)\n" +
+        "    return math.max(1, math.floor(refill_rate * window_ms / 1000))\n" +
         "end\n" +
         "\n" +
-        "local allowed = 0\n" +
-        "if tokens > 0 then\n" +
-        "    tokens = tokens - 1\n" +
-        "    allowed = 1\n" +
+        "-- 固定窗口：当前窗口计数达到限额即拒绝，等到窗口结束\n" +
+        "local function check_fixed_window(window_key, capacity, refill_rate, window_ms)\n" +
+        "    local index = math.floor(now_ms / window_ms)\n" +
+        "    local limit = window_limit(refill_rate, window_ms)\n" +
+        "    local used = tonumber(redis.call('GET', window_key)) or 0\n" +
+        "    if used >= limit then\n" +
+        "        return {allowed = false, tokens = 0, stamp = window_key, retry = (index + 1) * window_ms - now_ms}\n" +
+        "    end\n" +
+        "    return {allowed = true, tokens = limit - used, stamp = window_key, retry = 0}\n" +
+        "end\n" +
+        "\n" +
+        "-- 滑动窗口计数：上一个窗口的计数按未过去的时间比例加权\n" +
+        "local function check_sliding_window(window_key, previous_key, capacity, refill_rate, window_ms)\n" +
+        "    local index = math.floor(now_ms / window_ms)\n" +
+        "    local limit = window_limit(refill_rate, window_ms)\n" +
+        "    local current = tonumber(redis.call('GET', window_key)) or 0\n" +
+        "    local previous = tonumber(redis.call('GET', previous_key)) or 0\n" +
+        "    local elapsed = now_ms - index * window_ms\n" +
+        "    local estimated = previous * (1 - elapsed / window_ms) + current\n" +
+        "    if estimated + 1 > limit then\n" +
+        "        local retry = (index + 1) * window_ms - now_ms\n" +
+        "        if current + 1 <= limit and previous > 0 then\n" +
+        "            -- 等到上一个窗口的加权计数衰减到足够低\n" +
+        "            retry = math.ceil((1 - (limit - current - 1) / previous) * window_ms - elapsed)\n" +
+        "        end\n" +
+        "        return {allowed = false, tokens = 0, stamp = window_key, retry = math.max(1, retry)}\n" +
+        "    end\n" +
+        "    return {allowed = true, tokens = math.floor(limit - estimated), stamp = window_key, retry = 0}\n" +
+        "end\n" +
+        "\n" +
+        "local count = #KEYS / 3\n" +
+        "local states = {}\n" +
+        "local all_allowed = 1\n" +
+        "\n" +
+        "for i = 1, count do\n" +
+        "    local base = 1 + (i - 1) * 4\n" +
+        "    local algorithm = tonumber(ARGV[base + 1])\n" +
+        "    local capacity = tonumber(ARGV[base + 2])\n" +
+        "    local refill_rate = tonumber(ARGV[base + 3])\n" +
+        "    local window_ms = math.max(1, tonumber(ARGV[base + 4]))\n" +
+        "    local key = KEYS[3 * i - 2]\n" +
+        "    local state\n" +
+        "    if algorithm == 4 then\n" +
+        "        state = check_sliding_window(KEYS[3 * i - 1], KEYS[3 * i], capacity, refill_rate, window_ms)\n" +
+        "    elseif algorithm == 3 then\n" +
+        "        state = check_fixed_window(KEYS[3 * i - 1], capacity, refill_rate, window_ms)\n" +
+        "    elseif algorithm == 2 then\n" +
+        "        state = check_gcra(key, capacity, refill_rate, window_ms)\n" +
+        "    else\n" +
+        "        state = check_bucket(algorithm, key, capacity, refill_rate, window_ms)\n" +
+        "    end\n" +
+        "    states[i] = state\n" +
+        "    if not state.allowed then\n" +
+        "        all_allowed = 0\n" +
+        "    end\n" +
         "end\n" +
         "\n" +
-        "-- 更新令牌桶状态\n" +
-        "redis.call('HMSET', key, 'tokens', tokens, 'last_refill', new_last_refill)\n" +
-        "redis.call('EXPIRE', key, time_window * 2)\n" +
-        "return {allowed, tokens}";
+        "local result = {all_allowed}\n" +
+        "for i = 1, count do\n" +
+        "    local base = 1 + (i - 1) * 4\n" +
+        "    local algorithm = tonumber(ARGV[base + 1])\n" +
+        "    local capacity = tonumber(ARGV[base + 2])\n" +
+        "    local refill_rate = tonumber(ARGV[base + 3])\n" +
+        "    local window_ms = math.max(1, tonumber(ARGV[base + 4]))\n" +
+        "    local key = KEYS[3 * i - 2]\n" +
+        "    local state = states[i]\n" +
+        "    local tokens = state.tokens\n" +
+        "    -- 全部通过才扣减并写回，任一令牌桶不足时保持原状态\n" +
+        "    if all_allowed == 1 then\n" +
+        "        tokens = tokens - 1\n" +
+        "        if algorithm == 3 or algorithm == 4 then\n" +
+        "            -- 计数键只在创建时设置过期，滑动窗口需要保留到下一个窗口结束\n" +
+        "            if redis.call('INCR', state.stamp) == 1 then\n" +
+        "                redis.call('PEXPIRE', state.stamp, algorithm == 4 and window_ms * 2 or window_ms)\n" +
+        "            end\n" +
+        "        elseif algorithm == 2 then\n" +
+        "            redis.call('SET', key, state.stamp, 'PX', math.max(1, math.ceil(state.stamp - now_ms)))\n" +
+        "        else\n" +
+        "            write_bucket(algorithm, key, capacity, refill_rate, window_ms, tokens, state.stamp)\n" +
+        "        end\n" +
+        "    end\n" +
+        "    result[3 * i - 1] = state.allowed and 1 or 0\n" +
+        "    result[3 * i] = math.floor(tokens)\n" +
+        "    result[3 * i + 1] = state.retry\n" +
+        "end\n" +
+        "return result";
 
-    private final DefaultRedisScript<List> tokenBucketScript;
+    private final DefaultRedisScript<List<Object>> multiTokenBucketScript;
+
+    /**
+     * 令牌租约管理器，未启用租约时为null
+     */
+    private final TokenLeaseManager leaseManager;
+
+    /**
+     * 本地预过滤令牌桶，未启用时为null
+     */
+    private final LocalBucketTable prefilter;
+
+    /**
+     * 被限流令牌桶的本地缓存，未启用时为null
+     */
+    private final BlockedKeyCache blockedCache;
+
+    /**
+     * 并发检查合并器，未启用时为null
+     */
+    private final BucketRequestCoalescer coalescer;
+
+    /**
+     * 批量管道执行器，未启用时为null
+     */
+    private final PipelinedScriptExecutor pipeline;
 
     public RedisRateLimitService(RedisTemplate<String, Object> redisTemplate,
                                RateLimitConfigService configService,
                                RateLimitStatsService statsService,
                                RateLimitStrategyFactory strategyFactory) {
-        this.redisTemplate = redisTemplate;
-        this.configService = configService;
-        this.statsService = statsService;
-        this.strategyFactory = strategyFactory;
-
-        this.tokenBucketScript = new DefaultRedisScript<>();
-        this.tokenBucketScript.setScriptText(TOKEN_BUCKET_SCRIPT);
-        this.tokenBucketScript.setResultType(List.class);
+        this(redisTemplate, configService, statsService, strategyFactory, new RateLimitProperties());
     }
 
-    @Override
-    public boolean isAllowed(HttpServletRequest request) {
-        try {
-            List<RateLimitRule> rules = configService.getEnabledRules();
+    public RedisRateLimitService(RedisTemplate<String, Object> redisTemplate,
+                               RateLimitConfigService configService,
+                               RateLimitStatsService statsService,
+                               RateLimitStrategyFactory strategyFactory,
+                               RateLimitProperties properties) {
+        super(configService, statsService, strategyFactory, properties);
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
 
-            for (RateLimitRule rule : rules) {
-                if (matchesRule(request, rule)) {
-                    // 检查多维度限流
-                    boolean allowed = checkMultiDimensionRateLimit(request, rule);
+        this.multiTokenBucketScript = createListScript(MULTI_TOKEN_BUCKET_SCRIPT);
 
-                    // 记录统计信息（带请求上下文，支持IP和用户维度统计）
-                    statsService.recordRequest(request, rule.getId(), allowed);
+        this.leaseManager = properties.getLease().isEnabled() ? new TokenLeaseManager(redisTemplate, properties) : null;
 
-                    if (!allowed) {
-                        return false;
-                    }
-                }
-            }
-
-            return true;
-        } catch (Exception e) {
-            logger.error("限流检查异常", e);
-            // 异常情况下允许请求通过，避免影响业务
-            return true;
-        }
-    }
-
-    @Override
-    public boolean isAllowed(HttpServletRequest request, RateLimitRule rule) {
-        if (rule == null || !rule.isEnabled()) {
-            return true;
-        }
+        RateLimitProperties.HybridConfig hybrid = properties.getHybrid();
+        this.prefilter = hybrid.isEnabled()
+                ? new LocalBucketTable(hybrid.getMaxEntries(), hybrid.getSlack() / Math.max(1, hybrid.getNodeCount()))
+                : null;
 
-        try {
-            // 默认使用路径限流策略
-            RateLimitStrategy pathStrategy = strategyFactory.getStrategy(rule);
-            String pathKey = pathStrategy.generateKey(request, rule);
+        RateLimitProperties.BlockedCacheConfig blocked = properties.getBlockedCache();
+        this.blockedCache = blocked.isEnabled() ? new BlockedKeyCache(blocked.getMaxEntries()) : null;
 
-            // 检查路径限流
-            boolean pathAllowed = checkTokenBucket(pathKey, rule.getBucketCapacity(), rule.getRefillRate(), rule.getTimeWindow());
+        this.coalescer = properties.getCoalesce().isEnabled() ? new BucketRequestCoalescer(redisTemplate) : null;
 
-            if (!pathAllowed) {
-                return false;
-            }
+        this.pipeline = properties.getPipeline().isEnabled()
+                ? new PipelinedScriptExecutor(redisTemplate, properties.getPipeline())
+                : null;
+    }
 
-            return true;
-        } catch (Exception e) {
-            logger.error("限流检查异常: " + rule.getName(), e);
-            return true; // 异常情况下允许通过
-        }
+    /**
+     * 创建返回Lua表的脚本，结果反序列化为List
+     * 令牌桶相关脚本（多令牌桶检查、令牌租约、并发合并）共用
+     */
+    @SuppressWarnings("unchecked")
+    static DefaultRedisScript<List<Object>> createListScript(String scriptText) {
+        DefaultRedisScript<List<Object>> script = new DefaultRedisScript<>();
+        script.setScriptText(scriptText);
+        script.setResultType((Class<List<Object>>) (Class<?>) List.class);
+        return script;
     }
 
     /**
-     * 检查多维度限流
+     * 检查多个令牌桶，全部通过时才扣减
+     * 启用被限流令牌桶缓存时，仍在重试时间内的令牌桶直接在本地拒绝，被拒绝的令牌桶按脚本返回的重试时间缓存
      */
-    private boolean checkMultiDimensionRateLimit(HttpServletRequest request, RateLimitRule rule) {
-        // 1. 检查路径限流（默认维度）
-        if (!checkPathRateLimit(request, rule)) {
-            return false;
+    @Override
+    protected boolean checkTokenBuckets(List<RateLimitBucket> buckets) {
+        if (blockedCache == null) {
+            return checkLocalThenRemote(buckets);
         }
 
-        // 2. 检查IP限流（如果启用）
-        if (rule.isEnableIpLimit() && !checkIpRateLimit(request, rule)) {
+        if (blockedCache.rejectBlocked(buckets)) {
+            logger.debug("令牌桶仍在限流期内，本地拒绝: {}", buckets);
             return false;
         }
 
-        // 3. 检查用户限流（如果启用）
-        if (rule.isEnableUserLimit() && !checkUserRateLimit(request, rule)) {
-            return false;
+        boolean allowed = checkLocalThenRemote(buckets);
+        if (!allowed) {
+            blockedCache.recordBlocked(buckets);
         }
-
-        return true;
+        return allowed;
     }
 
     /**
-     * 检查路径限流
+     * 启用本地预过滤时，先按节点份额在本地检查，本地拒绝的请求直接拒绝，不访问Redis；
+     * 启用租约时，可租约的令牌桶从本地租约取令牌，其余令牌桶仍通过Lua脚本检查，
+     * 任一令牌桶被拒绝时，已从租约取出的令牌归还到本地租约
      */
-    private boolean checkPathRateLimit(HttpServletRequest request, RateLimitRule rule) {
-        RateLimitStrategy pathStrategy = strategyFactory.getStrategy(rule);
-        String pathKey = pathStrategy.generateKey(request, rule);
-
-        return checkTokenBucket(pathKey, rule.getBucketCapacity(), rule.getRefillRate(), rule.getTimeWindow());
-    }
+    private boolean checkLocalThenRemote(List<RateLimitBucket> buckets) {
+        if (prefilter != null && !prefilter.tryAcquire(buckets)) {
+            logger.debug("本地预过滤拒绝: {}", buckets);
+            return false;
+        }
 
-    /**
-     * 检查IP限流
-     */
-    private boolean checkIpRateLimit(HttpServletRequest request, RateLimitRule rule) {
-        RateLimitStrategy ipStrategy = strategyFactory.getIpStrategy(rule);
-        if (ipStrategy == null) {
-            return true;
+        if (leaseManager == null) {
+            return evalRemote(buckets);
         }
 
-        String ip = ipStrategy.extractIdentifier(request);
-        if (ip == null) {
-            return true;
+        List<RateLimitBucket> remoteBuckets = new ArrayList<>(buckets.size());
+        List<TokenLeaseManager.Lease> acquired = new ArrayList<>(buckets.size());
+        boolean allowed = true;
+        boolean failed = false;
+        try {
+            for (RateLimitBucket bucket : buckets) {
+                if (!leaseManager.supports(bucket)) {
+                    remoteBuckets.add(bucket);
+                    continue;
+                }
+                // 已有令牌桶被拒绝时，剩余的令牌桶不再取令牌
+                if (!allowed) {
+                    bucket.setAllowed(true);
+                    continue;
+                }
+                TokenLeaseManager.Lease lease = leaseManager.tryAcquire(bucket, getBucketAlgorithm());
+                if (lease != null) {
+                    acquired.add(lease);
+                } else {
+                    allowed = false;
+                }
+            }
+        } catch (Exception e) {
+            logger.error("令牌租约检查异常: " + buckets, e);
+            allowed = false;
+            failed = true;
+            for (RateLimitBucket bucket : buckets) {
+                bucket.setAllowed(false);
+            }
         }
 
-        String ipKey = ipStrategy.generateKey(request, rule);
-        int capacity = rule.getIpBucketCapacity() != null ? rule.getIpBucketCapacity() : rule.getBucketCapacity();
-        int rate = rule.getIpRequestLimit() != null ? rule.getIpRequestLimit() : rule.getRefillRate();
+        if (allowed && !remoteBuckets.isEmpty()) {
+            allowed = evalRemote(remoteBuckets);
+        } else if (!failed) {
+            // 租约已拒绝，其余令牌桶未检查，不计为被限流的维度
+            for (RateLimitBucket bucket : remoteBuckets) {
+                bucket.setAllowed(true);
+            }
+        }
 
-        return checkTokenBucket(ipKey, capacity, rate, rule.getTimeWindow());
+        if (!allowed) {
+            for (TokenLeaseManager.Lease lease : acquired) {
+                leaseManager.release(lease);
+            }
+        }
+        return allowed;
     }
 
     /**
-     * 检查用户限流
+     * 通过Redis检查令牌桶，只命中一个令牌桶时合并同一令牌桶的并发检查
      */
-    private boolean checkUserRateLimit(HttpServletRequest request, RateLimitRule rule) {
-        RateLimitStrategy userStrategy = strategyFactory.getUserStrategy(rule);
-        if (userStrategy == null) {
-            return true;
-        }
-
-        String userId = userStrategy.extractIdentifier(request);
-        if (userId == null) {
-            // 如果没有用户ID，使用IP作为fallback
-//            return checkIpRateLimit(request, rule);
-            return true;
+    private boolean evalRemote(List<RateLimitBucket> buckets) {
+        if (coalescer != null && buckets.size() == 1 && coalescer.supports(buckets.get(0))) {
+            return coalescer.tryAcquire(buckets.get(0), getBucketAlgorithm());
         }
-
-        String userKey = userStrategy.generateKey(request, rule);
-        int capacity = rule.getUserBucketCapacity() != null ? rule.getUserBucketCapacity() : rule.getBucketCapacity();
-        int rate = rule.getUserRequestLimit() != null ? rule.getUserRequestLimit() : rule.getRefillRate();
-
-        return checkTokenBucket(userKey, capacity, rate, rule.getTimeWindow());
+        return evalTokenBuckets(buckets);
     }
 
     /**
-     * 使用Lua脚本检查令牌桶
+     * 使用Lua脚本原子检查多个令牌桶（一次Redis往返）
+     * 全部令牌桶都有可用令牌时才扣减，每个令牌桶的检查结果回填到bucket对象
      */
-    private boolean checkTokenBucket(String key, int capacity, int refillRate, int timeWindow) {
+    private boolean evalTokenBuckets(List<RateLimitBucket> buckets) {
         try {
-            long now = Instant.now().getEpochSecond();
-
-            List<String> keys = Arrays.asList(key);
-            Object[] args = {capacity, refillRate, timeWindow, now};
-
-            logger.debug("执行令牌桶检查: key={}, capacity={}, refillRate={}, timeWindow={}, now={}",
-                key, capacity, refillRate, timeWindow, now);
+            long now = System.currentTimeMillis();
+            int bucketAlgorithm = getBucketAlgorithm();
+
+            List<String> keys = new ArrayList<>(buckets.size() * 3);
+            Object[] args = new Object[1 + buckets.size() * 4];
+            args[0] = now;
+            for (int i = 0; i < buckets.size(); i++) {
+                RateLimitBucket bucket = buckets.get(i);
+                addScriptKeys(keys, bucket, now);
+                args[1 + i * 4] = toAlgorithmCode(bucket.getAlgorithm(), bucketAlgorithm);
+                args[2 + i * 4] = bucket.getCapacity();
+                args[3 + i * 4] = bucket.getRefillRate();
+                args[4 + i * 4] = bucket.getTimeWindowMillis();
+            }
 
-            List result = redisTemplate.execute(tokenBucketScript, keys, args);
-            if (result != null && result.size() >= 2) {
-                Number allowed = (Number) result.get(0);
-                Number tokens = (Number) result.get(1);
-                boolean isAllowed = allowed.intValue() == 1;
+            logger.debug("执行令牌桶检查: keys={}, now={}", keys, now);
+
+            List<Object> result = pipeline != null
+                    ? pipeline.execute(multiTokenBucketScript, keys, args)
+                    : redisTemplate.execute(multiTokenBucketScript, keys, args);
+            if (result != null && result.size() == 1 + buckets.size() * 3) {
+                boolean isAllowed = ((Number) result.get(0)).intValue() == 1;
+                for (int i = 0; i < buckets.size(); i++) {
+                    RateLimitBucket bucket = buckets.get(i);
+                    bucket.setAllowed(((Number) result.get(1 + i * 3)).intValue() == 1);
+                    bucket.setRemainingTokens(((Number) result.get(2 + i * 3)).longValue());
+                    bucket.setRetryAfterMillis(((Number) result.get(3 + i * 3)).longValue());
+                }
 
-                logger.debug("令牌桶检查结果: key={}, allowed={}, remainingTokens={}, now={}, timestamp={}",
-                        key, isAllowed, tokens, now, System.currentTimeMillis());
+                logger.debug("令牌桶检查结果: allowed={}, buckets={}, now={}", isAllowed, buckets, now);
 
                 return isAllowed;
             }
 
-            logger.warn("令牌桶脚本返回结果异常: key={}, result={}", key, result);
-            return false;
+            logger.warn("令牌桶脚本返回结果异常: keys={}, result={}", keys, result);
         } catch (Exception e) {
-            logger.error("令牌桶检查异常: " + key, e);
-            // 临时修改：异常情况下拒绝请求，用于调试
-            return false; // 异常情况下拒绝通过
+            logger.error("令牌桶检查异常: " + buckets, e);
+        }
+
+        // 临时修改：异常情况下拒绝请求，用于调试
+        for (RateLimitBucket bucket : buckets) {
+            bucket.setAllowed(false);
         }
+        return false; // 异常情况下拒绝通过
     }
 
     /**
-     * 检查请求是否匹配规则
+     * 添加一个令牌桶在脚本中访问的三个键：令牌桶键、当前窗口计数键、上一个窗口计数键
+     * 窗口序号使用与ARGV[1]相同的时间计算，非窗口算法不访问计数键，三个位置都传令牌桶键
      */
-    private boolean matchesRule(HttpServletRequest request, RateLimitRule rule) {
-        // 检查路径模式
-        String requestPath = request.getRequestURI();
-        if (!AntPathMatcher.match(rule.getPathPattern(), requestPath)) {
-            return false;
+    private static void addScriptKeys(List<String> keys, RateLimitBucket bucket, long now) {
+        keys.add(bucket.getKey());
+        if (bucket.getAlgorithm() == RateLimitAlgorithm.FIXED_WINDOW
+                || bucket.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+            long index = now / Math.max(1, bucket.getTimeWindowMillis());
+            keys.add(windowKey(bucket.getKey(), index));
+            keys.add(windowKey(bucket.getKey(), index - 1));
+        } else {
+            keys.add(bucket.getKey());
+            keys.add(bucket.getKey());
         }
+    }
 
-        // 检查HTTP方法
-        if (rule.getHttpMethods() != null && !rule.getHttpMethods().isEmpty()) {
-            String requestMethod = request.getMethod();
-            HttpMethod httpMethod = HttpMethod.fromString(requestMethod);
-            if (httpMethod == null || !rule.getHttpMethods().contains(httpMethod)) {
-                return false;
-            }
-        }
+    /**
+     * 窗口计数键：令牌桶键后追加窗口序号
+     */
+    private static String windowKey(String key, long index) {
+        return key + ":" + index;
+    }
+
+    /**
+     * 令牌桶引擎对应的Lua脚本算法编码
+     */
+    private int getBucketAlgorithm() {
+        return properties.getBucketEngine() == RateLimitProperties.BucketEngine.PRECISE
+                ? ALGORITHM_PRECISE_BUCKET : ALGORITHM_CLASSIC_BUCKET;
+    }
 
-        return true;
+    /**
+     * 转换为Lua脚本中的算法编码
+     */
+    private int toAlgorithmCode(RateLimitAlgorithm algorithm, int bucketAlgorithm) {
+        switch (algorithm) {
+            case GCRA:
+                return ALGORITHM_GCRA;
+            case FIXED_WINDOW:
+                return ALGORITHM_FIXED_WINDOW;
+            case SLIDING_WINDOW:
+                return ALGORITHM_SLIDING_WINDOW;
+            default:
+                return bucketAlgorithm;
+        }
     }
 
     @Override
@@ -278,14 +510,59 @@ public class RedisRateLimitService implements RateLimitService {
             RateLimitStrategy strategy = strategyFactory.getStrategy(rule);
             String key = strategy.generateKey(request, rule);
 
+            if (rule.getAlgorithm() == RateLimitAlgorithm.GCRA) {
+                return getGcraRemainingTokens(key + RateLimitAlgorithm.GCRA.getKeySuffix(), rule);
+            }
+            if (rule.getAlgorithm() == RateLimitAlgorithm.FIXED_WINDOW
+                    || rule.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+                return getWindowRemainingRequests(key + rule.getAlgorithm().getKeySuffix(), rule);
+            }
+
             Object tokens = redisTemplate.opsForHash().get(key, "tokens");
-            return tokens != null ? Long.parseLong(tokens.toString()) : rule.getBucketCapacity();
+            // 精确引擎下令牌数可能是小数，向下取整
+            return tokens != null ? (long) Double.parseDouble(tokens.toString()) : rule.getBucketCapacity();
         } catch (Exception e) {
             logger.error("获取剩余令牌数异常: " + rule.getName(), e);
             return rule.getBucketCapacity();
         }
     }
 
+    /**
+     * 根据GCRA理论到达时间计算剩余可突发请求数
+     */
+    private long getGcraRemainingTokens(String key, RateLimitRule rule) {
+        Object tat = redisTemplate.opsForValue().get(key);
+        if (tat == null || rule.getRefillRate() <= 0) {
+            return rule.getBucketCapacity();
+        }
+
+        double interval = 1000.0 / rule.getRefillRate();
+        double allowAt = Double.parseDouble(tat.toString()) - rule.getBucketCapacity() * interval;
+        long remaining = (long) Math.floor((System.currentTimeMillis() - allowAt) / interval);
+        return Math.max(0, Math.min(rule.getBucketCapacity(), remaining));
+    }
+
+    /**
+     * 计算窗口算法当前窗口剩余的请求数
+     */
+    private long getWindowRemainingRequests(String key, RateLimitRule rule) {
+        long windowMillis = Math.max(1, rule.getTimeWindowMillis());
+        long limit = Math.max(1, rule.getRefillRate() * windowMillis / 1000);
+        long now = System.currentTimeMillis();
+        long index = now / windowMillis;
+
+        double used = getLongValue(redisTemplate.opsForValue().get(windowKey(key, index)));
+        if (rule.getAlgorithm() == RateLimitAlgorithm.SLIDING_WINDOW) {
+            double weight = 1 - (double) (now - index * windowMillis) / windowMillis;
+            used += getLongValue(redisTemplate.opsForValue().get(windowKey(key, index - 1))) * weight;
+        }
+        return Math.max(0, limit - (long) Math.ceil(used));
+    }
+
+    private long getLongValue(Object value) {
+        return value != null ? Long.parseLong(value.toString()) : 0L;
+    }
+
     @Override
     public void reset(HttpServletRequest request, RateLimitRule rule) {
         if (rule == null) {
@@ -295,7 +572,27 @@ public class RedisRateLimitService implements RateLimitService {
         try {
             RateLimitStrategy strategy = strategyFactory.getStrategy(rule);
             String key = strategy.generateKey(request, rule);
-            redisTemplate.delete(key);
+            List<String> keys = new ArrayList<>(Arrays.asList(key, key + RateLimitAlgorithm.GCRA.getKeySuffix()));
+            // 窗口计数键带窗口序号，删除当前和上一个窗口（滑动窗口会读取上一个窗口的计数）
+            long index = System.currentTimeMillis() / Math.max(1, rule.getTimeWindowMillis());
+            for (RateLimitAlgorithm algorithm : EnumSet.of(RateLimitAlgorithm.FIXED_WINDOW, RateLimitAlgorithm.SLIDING_WINDOW)) {
+                keys.add(windowKey(key + algorithm.getKeySuffix(), index));
+                keys.add(windowKey(key + algorithm.getKeySuffix(), index - 1));
+            }
+            redisTemplate.delete(keys);
+            if (leaseManager != null) {
+                leaseManager.clear(key);
+            }
+            if (prefilter != null) {
+                for (RateLimitAlgorithm algorithm : RateLimitAlgorithm.values()) {
+                    prefilter.remove(key + algorithm.getKeySuffix());
+                }
+            }
+            if (blockedCache != null) {
+                for (RateLimitAlgorithm algorithm : RateLimitAlgorithm.values()) {
+                    blockedCache.remove(key + algorithm.getKeySuffix());
+                }
+            }
 
             logger.info("重置限流状态: {} - {}", rule.getName(), key);
         } catch (Exception e) {
@@ -308,9 +605,28 @@ public class RedisRateLimitService implements RateLimitService {
         try {
             // 删除所有限流相关的键
             redisTemplate.delete(redisTemplate.keys("rate_limit:bucket:*"));
+            if (leaseManager != null) {
+                leaseManager.clear();
+            }
+            if (prefilter != null) {
+                prefilter.clear();
+            }
+            if (blockedCache != null) {
+                blockedCache.clear();
+            }
             logger.info("重置所有限流状态");
         } catch (Exception e) {
             logger.error("重置所有限流状态异常", e);
         }
     }
+
+    /**
+     * 停止批量管道执行器的后台线程
+     */
+    @Override
+    public void destroy() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
 }
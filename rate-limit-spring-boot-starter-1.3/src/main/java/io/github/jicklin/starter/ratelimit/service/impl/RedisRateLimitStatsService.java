@@ -12,6 +12,7 @@ import io.github.jicklin.starter.ratelimit.strategy.impl.UserRateLimitStrategy;
 import io.github.jicklin.starter.ratelimit.util.RedisKeyGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.data.redis.core.RedisTemplate;
 
 import javax.servlet.http.HttpServletRequest;
@@ -21,7 +22,7 @@ import java.util.concurrent.TimeUnit;
 /**
  * 基于Redis的限流统计服务实现
  */
-public class RedisRateLimitStatsService implements RateLimitStatsService {
+public class RedisRateLimitStatsService implements RateLimitStatsService, DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisRateLimitStatsService.class);
 
@@ -33,6 +34,21 @@ public class RedisRateLimitStatsService implements RateLimitStatsService {
     private final RedisKeyGenerator redisKeyGenerator;
     private final RateLimitProperties properties;
 
+    /**
+     * ASYNC写入方式下的本地统计缓冲，SYNC时为null
+     */
+    private final BufferedStatsRecorder statsRecorder;
+
+    /**
+     * SCRIPT写入方式下一次写入全部统计的脚本，其他写入方式时为null
+     */
+    private final StatsScriptWriter scriptWriter;
+
+    /**
+     * 独立IP/用户数统计，未启用时为null
+     */
+    private final UniqueClientCounter uniqueClientCounter;
+
     public RedisRateLimitStatsService(RedisTemplate<String, Object> redisTemplate,
                                       RateLimitConfigService configService,
                                       IpRateLimitStrategy ipStrategy,
@@ -44,10 +60,34 @@ public class RedisRateLimitStatsService implements RateLimitStatsService {
         this.userStrategy = userStrategy;
         this.redisKeyGenerator = redisKeyGenerator;
         this.properties = properties;
+
+        RateLimitProperties.StatsConfig stats = properties.getStats();
+        this.statsRecorder = stats.getWriteMode() == RateLimitProperties.StatsWriteMode.ASYNC
+                ? new BufferedStatsRecorder(redisTemplate, redisKeyGenerator, stats.getFlushIntervalMillis())
+                : null;
+        this.scriptWriter = stats.getWriteMode() == RateLimitProperties.StatsWriteMode.SCRIPT
+                ? new StatsScriptWriter(redisTemplate, redisKeyGenerator)
+                : null;
+        this.uniqueClientCounter = stats.isUniqueClients()
+                ? new UniqueClientCounter(redisTemplate, redisKeyGenerator, stats.getFlushIntervalMillis())
+                : null;
     }
 
     @Override
     public void recordRequest(String ruleId, boolean allowed) {
+        if (statsRecorder != null) {
+            statsRecorder.record(ruleId, allowed);
+            return;
+        }
+        if (scriptWriter != null) {
+            try {
+                scriptWriter.recordDetailed(ruleId, allowed, Collections.<String, String>emptyMap());
+            } catch (Exception e) {
+                logger.error("记录请求统计异常: " + ruleId, e);
+            }
+            return;
+        }
+
         try {
             String statsKey = redisKeyGenerator.generateStatsKey(ruleId);
 
@@ -78,6 +118,14 @@ public class RedisRateLimitStatsService implements RateLimitStatsService {
 
     @Override
     public void recordRequest(HttpServletRequest request, String ruleId, boolean allowed) {
+        if (uniqueClientCounter != null) {
+            recordUniqueClients(request, ruleId);
+        }
+        if (scriptWriter != null) {
+            recordWithScript(request, ruleId, allowed);
+            return;
+        }
+
         // 先记录基础统计
         recordRequest(ruleId, allowed);
 
@@ -150,9 +198,58 @@ public class RedisRateLimitStatsService implements RateLimitStatsService {
 
 
 
+    /**
+     * 记录独立IP/用户数统计
+     */
+    private void recordUniqueClients(HttpServletRequest request, String ruleId) {
+        try {
+            String ip = ipStrategy.extractIdentifier(request);
+            if (ip != null) {
+                uniqueClientCounter.record(ruleId, "ip", ip);
+            }
+            String userId = userStrategy.extractIdentifier(request);
+            if (userId != null) {
+                uniqueClientCounter.record(ruleId, "user", userId);
+            }
+        } catch (Exception e) {
+            logger.error("记录独立IP/用户数统计异常: " + ruleId, e);
+        }
+    }
+
+    /**
+     * 用一次脚本调用记录基础统计和IP、用户维度统计
+     */
+    private void recordWithScript(HttpServletRequest request, String ruleId, boolean allowed) {
+        try {
+            RateLimitRule rule = configService.getRule(ruleId);
+            Map<String, String> dimensionValues = new LinkedHashMap<>(4);
+            if (rule != null && rule.isEnableIpLimit()) {
+                String ip = ipStrategy.extractIdentifier(request);
+                if (ip != null) {
+                    dimensionValues.put("ip", ip);
+                }
+            }
+            if (rule != null && rule.isEnableUserLimit()) {
+                String userId = userStrategy.extractIdentifier(request);
+                if (userId != null) {
+                    dimensionValues.put("user", userId);
+                }
+            }
+            scriptWriter.recordDetailed(ruleId, allowed, dimensionValues);
+
+            if (rule != null && properties.getStats().isEnableDetail()) {
+                recordRateLimitDetailFromRequest(request, rule, allowed);
+            }
+        } catch (Exception e) {
+            logger.error("记录请求统计异常: " + ruleId, e);
+        }
+    }
+
     /**
      * 记录详细统计数据（IP和用户维度）
      */
+    // 统计后台按明细键和维度列表键读取维度明细，SCRIPT写入方式使用相同的键
+    @SuppressWarnings("deprecation")
     private void recordDetailedStats(String ruleId, String dimension, String dimensionValue, boolean allowed) {
         try {
             String detailedStatsKey = redisKeyGenerator.generateDetailedStatsKey(ruleId, dimension, dimensionValue);
@@ -317,4 +414,14 @@ public class RedisRateLimitStatsService implements RateLimitStatsService {
             return 0L;
         }
     }
+
+    @Override
+    public void destroy() {
+        if (statsRecorder != null) {
+            statsRecorder.destroy();
+        }
+        if (uniqueClientCounter != null) {
+            uniqueClientCounter.destroy();
+        }
+    }
 }
@@ -0,0 +1,205 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.model.HttpMethod;
+import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 路由模板到限流规则的绑定
+ *
+ * 拦截器执行时Spring MVC已经完成处理方法映射，请求属性中有最佳匹配的路由模板（如"/user/{id}"）。
+ * 每个路由模板覆盖的规则只计算一次（应用启动完成时预先计算已注册的路由），
+ * 请求时按路由模板和HTTP方法直接取出规则，不再匹配请求路径。
+ *
+ * 规则按路由模板匹配：模板中的路径变量和通配符只能被规则中可以匹配任意内容的通配符（如*、**）匹配，
+ * 即规则覆盖了该路由的所有请求时直接绑定。只覆盖部分请求的规则（如"/api/user/1"之于"/api/user/{id}"）
+ * 绑定为需要匹配路径，请求时再用请求路径匹配；字面前缀不相容的规则不可能匹配该路由的请求，不绑定。
+ * 绑定基于一个规则索引，规则列表变化时整体重建。
+ */
+public class RouteRuleBinding {
+
+    /**
+     * 代替模板中变量部分的两个不同长度的样本，两个都能匹配时说明规则在该位置接受任意内容
+     */
+    private static final String[] SAMPLES = {"\u0001", "\u0001\u0001\u0001"};
+
+    /**
+     * 每个HTTP方法一个位置，最后一个位置用于无法识别的HTTP方法
+     */
+    private static final int METHOD_SLOTS = HttpMethod.values().length + 1;
+
+    private final RuleIndex index;
+    private final Map<String, MethodBinding[]> bindings = new ConcurrentHashMap<>();
+
+    public RouteRuleBinding(RuleIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * 预先计算路由模板绑定的规则
+     */
+    public void bindAll(Collection<String> routeTemplates) {
+        for (String routeTemplate : routeTemplates) {
+            bindings.computeIfAbsent(routeTemplate, this::bind);
+        }
+    }
+
+    /**
+     * 获取路由模板绑定的规则，按优先级排序，返回的列表不能修改
+     *
+     * @param method HTTP方法
+     * @param routeTemplate 路由模板（含上下文路径）
+     * @param path 请求路径，只用于匹配只覆盖部分请求的规则
+     */
+    public List<RateLimitRule> getRules(String method, String routeTemplate, String path) {
+        MethodBinding[] byMethod = bindings.computeIfAbsent(routeTemplate, this::bind);
+        HttpMethod httpMethod = HttpMethod.fromString(method);
+        return byMethod[httpMethod != null ? httpMethod.ordinal() : METHOD_SLOTS - 1].getRules(path);
+    }
+
+    /**
+     * 构建绑定时使用的规则索引
+     */
+    public RuleIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * 已计算的路由模板数量
+     */
+    public int size() {
+        return bindings.size();
+    }
+
+    /**
+     * 判断规则是否覆盖路由模板的所有请求
+     */
+    public static boolean covers(RateLimitRule rule, String routeTemplate) {
+        for (String sample : SAMPLES) {
+            if (!rule.getCompiledPathPattern().matches(instantiate(routeTemplate, sample))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 判断规则是否可能匹配路由模板的部分请求：两者的字面前缀必须有一个是另一个的前缀
+     */
+    static boolean mayOverlap(RateLimitRule rule, String routeTemplate) {
+        String rulePrefix = literalPrefix(rule.getPathPattern());
+        String routePrefix = literalPrefix(routeTemplate);
+        return rulePrefix.startsWith(routePrefix) || routePrefix.startsWith(rulePrefix);
+    }
+
+    private MethodBinding[] bind(String routeTemplate) {
+        MethodBinding[] byMethod = new MethodBinding[METHOD_SLOTS];
+        for (int slot = 0; slot < METHOD_SLOTS; slot++) {
+            byMethod[slot] = new MethodBinding();
+        }
+        for (RateLimitRule rule : index.getRules()) {
+            if (rule.getPathPattern() == null) {
+                continue;
+            }
+            boolean covered = covers(rule, routeTemplate);
+            if (!covered && !mayOverlap(rule, routeTemplate)) {
+                continue;
+            }
+            for (int slot = 0; slot < METHOD_SLOTS; slot++) {
+                if (acceptsMethod(rule, slot)) {
+                    byMethod[slot].add(rule, covered);
+                }
+            }
+        }
+        return byMethod;
+    }
+
+    private static boolean acceptsMethod(RateLimitRule rule, int slot) {
+        if (rule.getHttpMethods() == null || rule.getHttpMethods().isEmpty()) {
+            return true;
+        }
+        return slot < METHOD_SLOTS - 1 && rule.getHttpMethods().contains(HttpMethod.values()[slot]);
+    }
+
+    /**
+     * 模式中第一个路径变量或通配符之前的部分
+     */
+    private static String literalPrefix(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char ch = pattern.charAt(i);
+            if (ch == '{' || ch == '*' || ch == '?') {
+                return pattern.substring(0, i);
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * 用样本替换模板中的路径变量（{id}、{name:[a-z]+}）和通配符，**替换为两个分段
+     */
+    private static String instantiate(String routeTemplate, String sample) {
+        StringBuilder path = new StringBuilder(routeTemplate.length());
+        int depth = 0;
+        for (int i = 0; i < routeTemplate.length(); i++) {
+            char ch = routeTemplate.charAt(i);
+            if (ch == '{') {
+                if (depth++ == 0) {
+                    path.append(sample);
+                }
+            } else if (ch == '}' && depth > 0) {
+                depth--;
+            } else if (depth == 0) {
+                if (ch == '*') {
+                    if (i + 1 < routeTemplate.length() && routeTemplate.charAt(i + 1) == '*') {
+                        // **可以跨越多个路径分段
+                        path.append(sample).append('/').append(sample);
+                        i++;
+                    } else {
+                        path.append(sample);
+                    }
+                } else if (ch == '?') {
+                    path.append(sample);
+                } else {
+                    path.append(ch);
+                }
+            }
+        }
+        return path.toString();
+    }
+
+    /**
+     * 路由模板在一个HTTP方法下绑定的规则，构建完成后不再修改
+     * 全部规则都覆盖该路由时直接返回同一个列表；有只覆盖部分请求的规则时，按请求路径过滤这些规则
+     */
+    private static class MethodBinding {
+        private final List<RateLimitRule> rules = new ArrayList<>();
+        private final List<RateLimitRule> partialRules = new ArrayList<>();
+        private final List<RateLimitRule> view = Collections.unmodifiableList(rules);
+
+        void add(RateLimitRule rule, boolean covered) {
+            rules.add(rule);
+            if (!covered) {
+                partialRules.add(rule);
+            }
+        }
+
+        List<RateLimitRule> getRules(String path) {
+            if (partialRules.isEmpty()) {
+                return view;
+            }
+            List<RateLimitRule> matched = new ArrayList<>(rules.size());
+            for (RateLimitRule rule : rules) {
+                if (!partialRules.contains(rule) || rule.getCompiledPathPattern().matches(path)) {
+                    matched.add(rule);
+                }
+            }
+            return Collections.unmodifiableList(matched);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.model.HttpMethod;
+import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 限流规则索引
+ *
+ * 按路径模式的分段构建前缀树：字面量分段进入对应的字面量子节点，含通配符的分段进入通配子节点，
+ * 规则挂在遇到**之前的最后一个节点上（最后一段为*时挂在父节点上，因为"/api/*"可以匹配"/api/"）。
+ * 每个节点为挂在其上的规则记录HTTP方法位掩码。
+ *
+ * 查找时沿请求路径遍历一次前缀树，经过的节点上方法匹配的规则即为候选规则，按规则列表的顺序（优先级）返回。
+ * 候选规则是实际匹配规则的超集，仍需用完整的路径模式确认。索引不可变，规则列表变化时整体重建。
+ */
+public class RuleIndex {
+
+    private static final String PATH_SEPARATOR = "/";
+
+    /**
+     * 无法识别的HTTP方法，只匹配没有限制方法的规则
+     */
+    private static final int UNKNOWN_METHOD = 1 << 31;
+
+    private static final int ALL_METHODS = -1;
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /**
+     * 索引版本，每次构建递增
+     */
+    private final long version = VERSIONS.incrementAndGet();
+
+    /**
+     * 构建索引时传入的规则列表，规则服务返回同一个快照时直接判定未变化
+     */
+    private final List<RateLimitRule> source;
+    private final List<RateLimitRule> rules;
+    private final Node root = new Node();
+
+    private RuleIndex(List<RateLimitRule> rules) {
+        this.source = rules;
+        this.rules = new ArrayList<>(rules);
+        for (int i = 0; i < this.rules.size(); i++) {
+            RateLimitRule rule = this.rules.get(i);
+            if (rule.getPathPattern() != null) {
+                nodeFor(rule.getPathPattern()).add(i, methodMask(rule));
+            }
+        }
+    }
+
+    /**
+     * 根据按优先级排序的规则列表构建索引
+     */
+    public static RuleIndex build(List<RateLimitRule> rules) {
+        return new RuleIndex(rules);
+    }
+
+    /**
+     * 判断索引是否由同一组规则对象构建（规则服务刷新缓存后会返回新的规则对象）
+     */
+    public boolean isBuiltFrom(List<RateLimitRule> rules) {
+        if (rules == source) {
+            return true;
+        }
+        if (rules.size() != this.rules.size()) {
+            return false;
+        }
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i) != this.rules.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取可能匹配请求的规则，按优先级排序
+     *
+     * @param method HTTP方法
+     * @param path 请求路径
+     * @return 候选规则
+     */
+    public List<RateLimitRule> getCandidates(String method, String path) {
+        if (path == null || rules.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        HttpMethod httpMethod = HttpMethod.fromString(method);
+        int methodBit = httpMethod != null ? 1 << httpMethod.ordinal() : UNKNOWN_METHOD;
+
+        // 与String.split("/")一致：去掉末尾的空段，空字符串视为一个空段
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        int start = path.isEmpty() || end > 0 ? 0 : -1;
+
+        BitSet candidates = new BitSet(rules.size());
+        visit(root, path, start, end, methodBit, candidates);
+
+        List<RateLimitRule> result = new ArrayList<>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            result.add(rules.get(i));
+        }
+        return result;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 构建索引的规则，按优先级排序，返回的列表不能修改
+     */
+    public List<RateLimitRule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * 规则数量
+     */
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * 收集节点上的规则，并沿下一个路径分段继续遍历
+     *
+     * @param pos 下一个分段的起始位置，没有更多分段时为-1
+     */
+    private void visit(Node node, String path, int pos, int end, int methodBit, BitSet candidates) {
+        if ((node.methodMask & methodBit) != 0) {
+            for (int i = 0; i < node.size; i++) {
+                if ((node.methodMasks[i] & methodBit) != 0) {
+                    candidates.set(node.rules[i]);
+                }
+            }
+        }
+        if (pos < 0) {
+            return;
+        }
+
+        int separator = path.indexOf('/', pos);
+        int segmentEnd = separator < 0 || separator >= end ? end : separator;
+        int next = segmentEnd >= end ? -1 : segmentEnd + 1;
+
+        if (node.literals != null) {
+            Node child = node.literals.get(path.substring(pos, segmentEnd));
+            if (child != null) {
+                visit(child, path, next, end, methodBit, candidates);
+            }
+        }
+        if (node.wildcard != null) {
+            visit(node.wildcard, path, next, end, methodBit, candidates);
+        }
+    }
+
+    private Node nodeFor(String pattern) {
+        String[] segments = pattern.split(PATH_SEPARATOR);
+        Node node = root;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if ("**".equals(segment) || (i == segments.length - 1 && "*".equals(segment))) {
+                break;
+            }
+            node = segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0
+                    ? node.wildcardChild()
+                    : node.literalChild(segment);
+        }
+        return node;
+    }
+
+    private static int methodMask(RateLimitRule rule) {
+        if (rule.getHttpMethods() == null || rule.getHttpMethods().isEmpty()) {
+            return ALL_METHODS;
+        }
+        int mask = 0;
+        for (HttpMethod method : rule.getHttpMethods()) {
+            if (method != null) {
+                mask |= 1 << method.ordinal();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 前缀树节点
+     */
+    private static class Node {
+        private Map<String, Node> literals;
+        private Node wildcard;
+
+        private int[] rules = new int[0];
+        private int[] methodMasks = new int[0];
+        private int size;
+
+        /**
+         * 节点上所有规则方法位掩码的并集
+         */
+        private int methodMask;
+
+        Node literalChild(String segment) {
+            if (literals == null) {
+                literals = new HashMap<>();
+            }
+            Node child = literals.get(segment);
+            if (child == null) {
+                child = new Node();
+                literals.put(segment, child);
+            }
+            return child;
+        }
+
+        Node wildcardChild() {
+            if (wildcard == null) {
+                wildcard = new Node();
+            }
+            return wildcard;
+        }
+
+        void add(int rule, int mask) {
+            rules = Arrays.copyOf(rules, size + 1);
+            methodMasks = Arrays.copyOf(methodMasks, size + 1);
+            rules[size] = rule;
+            methodMasks[size] = mask;
+            size++;
+            methodMask |= mask;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 规则匹配结果缓存
+ *
+ * 缓存 (HTTP方法, 请求URI) 到按优先级排序的匹配规则列表，重复访问的URI只需一次哈希查找。
+ * 缓存项记录构建时的规则索引版本，规则列表变化后旧的缓存项自动失效。
+ *
+ * 容量固定，使用CLOCK算法淘汰：命中时设置访问标记，淘汰时跳过并清除有标记的缓存项。
+ * URI第一次出现时只记录到准入过滤器，再次出现才进入缓存，扫描器产生的大量一次性URI不会挤掉热点URI。
+ */
+public class RuleMatchCache {
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * CLOCK环，由this保护
+     */
+    private final Entry[] clock;
+    private int hand;
+    private int count;
+
+    /**
+     * 准入过滤器，记录最近出现过一次的URI的哈希值，并发写入时偶尔丢失只会推迟准入
+     */
+    private final int[] doorkeeper;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public RuleMatchCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.clock = new Entry[this.maxEntries];
+        int size = Integer.highestOneBit(Math.max(1, this.maxEntries - 1)) << 1;
+        this.doorkeeper = new int[size];
+    }
+
+    /**
+     * 查找缓存的匹配结果
+     *
+     * @param key 请求键（HTTP方法 + URI）
+     * @param version 当前规则索引版本
+     * @return 匹配的规则列表（只读），未命中时返回null
+     */
+    public List<RateLimitRule> get(String key, long version) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.version == version) {
+            entry.referenced = true;
+            hits.increment();
+            return entry.rules;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 缓存匹配结果
+     *
+     * @param rules 匹配的规则列表，缓存后不能再修改
+     */
+    public void put(String key, long version, List<RateLimitRule> rules) {
+        if (!entries.containsKey(key) && !admit(key)) {
+            return;
+        }
+
+        Entry entry = new Entry(key, version, rules);
+        synchronized (this) {
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                entry.slot = existing.slot;
+            } else if (count < maxEntries) {
+                entry.slot = count++;
+            } else {
+                entry.slot = evict();
+            }
+            clock[entry.slot] = entry;
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * 清空缓存（规则列表变化时调用），命中统计保留
+     */
+    public synchronized void clear() {
+        entries.clear();
+        Arrays.fill(clock, null);
+        hand = 0;
+        count = 0;
+    }
+
+    /**
+     * 当前缓存的URI数量
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * 命中率，没有请求时为0
+     */
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total > 0 ? (double) hitCount / total : 0;
+    }
+
+    private boolean admit(String key) {
+        int hash = key.hashCode();
+        int index = (hash ^ (hash >>> 16)) & (doorkeeper.length - 1);
+        if (doorkeeper[index] == hash) {
+            return true;
+        }
+        doorkeeper[index] = hash;
+        return false;
+    }
+
+    /**
+     * 从指针位置开始寻找没有访问标记的缓存项并淘汰，返回空出的位置
+     */
+    private int evict() {
+        while (true) {
+            int slot = hand;
+            hand = (hand + 1) % maxEntries;
+            Entry candidate = clock[slot];
+            if (candidate.referenced) {
+                candidate.referenced = false;
+            } else {
+                entries.remove(candidate.key, candidate);
+                return slot;
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String key;
+        private final long version;
+        private final List<RateLimitRule> rules;
+        private volatile boolean referenced;
+        private int slot;
+
+        Entry(String key, long version, List<RateLimitRule> rules) {
+            this.key = key;
+            this.version = version;
+            this.rules = rules;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.jicklin.starter.ratelimit.autoconfigure.RateLimitProperties;
+import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
+import io.github.jicklin.starter.ratelimit.service.RateLimitConfigService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 基于静态配置的限流配置服务实现
+ *
+ * 规则来自配置属性或YAML/JSON文件，启动时加载并编译一次，运行期间不访问Redis。
+ * 可选地叠加Redis中维护的规则：ID相同的Redis规则覆盖静态规则，其余Redis规则追加；
+ * 此时规则的修改都保存到Redis，删除覆盖规则后恢复原来的静态规则。
+ */
+public class StaticRateLimitConfigService implements RateLimitConfigService, MessageListener, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(StaticRateLimitConfigService.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 静态规则，按优先级排序
+     */
+    private final List<RateLimitRule> staticRules;
+    private final Map<String, RateLimitRule> staticRuleMap = new LinkedHashMap<>();
+
+    /**
+     * Redis中的覆盖规则，不使用时为null
+     */
+    private final RedisRateLimitConfigService overrides;
+
+    /**
+     * 最近一次合并的结果，覆盖规则快照变化时重新合并
+     */
+    private volatile MergedRules merged;
+
+    public StaticRateLimitConfigService(List<RateLimitRule> rules) {
+        this(rules, null);
+    }
+
+    /**
+     * @param rules 静态规则，没有ID的规则按顺序生成"static-序号"
+     * @param overrides Redis中的覆盖规则，为null时只使用静态规则
+     */
+    public StaticRateLimitConfigService(List<RateLimitRule> rules, RedisRateLimitConfigService overrides) {
+        for (int i = 0; i < rules.size(); i++) {
+            RateLimitRule rule = rules.get(i);
+            if (rule.getId() == null || rule.getId().trim().isEmpty()) {
+                rule.setId("static-" + (i + 1));
+            }
+            if (staticRuleMap.put(rule.getId(), rule) != null) {
+                throw new IllegalArgumentException("静态限流规则ID重复: " + rule.getId());
+            }
+        }
+        List<RateLimitRule> sorted = new ArrayList<>(rules);
+        sorted.sort(Comparator.comparingInt(RateLimitRule::getPriority));
+        this.staticRules = Collections.unmodifiableList(sorted);
+        this.overrides = overrides;
+        this.merged = new MergedRules(null, staticRules);
+
+        logger.info("已加载{}条静态限流规则{}", staticRules.size(), overrides != null ? "，允许Redis规则覆盖" : "");
+    }
+
+    /**
+     * 加载配置中的静态规则：先是rate-limit.rules.definitions，然后是rate-limit.rules.location指定的文件
+     */
+    public static List<RateLimitRule> loadRules(RateLimitProperties.RulesConfig config) {
+        List<RateLimitRule> rules = new ArrayList<>();
+        if (config.getDefinitions() != null) {
+            rules.addAll(config.getDefinitions());
+        }
+        if (config.getLocation() != null && !config.getLocation().trim().isEmpty()) {
+            rules.addAll(loadRules(new DefaultResourceLoader().getResource(config.getLocation().trim())));
+        }
+        return rules;
+    }
+
+    /**
+     * 从YAML或JSON文件加载规则，文件内容为规则列表，或包含rules列表的对象，字段名与规则JSON相同
+     */
+    public static List<RateLimitRule> loadRules(Resource resource) {
+        try (InputStream in = resource.getInputStream()) {
+            String filename = resource.getFilename();
+            Object content = filename != null && filename.toLowerCase().endsWith(".json")
+                    ? objectMapper.readValue(in, Object.class)
+                    : new Yaml().load(in);
+            if (content instanceof Map) {
+                content = ((Map<?, ?>) content).get("rules");
+            }
+            if (content == null) {
+                return new ArrayList<>();
+            }
+            return objectMapper.convertValue(content, new TypeReference<List<RateLimitRule>>() {});
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalStateException("读取静态限流规则失败: " + resource, e);
+        }
+    }
+
+    @Override
+    public RateLimitRule saveRule(RateLimitRule rule) {
+        return requireOverrides().saveRule(rule);
+    }
+
+    @Override
+    public RateLimitRule getRule(String ruleId) {
+        RateLimitRule rule = overrides != null ? overrides.getRule(ruleId) : null;
+        return rule != null ? rule : staticRuleMap.get(ruleId);
+    }
+
+    @Override
+    public List<RateLimitRule> getAllRules() {
+        return new ArrayList<>(currentRules().allRules);
+    }
+
+    /**
+     * 获取启用规则的快照，返回的列表不能修改
+     */
+    @Override
+    public List<RateLimitRule> getEnabledRules() {
+        return currentRules().enabledRules;
+    }
+
+    /**
+     * 删除Redis中的规则，ID相同的静态规则重新生效；静态规则本身不能删除
+     */
+    @Override
+    public void deleteRule(String ruleId) {
+        requireOverrides().deleteRule(ruleId);
+    }
+
+    @Override
+    public void toggleRule(String ruleId, boolean enabled) {
+        RedisRateLimitConfigService target = requireOverrides();
+        RateLimitRule rule = getRule(ruleId);
+        if (rule != null) {
+            RateLimitRule override = copy(rule);
+            override.setEnabled(enabled);
+            target.saveRule(override);
+
+            logger.info("切换限流规则状态: {} - {}", ruleId, enabled ? "启用" : "禁用");
+        }
+    }
+
+    @Override
+    public boolean exists(String ruleId) {
+        return getRule(ruleId) != null;
+    }
+
+    @Override
+    public void updatePriority(String ruleId, int priority) {
+        RedisRateLimitConfigService target = requireOverrides();
+        RateLimitRule rule = getRule(ruleId);
+        if (rule != null) {
+            RateLimitRule override = copy(rule);
+            override.setPriority(priority);
+            target.saveRule(override);
+
+            logger.info("更新限流规则优先级: {} - {}", ruleId, priority);
+        }
+    }
+
+    /**
+     * 是否叠加了Redis中的覆盖规则，没有时不需要订阅规则变更通知
+     */
+    public boolean hasRedisOverrides() {
+        return overrides != null;
+    }
+
+    /**
+     * 覆盖规则的变更通知转给Redis配置服务
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (overrides != null) {
+            overrides.onMessage(message, pattern);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (overrides != null) {
+            overrides.destroy();
+        }
+    }
+
+    private MergedRules currentRules() {
+        MergedRules current = merged;
+        if (overrides == null) {
+            return current;
+        }
+        List<RateLimitRule> overrideRules = overrides.getRuleSnapshot();
+        if (current.overrideRules != overrideRules) {
+            current = new MergedRules(overrideRules, merge(overrideRules));
+            merged = current;
+        }
+        return current;
+    }
+
+    /**
+     * 合并静态规则和覆盖规则，按优先级排序
+     */
+    private List<RateLimitRule> merge(List<RateLimitRule> overrideRules) {
+        Set<String> overrideIds = new HashSet<>();
+        List<RateLimitRule> rules = new ArrayList<>(staticRules.size() + overrideRules.size());
+        for (RateLimitRule rule : overrideRules) {
+            overrideIds.add(rule.getId());
+            rules.add(rule);
+        }
+        for (RateLimitRule rule : staticRules) {
+            if (!overrideIds.contains(rule.getId())) {
+                rules.add(rule);
+            }
+        }
+        rules.sort(Comparator.comparingInt(RateLimitRule::getPriority));
+        return rules;
+    }
+
+    private RedisRateLimitConfigService requireOverrides() {
+        if (overrides == null) {
+            throw new UnsupportedOperationException("静态限流规则不能修改，请修改配置或开启rate-limit.rules.redis-overrides");
+        }
+        return overrides;
+    }
+
+    /**
+     * 复制规则，不修改静态规则对象（convertValue在类型相同时直接返回原对象，需要序列化后再解析）
+     */
+    private static RateLimitRule copy(RateLimitRule rule) {
+        try {
+            return objectMapper.readValue(objectMapper.writeValueAsBytes(rule), RateLimitRule.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("复制限流规则失败: " + rule.getId(), e);
+        }
+    }
+
+    /**
+     * 合并后的规则
+     */
+    private static class MergedRules {
+        /**
+         * 合并时使用的覆盖规则快照
+         */
+        private final List<RateLimitRule> overrideRules;
+        private final List<RateLimitRule> allRules;
+        private final List<RateLimitRule> enabledRules;
+
+        MergedRules(List<RateLimitRule> overrideRules, List<RateLimitRule> allRules) {
+            this.overrideRules = overrideRules;
+            this.allRules = Collections.unmodifiableList(allRules);
+            List<RateLimitRule> enabled = new ArrayList<>();
+            for (RateLimitRule rule : allRules) {
+                if (rule.isEnabled()) {
+                    // 预先编译路径模式，请求线程不再编译
+                    rule.getCompiledPathPattern();
+                    enabled.add(rule);
+                }
+            }
+            this.enabledRules = Collections.unmodifiableList(enabled);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.util.RedisKeyGenerator;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 用一个Lua脚本同步写入一次请求的全部统计
+ *
+ * 规则统计Hash、分钟实时统计Hash和IP/用户维度统计在一次脚本调用中更新，代替逐条执行的8~15个命令。
+ * 过期时间只在键新建时设置，不再每次请求都刷新，因此规则统计Hash等长期键在创建7天后过期重新计数。
+ */
+public class StatsScriptWriter {
+
+    private static final String MODE_DETAIL = "detail";
+    private static final String MODE_HOTSPOT = "hotspot";
+
+    /**
+     * KEYS: 规则统计Hash, 分钟实时统计Hash, 维度键...
+     * ARGV: 是否允许(1/0), 当前时间, 维度模式(detail/hotspot), 热点保留数量, 维度值...
+     *
+     * detail模式每个维度值对应两个键（明细Hash、维度ZSET），hotspot模式对应一个热点ZSET
+     */
+    private static final String RECORD_SCRIPT =
+        "local allowed = ARGV[1] == '1'\n" +
+        "local now = ARGV[2]\n" +
+        "local detail = ARGV[3] == '" + MODE_DETAIL + "'\n" +
+        "local top_n = tonumber(ARGV[4])\n" +
+        "local function expire_new(key, seconds)\n" +
+        "    if redis.call('TTL', key) == -1 then\n" +
+        "        redis.call('EXPIRE', key, seconds)\n" +
+        "    end\n" +
+        "end\n" +
+        "local function count(key, total_field, allowed_field, blocked_field)\n" +
+        "    redis.call('HINCRBY', key, total_field, 1)\n" +
+        "    redis.call('HINCRBY', key, allowed and allowed_field or blocked_field, 1)\n" +
+        "end\n" +
+        "count(KEYS[1], 'totalRequests', 'allowedRequests', 'blockedRequests')\n" +
+        "redis.call('HSET', KEYS[1], 'lastRequestTime', now)\n" +
+        "expire_new(KEYS[1], 604800)\n" +
+        "count(KEYS[2], 'requests', 'allowed', 'blocked')\n" +
+        "expire_new(KEYS[2], 86400)\n" +
+        "local k = 3\n" +
+        "for i = 5, #ARGV do\n" +
+        "    if detail then\n" +
+        "        count(KEYS[k], 'totalRequests', 'allowedRequests', 'blockedRequests')\n" +
+        "        redis.call('HSET', KEYS[k], 'lastRequestTime', now)\n" +
+        "        expire_new(KEYS[k], 604800)\n" +
+        "        redis.call('ZINCRBY', KEYS[k + 1], 1, ARGV[i])\n" +
+        "        expire_new(KEYS[k + 1], 604800)\n" +
+        "        k = k + 2\n" +
+        "    else\n" +
+        "        redis.call('ZINCRBY', KEYS[k], 1, ARGV[i])\n" +
+        "        if top_n > 0 then\n" +
+        "            redis.call('ZREMRANGEBYRANK', KEYS[k], 0, -top_n - 1)\n" +
+        "        end\n" +
+        "        expire_new(KEYS[k], 86400)\n" +
+        "        k = k + 1\n" +
+        "    end\n" +
+        "end\n" +
+        "return 0";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final RedisKeyGenerator keyGenerator;
+    private final DefaultRedisScript<Long> recordScript;
+
+    private final StringRedisSerializer stringSerializer = new StringRedisSerializer();
+    private final GenericToStringSerializer<Long> resultSerializer = new GenericToStringSerializer<>(Long.class);
+
+    public StatsScriptWriter(RedisTemplate<String, Object> redisTemplate, RedisKeyGenerator keyGenerator) {
+        this.redisTemplate = redisTemplate;
+        this.keyGenerator = keyGenerator;
+
+        this.recordScript = new DefaultRedisScript<>();
+        this.recordScript.setScriptText(RECORD_SCRIPT);
+        this.recordScript.setResultType(Long.class);
+    }
+
+    /**
+     * 记录规则统计和维度明细统计（每个维度值一个明细Hash，并计入维度列表ZSET）
+     *
+     * @param dimensionValues 维度（ip、user）到维度值的映射，可以为空
+     */
+    // 明细键与SYNC写入方式相同，统计后台按这两个键读取维度明细，不能换成Hash/Set格式的键
+    @SuppressWarnings("deprecation")
+    public void recordDetailed(String ruleId, boolean allowed, Map<String, String> dimensionValues) {
+        List<String> keys = baseKeys(ruleId, 2 * dimensionValues.size());
+        for (Map.Entry<String, String> entry : dimensionValues.entrySet()) {
+            keys.add(keyGenerator.generateDetailedStatsKey(ruleId, entry.getKey(), entry.getValue()));
+            keys.add(keyGenerator.generateDimensionListKey(ruleId, entry.getKey()));
+        }
+        execute(keys, allowed, MODE_DETAIL, 0, dimensionValues);
+    }
+
+    /**
+     * 记录规则统计和维度热点统计（维度值计入热点ZSET，只保留前topN个）
+     *
+     * @param dimensionValues 维度（ip、user）到维度值的映射，可以为空
+     */
+    public void recordHotspot(String ruleId, boolean allowed, Map<String, String> dimensionValues, int topN) {
+        List<String> keys = baseKeys(ruleId, dimensionValues.size());
+        for (String dimension : dimensionValues.keySet()) {
+            keys.add(keyGenerator.generateHotspotStatsKey(ruleId, dimension));
+        }
+        execute(keys, allowed, MODE_HOTSPOT, topN, dimensionValues);
+    }
+
+    private List<String> baseKeys(String ruleId, int dimensionKeys) {
+        long currentMinute = System.currentTimeMillis() / (60 * 1000) * (60 * 1000);
+        List<String> keys = new ArrayList<>(2 + dimensionKeys);
+        keys.add(keyGenerator.generateStatsKey(ruleId));
+        keys.add(keyGenerator.generateRealtimeKey(ruleId, currentMinute));
+        return keys;
+    }
+
+    /**
+     * 参数预先序列化：控制参数按字符串编码，维度值按模板的值序列化方式编码，与同步写入的ZSET成员一致
+     */
+    @SuppressWarnings("unchecked")
+    private void execute(List<String> keys, boolean allowed, String mode, int topN, Map<String, String> dimensionValues) {
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        Object[] args = new Object[4 + dimensionValues.size()];
+        args[0] = stringSerializer.serialize(allowed ? "1" : "0");
+        args[1] = stringSerializer.serialize(String.valueOf(System.currentTimeMillis()));
+        args[2] = stringSerializer.serialize(mode);
+        args[3] = stringSerializer.serialize(String.valueOf(topN));
+        int i = 4;
+        for (String value : dimensionValues.values()) {
+            args[i++] = valueSerializer.serialize(value);
+        }
+        redisTemplate.execute(recordScript, null, resultSerializer, keys, args);
+    }
+}
@@ -0,0 +1,294 @@
+package io.github.jicklin.starter.ratelimit.service.impl;
+
+import io.github.jicklin.starter.ratelimit.autoconfigure.RateLimitProperties;
+import io.github.jicklin.starter.ratelimit.model.RateLimitAlgorithm;
+import io.github.jicklin.starter.ratelimit.model.RateLimitBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 令牌租约管理器
+ *
+ * 节点从Redis令牌桶中一次原子地取走一批令牌（租约），在本地通过无锁计数器分发，
+ * 直到令牌用完或租约过期；过期时未使用的令牌在下一次续租时一并归还。
+ * 租约大小根据本地观测到的请求速率自适应调整，并受 容量 × 最大误差比例 限制，
+ * 使单个节点持有的令牌数量始终在可控的误差范围内。
+ *
+ * Redis令牌桶没有可用令牌时，在本地缓存拒绝结果直到脚本返回的重试时间，
+ * 期间同一令牌桶的请求直接在本地拒绝，不再逐个访问Redis。
+ *
+ * 只对令牌桶算法的路径维度生效，IP、用户维度的令牌桶请求分散，租约收益很小。
+ */
+public class TokenLeaseManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenLeaseManager.class);
+
+    /**
+     * 速率估计的平滑系数
+     */
+    private static final double RATE_SMOOTHING = 0.5;
+
+    /**
+     * Lua脚本：归还上一个租约剩余的令牌并预取新的租约
+     *
+     * KEYS[1]: 令牌桶键
+     * ARGV[1]: 当前时间（毫秒）
+     * ARGV[2..6]: algorithm, capacity, refill_rate, time_window_ms, returned（归还的令牌数）
+     * ARGV[7]: requested（请求预取的令牌数）
+     * 返回: {granted, retry_after}
+     */
+    private static final String LEASE_SCRIPT =
+        RedisRateLimitService.TOKEN_BUCKET_FUNCTIONS +
+        "\n" +
+        "local algorithm = tonumber(ARGV[2])\n" +
+        "local capacity = tonumber(ARGV[3])\n" +
+        "local refill_rate = tonumber(ARGV[4])\n" +
+        "local window_ms = math.max(1, tonumber(ARGV[5]))\n" +
+        "local returned = tonumber(ARGV[6])\n" +
+        "local requested = tonumber(ARGV[7])\n" +
+        "\n" +
+        "local state = check_bucket(algorithm, KEYS[1], capacity, refill_rate, window_ms)\n" +
+        "local tokens = math.min(capacity, state.tokens + returned)\n" +
+        "local granted = math.max(0, math.min(requested, math.floor(tokens)))\n" +
+        "-- 没有取走也没有归还令牌时不写回，与多令牌桶脚本被拒绝时的行为一致\n" +
+        "if granted > 0 or returned > 0 then\n" +
+        "    write_bucket(algorithm, KEYS[1], capacity, refill_rate, window_ms, tokens - granted, state.stamp)\n" +
+        "end\n" +
+        "return {granted, granted > 0 and 0 or state.retry}";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final RateLimitProperties properties;
+    private final DefaultRedisScript<List<Object>> leaseScript;
+
+    private final Map<String, LeaseHolder> holders = new ConcurrentHashMap<>();
+
+    public TokenLeaseManager(RedisTemplate<String, Object> redisTemplate, RateLimitProperties properties) {
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
+
+        this.leaseScript = RedisRateLimitService.createListScript(LEASE_SCRIPT);
+    }
+
+    /**
+     * 判断令牌桶是否可以使用租约
+     */
+    public boolean supports(RateLimitBucket bucket) {
+        return bucket.getAlgorithm() == RateLimitAlgorithm.TOKEN_BUCKET
+                && (RateLimitBucket.DIMENSION_PATH.equals(bucket.getDimension())
+                || RateLimitBucket.DIMENSION_METHOD.equals(bucket.getDimension()));
+    }
+
+    /**
+     * 从租约中取一个令牌，本地租约用完或过期时向Redis续租
+     * 检查结果回填到bucket对象
+     *
+     * @return 取到令牌的租约，没有可用令牌或仍在拒绝缓存期内时返回null
+     */
+    public Lease tryAcquire(RateLimitBucket bucket, int bucketAlgorithm) {
+        LeaseHolder holder = holders.get(bucket.getKey());
+        if (holder == null) {
+            evictExpired();
+            LeaseHolder created = new LeaseHolder();
+            holder = holders.putIfAbsent(bucket.getKey(), created);
+            if (holder == null) {
+                holder = created;
+            }
+        }
+        holder.requests.incrementAndGet();
+
+        long now = System.currentTimeMillis();
+        Lease lease = holder.lease;
+        if (lease != null && lease.tryTake(now)) {
+            bucket.setAllowed(true);
+            bucket.setRemainingTokens(lease.remaining.get());
+            return lease;
+        }
+        if (rejectDenied(holder, bucket, now)) {
+            return null;
+        }
+
+        synchronized (holder) {
+            // 其他线程可能已经续租，或者已经确认没有可用令牌
+            now = System.currentTimeMillis();
+            lease = holder.lease;
+            if (lease != null && lease.tryTake(now)) {
+                bucket.setAllowed(true);
+                bucket.setRemainingTokens(lease.remaining.get());
+                return lease;
+            }
+            if (rejectDenied(holder, bucket, now)) {
+                return null;
+            }
+
+            long returned = lease != null ? lease.drain() : 0;
+            int requested = nextLeaseSize(holder, bucket, now);
+
+            long granted;
+            long retryAfter;
+            try {
+                List<Object> result = redisTemplate.execute(leaseScript, Collections.singletonList(bucket.getKey()),
+                        now, bucketAlgorithm, bucket.getCapacity(), bucket.getRefillRate(),
+                        bucket.getTimeWindowMillis(), returned, requested);
+                granted = ((Number) result.get(0)).longValue();
+                retryAfter = ((Number) result.get(1)).longValue();
+            } catch (RuntimeException e) {
+                // 归还失败的令牌直接丢弃，只会让限流更保守
+                holder.lease = null;
+                throw e;
+            }
+
+            logger.debug("令牌租约续租: key={}, returned={}, requested={}, granted={}",
+                    bucket.getKey(), returned, requested, granted);
+
+            if (granted <= 0) {
+                // 缓存拒绝结果，重试时间之前Redis令牌桶不会补充出新的令牌
+                holder.lease = null;
+                holder.deniedUntil = now + retryAfter;
+                bucket.setAllowed(false);
+                bucket.setRemainingTokens(0);
+                bucket.setRetryAfterMillis(retryAfter);
+                return null;
+            }
+
+            // 第一个令牌留给当前请求
+            lease = new Lease(granted - 1, now + properties.getLease().getDurationMillis());
+            holder.lease = lease;
+            bucket.setAllowed(true);
+            bucket.setRemainingTokens(granted - 1);
+            return lease;
+        }
+    }
+
+    /**
+     * 归还一个未使用的令牌（多令牌桶中其他令牌桶被拒绝时调用）
+     */
+    public void release(Lease lease) {
+        lease.remaining.incrementAndGet();
+    }
+
+    /**
+     * 丢弃指定令牌桶的本地租约和拒绝缓存
+     *
+     * @param key 令牌桶键
+     */
+    public void clear(String key) {
+        holders.remove(key);
+    }
+
+    /**
+     * 丢弃所有本地租约，未使用的令牌随令牌桶补充自然恢复
+     */
+    public void clear() {
+        holders.clear();
+    }
+
+    /**
+     * 仍在拒绝缓存期内时直接拒绝，重试时间为缓存到期的剩余时间
+     */
+    private boolean rejectDenied(LeaseHolder holder, RateLimitBucket bucket, long now) {
+        long deniedUntil = holder.deniedUntil;
+        if (now >= deniedUntil) {
+            return false;
+        }
+        bucket.setAllowed(false);
+        bucket.setRemainingTokens(0);
+        bucket.setRetryAfterMillis(deniedUntil - now);
+        return true;
+    }
+
+    /**
+     * 根据本地请求速率计算下一次预取的令牌数：
+     * 预计在一个租约期内消耗的令牌数，限制在[minSize, maxSize]以及 容量 × 最大误差比例 之内
+     */
+    private int nextLeaseSize(LeaseHolder holder, RateLimitBucket bucket, long now) {
+        RateLimitProperties.LeaseConfig config = properties.getLease();
+
+        long elapsed = now - holder.lastRenewTime;
+        long requests = holder.requests.getAndSet(0);
+        if (holder.lastRenewTime > 0 && elapsed > 0) {
+            double rate = requests * 1000.0 / elapsed;
+            holder.rate = holder.rate > 0 ? RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * holder.rate : rate;
+        }
+        holder.lastRenewTime = now;
+
+        long size = (long) Math.ceil(holder.rate * config.getDurationMillis() / 1000.0);
+        size = Math.max(config.getMinSize(), Math.min(config.getMaxSize(), size));
+        long errorBound = (long) Math.floor(bucket.getCapacity() * config.getMaxErrorRatio());
+        return (int) Math.max(1, Math.min(size, errorBound));
+    }
+
+    /**
+     * 租约数量超过上限时清理已过期且不在拒绝缓存期内的租约
+     */
+    private void evictExpired() {
+        if (holders.size() < properties.getLease().getMaxEntries()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, LeaseHolder>> iterator = holders.entrySet().iterator();
+        while (iterator.hasNext()) {
+            LeaseHolder holder = iterator.next().getValue();
+            Lease lease = holder.lease;
+            if ((lease == null || lease.expireTime <= now) && holder.deniedUntil <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 单个令牌桶在本节点的租约状态
+     */
+    private static class LeaseHolder {
+        private volatile Lease lease;
+        /**
+         * 拒绝缓存的到期时间（毫秒），之前的请求直接在本地拒绝
+         */
+        private volatile long deniedUntil;
+        private final AtomicLong requests = new AtomicLong();
+        private long lastRenewTime;
+        private double rate;
+    }
+
+    /**
+     * 一次预取的令牌
+     */
+    public static class Lease {
+        private final AtomicLong remaining;
+        private final long expireTime;
+
+        Lease(long remaining, long expireTime) {
+            this.remaining = new AtomicLong(remaining);
+            this.expireTime = expireTime;
+        }
+
+        boolean tryTake(long now) {
+            if (now >= expireTime) {
+                return false;
+            }
+            long current;
+            do {
+                current = remaining.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!remaining.compareAndSet(current, current - 1));
+            return true;
+        }
+
+        /**
+         * 取走所有剩余令牌用于归还，之后的tryTake都会失败
+         */
+        long drain() {
+            return Math.max(0, remaining.getAndSet(Long.MIN_VALUE / 2));
+        }
+    }
+}
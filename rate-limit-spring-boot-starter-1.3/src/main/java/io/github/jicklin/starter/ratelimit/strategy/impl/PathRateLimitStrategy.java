@@ -2,6 +2,7 @@ package io.github.jicklin.starter.ratelimit.strategy.impl;
 
 import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
 import io.github.jicklin.starter.ratelimit.strategy.RateLimitStrategy;
+import org.springframework.web.servlet.HandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -12,6 +13,19 @@ public class PathRateLimitStrategy implements RateLimitStrategy {
 
     private static final String KEY_PREFIX = "rate_limit:path:";
 
+    /**
+     * 是否使用路由模板作为标识符，同一路由的不同路径变量共享一个令牌桶
+     */
+    private final boolean useRouteTemplate;
+
+    public PathRateLimitStrategy() {
+        this(false);
+    }
+
+    public PathRateLimitStrategy(boolean useRouteTemplate) {
+        this.useRouteTemplate = useRouteTemplate;
+    }
+
     @Override
     public String generateKey(HttpServletRequest request, RateLimitRule rule) {
         String path = extractIdentifier(request);
@@ -32,6 +46,14 @@ public class PathRateLimitStrategy implements RateLimitStrategy {
 
     @Override
     public String extractIdentifier(HttpServletRequest request) {
+        // 已经映射到处理方法时使用路由模板（不含上下文路径）
+        if (useRouteTemplate) {
+            Object routeTemplate = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            if (routeTemplate instanceof String) {
+                return (String) routeTemplate;
+            }
+        }
+
         // 使用请求路径作为标识符
         String path = request.getRequestURI();
 
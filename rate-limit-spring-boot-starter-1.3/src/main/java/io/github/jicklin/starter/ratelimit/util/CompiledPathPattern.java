@@ -0,0 +1,351 @@
+package io.github.jicklin.starter.ratelimit.util;
+
+/**
+ * 预编译的Ant风格路径模式
+ * 支持 ? * ** 通配符，匹配语义与AntPathMatcher.match完全一致
+ *
+ * 模式在编译时按"/"分段，每段预先判断是否为**、*或不含通配符的字面量；
+ * 匹配时不再分割请求路径，只把各段在路径中的起止位置记录到线程内复用的数组中，逐段原地比较。
+ */
+public final class CompiledPathPattern {
+
+    private static final char PATH_SEPARATOR = '/';
+
+    /**
+     * 路径各段的起止位置，每段占两个元素，线程内复用
+     */
+    private static final ThreadLocal<int[]> SEGMENT_BOUNDS = ThreadLocal.withInitial(() -> new int[32]);
+
+    private final String pattern;
+    private final Segment[] segments;
+    private final boolean startsWithSeparator;
+    private final boolean endsWithSeparator;
+
+    private CompiledPathPattern(String pattern) {
+        this.pattern = pattern;
+        String[] dirs = pattern.split(String.valueOf(PATH_SEPARATOR));
+        this.segments = new Segment[dirs.length];
+        for (int i = 0; i < dirs.length; i++) {
+            this.segments[i] = new Segment(dirs[i]);
+        }
+        this.startsWithSeparator = pattern.startsWith(String.valueOf(PATH_SEPARATOR));
+        this.endsWithSeparator = pattern.endsWith(String.valueOf(PATH_SEPARATOR));
+    }
+
+    /**
+     * 编译路径模式
+     *
+     * @param pattern 模式字符串，为null时任何路径都不匹配
+     * @return 编译后的模式
+     */
+    public static CompiledPathPattern compile(String pattern) {
+        return pattern != null ? new CompiledPathPattern(pattern) : new CompiledPathPattern();
+    }
+
+    private CompiledPathPattern() {
+        this.pattern = null;
+        this.segments = null;
+        this.startsWithSeparator = false;
+        this.endsWithSeparator = false;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * 检查路径是否匹配模式
+     *
+     * @param path 路径字符串
+     * @return 是否匹配
+     */
+    public boolean matches(String path) {
+        if (segments == null || path == null) {
+            return false;
+        }
+        boolean pathStartsWithSeparator = !path.isEmpty() && path.charAt(0) == PATH_SEPARATOR;
+        if (pathStartsWithSeparator != startsWithSeparator) {
+            return false;
+        }
+
+        int[] bounds = tokenize(path);
+        Segment[] pattDirs = segments;
+
+        int pattIdxStart = 0;
+        int pattIdxEnd = pattDirs.length - 1;
+        int pathIdxStart = 0;
+        int pathIdxEnd = bounds[0] - 1;
+
+        // 匹配开始部分
+        while (pattIdxStart <= pattIdxEnd && pathIdxStart <= pathIdxEnd) {
+            Segment pattDir = pattDirs[pattIdxStart];
+            if (pattDir.doubleStar) {
+                break;
+            }
+            if (!pattDir.matches(path, bounds, pathIdxStart)) {
+                return false;
+            }
+            pattIdxStart++;
+            pathIdxStart++;
+        }
+
+        boolean pathEndsWithSeparator = !path.isEmpty() && path.charAt(path.length() - 1) == PATH_SEPARATOR;
+        if (pathIdxStart > pathIdxEnd) {
+            // 路径已经匹配完
+            if (pattIdxStart > pattIdxEnd) {
+                return endsWithSeparator == pathEndsWithSeparator;
+            }
+            if (pattIdxStart == pattIdxEnd && pattDirs[pattIdxStart].singleStar && pathEndsWithSeparator) {
+                return true;
+            }
+            return onlyDoubleStars(pattIdxStart, pattIdxEnd);
+        } else if (pattIdxStart > pattIdxEnd) {
+            // 模式已经匹配完，但路径还有剩余
+            return false;
+        }
+
+        // 匹配结束部分
+        while (pattIdxStart <= pattIdxEnd && pathIdxStart <= pathIdxEnd) {
+            Segment pattDir = pattDirs[pattIdxEnd];
+            if (pattDir.doubleStar) {
+                break;
+            }
+            if (!pattDir.matches(path, bounds, pathIdxEnd)) {
+                return false;
+            }
+            pattIdxEnd--;
+            pathIdxEnd--;
+        }
+
+        if (pathIdxStart > pathIdxEnd) {
+            // 路径已经匹配完
+            return onlyDoubleStars(pattIdxStart, pattIdxEnd);
+        }
+
+        // 处理中间的**
+        while (pattIdxStart != pattIdxEnd && pathIdxStart <= pathIdxEnd) {
+            int patIdxTmp = -1;
+            for (int i = pattIdxStart + 1; i <= pattIdxEnd; i++) {
+                if (pattDirs[i].doubleStar) {
+                    patIdxTmp = i;
+                    break;
+                }
+            }
+            if (patIdxTmp == pattIdxStart + 1) {
+                // '**/**' 情况
+                pattIdxStart++;
+                continue;
+            }
+            // 找到下一个**之前的模式
+            int patLength = (patIdxTmp - pattIdxStart - 1);
+            int strLength = (pathIdxEnd - pathIdxStart + 1);
+            int foundIdx = -1;
+
+            strLoop:
+            for (int i = 0; i <= strLength - patLength; i++) {
+                for (int j = 0; j < patLength; j++) {
+                    if (!pattDirs[pattIdxStart + j + 1].matches(path, bounds, pathIdxStart + i + j)) {
+                        continue strLoop;
+                    }
+                }
+                foundIdx = pathIdxStart + i;
+                break;
+            }
+
+            if (foundIdx == -1) {
+                return false;
+            }
+
+            pattIdxStart = patIdxTmp;
+            pathIdxStart = foundIdx + patLength;
+        }
+
+        return onlyDoubleStars(pattIdxStart, pattIdxEnd);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(pattern);
+    }
+
+    private boolean onlyDoubleStars(int from, int to) {
+        for (int i = from; i <= to; i++) {
+            if (!segments[i].doubleStar) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按String.split("/")的规则记录路径各段的位置：保留开头和中间的空段，去掉末尾的空段
+     *
+     * @return 数组，第一个元素为段数，之后每段依次为起始位置（含）和结束位置（不含）
+     */
+    private static int[] tokenize(String path) {
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == PATH_SEPARATOR) {
+            end--;
+        }
+
+        int count;
+        if (path.isEmpty()) {
+            count = 1;
+        } else if (end == 0) {
+            count = 0;
+        } else {
+            count = 1;
+            for (int i = 0; i < end; i++) {
+                if (path.charAt(i) == PATH_SEPARATOR) {
+                    count++;
+                }
+            }
+        }
+
+        int[] bounds = SEGMENT_BOUNDS.get();
+        if (bounds.length < 1 + count * 2) {
+            bounds = new int[Math.max(bounds.length * 2, 1 + count * 2)];
+            SEGMENT_BOUNDS.set(bounds);
+        }
+
+        bounds[0] = count;
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int next = i == count - 1 ? end : path.indexOf(PATH_SEPARATOR, start);
+            bounds[1 + i * 2] = start;
+            bounds[2 + i * 2] = next;
+            start = next + 1;
+        }
+        return bounds;
+    }
+
+    /**
+     * 模式中的一段
+     */
+    private static final class Segment {
+        private final char[] chars;
+        private final boolean doubleStar;
+        private final boolean singleStar;
+        private final boolean containsStar;
+
+        Segment(String dir) {
+            this.chars = dir.toCharArray();
+            this.doubleStar = "**".equals(dir);
+            this.singleStar = "*".equals(dir);
+            this.containsStar = dir.indexOf('*') >= 0;
+        }
+
+        boolean matches(String path, int[] bounds, int index) {
+            return matchChars(path, bounds[1 + index * 2], bounds[2 + index * 2]);
+        }
+
+        /**
+         * 匹配路径中的一段（支持?和*通配符）
+         */
+        private boolean matchChars(String str, int start, int end) {
+            char[] patArr = chars;
+            int patIdxStart = 0;
+            int patIdxEnd = patArr.length - 1;
+            int strIdxStart = start;
+            int strIdxEnd = end - 1;
+            char ch;
+
+            if (!containsStar) {
+                // 没有*，只需要检查长度和?匹配
+                if (patArr.length != end - start) {
+                    return false;
+                }
+                for (int i = 0; i <= patIdxEnd; i++) {
+                    ch = patArr[i];
+                    if (ch != '?' && ch != str.charAt(start + i)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            if (patIdxEnd == 0) {
+                return true; // 只有一个*
+            }
+
+            // 匹配开始部分
+            while ((ch = patArr[patIdxStart]) != '*' && strIdxStart <= strIdxEnd) {
+                if (ch != '?' && ch != str.charAt(strIdxStart)) {
+                    return false;
+                }
+                patIdxStart++;
+                strIdxStart++;
+            }
+
+            if (strIdxStart > strIdxEnd) {
+                // 字符串已经匹配完
+                return onlyStars(patIdxStart, patIdxEnd);
+            }
+
+            // 匹配结束部分
+            while ((ch = patArr[patIdxEnd]) != '*' && strIdxStart <= strIdxEnd) {
+                if (ch != '?' && ch != str.charAt(strIdxEnd)) {
+                    return false;
+                }
+                patIdxEnd--;
+                strIdxEnd--;
+            }
+
+            if (strIdxStart > strIdxEnd) {
+                // 字符串已经匹配完
+                return onlyStars(patIdxStart, patIdxEnd);
+            }
+
+            // 处理中间的*
+            while (patIdxStart != patIdxEnd && strIdxStart <= strIdxEnd) {
+                int patIdxTmp = -1;
+                for (int i = patIdxStart + 1; i <= patIdxEnd; i++) {
+                    if (patArr[i] == '*') {
+                        patIdxTmp = i;
+                        break;
+                    }
+                }
+                if (patIdxTmp == patIdxStart + 1) {
+                    // 连续的*
+                    patIdxStart++;
+                    continue;
+                }
+
+                // 找到下一个*之前的模式
+                int patLength = (patIdxTmp - patIdxStart - 1);
+                int strLength = (strIdxEnd - strIdxStart + 1);
+                int foundIdx = -1;
+
+                strLoop:
+                for (int i = 0; i <= strLength - patLength; i++) {
+                    for (int j = 0; j < patLength; j++) {
+                        ch = patArr[patIdxStart + j + 1];
+                        if (ch != '?' && ch != str.charAt(strIdxStart + i + j)) {
+                            continue strLoop;
+                        }
+                    }
+                    foundIdx = strIdxStart + i;
+                    break;
+                }
+
+                if (foundIdx == -1) {
+                    return false;
+                }
+
+                patIdxStart = patIdxTmp;
+                strIdxStart = foundIdx + patLength;
+            }
+
+            return onlyStars(patIdxStart, patIdxEnd);
+        }
+
+        private boolean onlyStars(int from, int to) {
+            for (int i = from; i <= to; i++) {
+                if (chars[i] != '*') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,12 +1,94 @@
 package io.github.jicklin.starter.ratelimit;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.jicklin.starter.ratelimit.annotation.RateLimit;
+import io.github.jicklin.starter.ratelimit.aspect.RateLimitAspect;
+import io.github.jicklin.starter.ratelimit.autoconfigure.RateLimitAutoConfiguration;
+import io.github.jicklin.starter.ratelimit.autoconfigure.RateLimitProperties;
+import io.github.jicklin.starter.ratelimit.exception.RateLimitException;
+import io.github.jicklin.starter.ratelimit.exception.RateLimitExceptionHandler;
+import io.github.jicklin.starter.ratelimit.interceptor.LiveStatsHandler;
 import io.github.jicklin.starter.ratelimit.model.HttpMethod;
+import io.github.jicklin.starter.ratelimit.model.RateLimitAlgorithm;
+import io.github.jicklin.starter.ratelimit.model.RateLimitBucket;
+import io.github.jicklin.starter.ratelimit.model.RateLimitMethodDescriptor;
 import io.github.jicklin.starter.ratelimit.model.RateLimitRule;
+import io.github.jicklin.starter.ratelimit.service.RateLimitService;
+import io.github.jicklin.starter.ratelimit.service.impl.BlockedKeyCache;
+import io.github.jicklin.starter.ratelimit.service.impl.BucketRequestCoalescer;
+import io.github.jicklin.starter.ratelimit.service.impl.BufferedStatsRecorder;
+import io.github.jicklin.starter.ratelimit.service.impl.HeavyHitterSketch;
+import io.github.jicklin.starter.ratelimit.service.impl.LiveStatsRing;
+import io.github.jicklin.starter.ratelimit.service.impl.LocalBucketTable;
+import io.github.jicklin.starter.ratelimit.service.impl.LocalRateLimitConfigService;
+import io.github.jicklin.starter.ratelimit.service.impl.LocalRateLimitService;
+import io.github.jicklin.starter.ratelimit.service.impl.LocalRateLimitStatsService;
+import io.github.jicklin.starter.ratelimit.service.impl.PipelinedScriptExecutor;
+import io.github.jicklin.starter.ratelimit.service.impl.RedisRateLimitConfigService;
+import io.github.jicklin.starter.ratelimit.service.impl.RedisRateLimitService;
+import io.github.jicklin.starter.ratelimit.service.impl.RedisRateLimitStatsService;
+import io.github.jicklin.starter.ratelimit.service.impl.RuleIndex;
+import io.github.jicklin.starter.ratelimit.service.impl.RouteRuleBinding;
+import io.github.jicklin.starter.ratelimit.service.impl.RuleMatchCache;
+import io.github.jicklin.starter.ratelimit.service.impl.StaticRateLimitConfigService;
+import io.github.jicklin.starter.ratelimit.service.impl.TokenLeaseManager;
+import io.github.jicklin.starter.ratelimit.service.impl.UniqueClientCounter;
+import io.github.jicklin.starter.ratelimit.strategy.RateLimitStrategy;
+import io.github.jicklin.starter.ratelimit.strategy.RateLimitStrategyFactory;
+import io.github.jicklin.starter.ratelimit.strategy.impl.IpRateLimitStrategy;
+import io.github.jicklin.starter.ratelimit.strategy.impl.PathRateLimitStrategy;
+import io.github.jicklin.starter.ratelimit.strategy.impl.UserRateLimitStrategy;
 import io.github.jicklin.starter.ratelimit.util.AntPathMatcher;
+import io.github.jicklin.starter.ratelimit.util.CompiledPathPattern;
+import io.github.jicklin.starter.ratelimit.util.RedisKeyGenerator;
 import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.servlet.HandlerMapping;
 
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -26,6 +108,735 @@ public class RateLimitStarterTest {
         assertFalse(AntPathMatcher.match("/user/*/profile", "/user/123/settings"));
     }
 
+    @Test
+    public void testCompiledPathPattern() {
+        // 测试预编译路径模式与AntPathMatcher的匹配结果一致
+        String[] patterns = {"/api/**", "/api/*", "/user/*/profile", "/**", "/", "", "/api/**/detail",
+                "/api/**/*.json", "/a?c/**/x*y", "**", "/api/", "/*/", "api/**", "/**/**/end"};
+        String[] paths = {"/api/users", "/api/users/123", "/api", "/api/", "/user/123/profile", "/", "",
+                "//", "/api//users", "/api/a/b/detail", "/api/a/b.json", "/abc/x/y/xzzy", "api/users", "/end"};
+        for (String pattern : patterns) {
+            CompiledPathPattern compiled = CompiledPathPattern.compile(pattern);
+            for (String path : paths) {
+                assertEquals(pattern + " -> " + path, AntPathMatcher.match(pattern, path), compiled.matches(path));
+            }
+        }
+
+        String[] patternParts = {"", "a", "b", "*", "**", "?", "a*", "*b", "a?b", "a*b*"};
+        String[] pathParts = {"", "a", "b", "ab", "aab", "abb", "ba", "axb"};
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            String pattern = randomPath(random, patternParts);
+            String path = randomPath(random, pathParts);
+            assertEquals(pattern + " -> " + path, AntPathMatcher.match(pattern, path),
+                    CompiledPathPattern.compile(pattern).matches(path));
+        }
+
+        assertFalse(CompiledPathPattern.compile(null).matches("/api"));
+        assertFalse(CompiledPathPattern.compile("/api/**").matches(null));
+    }
+
+    @Test
+    public void testRuleIndex() {
+        // 测试规则索引：候选规则经完整匹配后与逐条匹配的结果和顺序一致
+        String[] patternParts = {"", "api", "v1", "*", "**", "?1", "a*", "user"};
+        String[] pathParts = {"", "api", "v1", "x1", "abc", "user"};
+        String[] methods = {"GET", "POST", "DELETE", "CONNECT"};
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            List<RateLimitRule> rules = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                RateLimitRule rule = new RateLimitRule();
+                rule.setId("rule-" + i);
+                rule.setPathPattern(randomPath(random, patternParts));
+                if (random.nextBoolean()) {
+                    rule.setHttpMethods(Collections.singletonList(HttpMethod.values()[random.nextInt(3)]));
+                }
+                rules.add(rule);
+            }
+            RuleIndex index = RuleIndex.build(rules);
+            assertTrue(index.isBuiltFrom(rules));
+
+            for (int i = 0; i < 100; i++) {
+                String path = randomPath(random, pathParts);
+                String method = methods[random.nextInt(methods.length)];
+                List<RateLimitRule> expected = new ArrayList<>();
+                for (RateLimitRule rule : rules) {
+                    if (matches(rule, method, path)) {
+                        expected.add(rule);
+                    }
+                }
+                List<RateLimitRule> actual = new ArrayList<>();
+                for (RateLimitRule rule : index.getCandidates(method, path)) {
+                    if (matches(rule, method, path)) {
+                        actual.add(rule);
+                    }
+                }
+                assertEquals(method + " " + path, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testRuleMatchCache() {
+        // 测试规则匹配结果缓存：第二次出现才缓存，版本变化后失效，一次性URI不挤掉热点URI
+        RuleMatchCache cache = new RuleMatchCache(2);
+        List<RateLimitRule> rules = Collections.singletonList(createLocalRule("cached", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1));
+
+        cache.put("GET /hot", 1, rules);
+        assertNull(cache.get("GET /hot", 1));
+        cache.put("GET /hot", 1, rules);
+        assertSame(rules, cache.get("GET /hot", 1));
+        assertNull(cache.get("GET /hot", 2));
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put("GET /scan/" + i, 1, rules);
+        }
+        assertSame(rules, cache.get("GET /hot", 1));
+        assertTrue(cache.size() <= 2);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2.0 / 4, cache.getHitRatio(), 0.0001);
+
+        // 本地限流服务重复访问同一URI时命中缓存
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        LocalRateLimitService service = createLocalService(configService, new RateLimitProperties());
+        configService.saveRule(createLocalRule("match-cache", RateLimitAlgorithm.TOKEN_BUCKET, 100, 100));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(service.isAllowed(new MockHttpServletRequest("GET", "/api/users")));
+        }
+        assertEquals(3, service.getMatchCache().getHitCount());
+    }
+
+    @Test
+    public void testRouteRuleBinding() {
+        // 测试按路由模板绑定规则：覆盖路由所有请求的规则直接绑定，只覆盖部分请求的规则按请求路径匹配
+        RateLimitRule all = createLocalRule("all", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1);
+        RateLimitRule users = createLocalRule("users", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1);
+        users.setPathPattern("/api/user/*");
+        users.setHttpMethods(Collections.singletonList(HttpMethod.POST));
+        RateLimitRule single = createLocalRule("single", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1);
+        single.setPathPattern("/api/user/1");
+
+        assertTrue(RouteRuleBinding.covers(all, "/api/user/{id}"));
+        assertTrue(RouteRuleBinding.covers(users, "/api/user/{id:[0-9]+}"));
+        assertFalse(RouteRuleBinding.covers(single, "/api/user/{id}"));
+        assertFalse(RouteRuleBinding.covers(users, "/api/user/{id}/orders"));
+        assertFalse(RouteRuleBinding.covers(users, "/api/user/**"));
+
+        RouteRuleBinding binding = new RouteRuleBinding(RuleIndex.build(Arrays.asList(all, users, single)));
+        binding.bindAll(Arrays.asList("/api/user/{id}", "/health"));
+        assertEquals(2, binding.size());
+        assertEquals(Arrays.asList(all, users), binding.getRules("POST", "/api/user/{id}", "/api/user/2"));
+        assertEquals(Collections.singletonList(all), binding.getRules("GET", "/api/user/{id}", "/api/user/2"));
+        assertEquals(Arrays.asList(all, users, single), binding.getRules("POST", "/api/user/{id}", "/api/user/1"));
+        assertEquals(Arrays.asList(all, single), binding.getRules("GET", "/api/user/{id}", "/api/user/1"));
+        assertTrue(binding.getRules("GET", "/health", "/health").isEmpty());
+
+        // 路径维度的令牌桶按路由模板区分，不同路径变量共享一个令牌桶
+        PathRateLimitStrategy strategy = new PathRateLimitStrategy(true);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/user/1");
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/api/user/{id}");
+        assertEquals("/api/user/{id}", strategy.extractIdentifier(request));
+
+        // 启用后限流服务按路由模板取规则
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getHandlerBinding().setEnabled(true);
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        LocalRateLimitService service = createLocalService(configService, properties);
+        configService.saveRule(createLocalRule("route", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1));
+        service.bindRouteTemplates(Collections.singletonList("/api/user/{id}"));
+        assertTrue(service.isAllowed(request));
+        MockHttpServletRequest unmapped = new MockHttpServletRequest("GET", "/other");
+        unmapped.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/other");
+        for (int i = 0; i < 5; i++) {
+            assertTrue(service.isAllowed(unmapped));
+        }
+
+        // 只覆盖部分请求的规则仍然限制匹配的请求
+        RateLimitRule user1 = createLocalRule("user-1", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1);
+        user1.setPathPattern("/api/user/1");
+        configService.saveRule(user1);
+        configService.deleteRule("route");
+        service.bindRouteTemplates(Collections.singletonList("/api/user/{id}"));
+        assertTrue(service.isAllowed(request));
+        assertFalse(service.isAllowed(request));
+        MockHttpServletRequest other = new MockHttpServletRequest("GET", "/api/user/2");
+        other.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/api/user/{id}");
+        for (int i = 0; i < 5; i++) {
+            assertTrue(service.isAllowed(other));
+        }
+    }
+
+    @Test
+    public void testRateLimitAnnotation() {
+        // 测试@RateLimit方法注解：非Web调用只检查方法维度，超出限制时抛出RateLimitException
+        LocalRateLimitService service = createLocalService(new LocalRateLimitConfigService(), new RateLimitProperties());
+        AspectJProxyFactory factory = new AspectJProxyFactory(new AnnotatedService());
+        factory.addAspect(new RateLimitAspect(service));
+        Job proxy = factory.getProxy();
+
+        assertEquals("ok", proxy.limited());
+        assertEquals("ok", proxy.limited());
+        try {
+            proxy.limited();
+            fail("超出限制时应抛出RateLimitException");
+        } catch (RateLimitException e) {
+            assertEquals("slow down", e.getMessage());
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals("ok", proxy.unlimited());
+        }
+
+        // 只有IP维度的注解在非Web调用中不限流，在Web请求中按IP限流
+        RateLimitMethodDescriptor descriptor = RateLimitMethodDescriptor.of(
+                ReflectionUtils.findMethod(AnnotatedService.class, "perIp"),
+                ReflectionUtils.findMethod(AnnotatedService.class, "perIp").getAnnotation(RateLimit.class));
+        assertNull(descriptor.getMethodKey());
+        assertTrue(descriptor.getRule().isEnableIpLimit());
+        assertEquals("@per-ip", descriptor.getRule().getId());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(service.isAllowed(null, descriptor));
+        }
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/jobs");
+        assertTrue(service.isAllowed(request, descriptor));
+        assertFalse(service.isAllowed(request, descriptor));
+        request.setRemoteAddr("10.0.0.2");
+        assertTrue(service.isAllowed(request, descriptor));
+
+        // 默认限流标识包含参数类型，重载方法不共享令牌桶
+        Method noArgs = ReflectionUtils.findMethod(AnnotatedService.class, "overloaded");
+        Method withArgs = ReflectionUtils.findMethod(AnnotatedService.class, "overloaded", String.class, int[].class);
+        RateLimitMethodDescriptor first = RateLimitMethodDescriptor.of(noArgs, noArgs.getAnnotation(RateLimit.class));
+        RateLimitMethodDescriptor second = RateLimitMethodDescriptor.of(withArgs, withArgs.getAnnotation(RateLimit.class));
+        assertEquals("@" + AnnotatedService.class.getName() + "#overloaded()", first.getRule().getId());
+        assertEquals("@" + AnnotatedService.class.getName() + "#overloaded(String,int[])", second.getRule().getId());
+        assertTrue(service.isAllowed(null, first));
+        assertFalse(service.isAllowed(null, first));
+        assertTrue(service.isAllowed(null, second));
+    }
+
+    @Test
+    public void testRateLimitExceptionHandler() {
+        // 测试RateLimitException的默认处理：返回429，有等待时间时设置Retry-After
+        RateLimitExceptionHandler handler = new RateLimitExceptionHandler();
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/jobs");
+
+        ResponseEntity<Map<String, Object>> response =
+                handler.handleRateLimitException(new RateLimitException("slow down", 1500), request);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+        assertEquals("2", response.getHeaders().getFirst("Retry-After"));
+        assertEquals("slow down", response.getBody().get("message"));
+        assertEquals("/jobs", response.getBody().get("path"));
+        assertEquals(1500L, response.getBody().get("retryAfter"));
+
+        response = handler.handleRateLimitException(new RateLimitException("slow down"), request);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+        assertNull(response.getHeaders().getFirst("Retry-After"));
+        assertFalse(response.getBody().containsKey("retryAfter"));
+    }
+
+    public interface Job {
+        String limited();
+
+        String unlimited();
+    }
+
+    public static class AnnotatedService implements Job {
+
+        @Override
+        @RateLimit(capacity = 2, rate = 1, timeWindow = 1, timeUnit = TimeUnit.HOURS, message = "slow down")
+        public String limited() {
+            return "ok";
+        }
+
+        @Override
+        public String unlimited() {
+            return "ok";
+        }
+
+        @RateLimit(key = "per-ip", capacity = 1, rate = 1, timeUnit = TimeUnit.HOURS, dimensions = RateLimit.Dimension.IP)
+        public String perIp() {
+            return "ok";
+        }
+
+        @RateLimit(capacity = 1, rate = 1, timeUnit = TimeUnit.HOURS)
+        public String overloaded() {
+            return "ok";
+        }
+
+        @RateLimit(capacity = 1, rate = 1, timeUnit = TimeUnit.HOURS)
+        public String overloaded(String name, int[] values) {
+            return name;
+        }
+    }
+
+    @Test
+    public void testHeavyHitterSketch() {
+        // 测试高频值统计：内存固定，高频值一定被跟踪，计数上下界包含真实次数
+        HeavyHitterSketch sketch = new HeavyHitterSketch(20);
+        Map<String, Integer> actual = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            // 10个热点值占一半流量，其余是大量一次性的值
+            String item = i % 2 == 0 ? "hot-" + random.nextInt(10) : "cold-" + i;
+            actual.merge(item, 1, Integer::sum);
+            assertTrue(sketch.offer(item));
+        }
+
+        List<HeavyHitterSketch.Counter> counters = sketch.close();
+        assertEquals(20, counters.size());
+        assertEquals(100000, sketch.getTotal());
+        assertFalse(sketch.offer("late"));
+        for (int i = 0; i < 10; i++) {
+            HeavyHitterSketch.Counter counter = counters.get(i);
+            assertTrue(counter.getItem().startsWith("hot-"));
+            int count = actual.get(counter.getItem());
+            assertTrue(counter.getGuaranteedCount() <= count && count <= counter.getCount());
+        }
+        for (int i = 1; i < counters.size(); i++) {
+            assertTrue(counters.get(i - 1).getCount() >= counters.get(i).getCount());
+        }
+    }
+
+    @Test
+    public void testLiveStatsRing() throws Exception {
+        // 测试秒级实时统计：按秒累计，超出保留时间的槽位被复用，查询接口只返回本节点内存中的数据
+        LiveStatsRing ring = new LiveStatsRing(3);
+        long now = 1000000000000L;
+        ring.record("r1", true, 2000, now);
+        ring.record("r1", false, 6000, now + 500);
+        ring.record("r1", true, 1000, now + 1000);
+
+        LiveStatsRing.Series series = ring.getSeries("r1", 2, now + 1999);
+        assertEquals(now / 1000, series.getStartSecond());
+        assertArrayEquals(new long[]{1, 1}, series.getAllowed());
+        assertArrayEquals(new long[]{1, 0}, series.getBlocked());
+        assertArrayEquals(new long[]{4, 1}, series.getAvgLatencyMicros());
+        assertArrayEquals(new long[]{6, 1}, series.getMaxLatencyMicros());
+
+        // 3秒后第一个槽位被新的一秒复用
+        ring.record("r1", false, 3000, now + 3000);
+        series = ring.getSeries("r1", 10, now + 3000);
+        assertArrayEquals(new long[]{1, 0, 0}, series.getAllowed());
+        assertArrayEquals(new long[]{0, 0, 1}, series.getBlocked());
+        assertNull(ring.getSeries("r2", 3, now));
+
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getLiveStats().setEnabled(true);
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        LocalRateLimitService service = createLocalService(configService, properties);
+        configService.saveRule(createLocalRule("live", RateLimitAlgorithm.TOKEN_BUCKET, 2, 1));
+        for (int i = 0; i < 3; i++) {
+            service.isAllowed(new MockHttpServletRequest("GET", "/api/users"));
+        }
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ratelimit/live-stats");
+        request.setParameter("seconds", "5");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new LiveStatsHandler(service).handleRequest(request, response);
+        assertEquals(200, response.getStatus());
+        Map<?, ?> body = new ObjectMapper().readValue(response.getContentAsString(), Map.class);
+        Map<?, ?> live = (Map<?, ?>) ((Map<?, ?>) body.get("rules")).get("live");
+        long allowed = 0;
+        long blocked = 0;
+        for (Object value : (List<?>) live.get("allowed")) {
+            allowed += ((Number) value).longValue();
+        }
+        for (Object value : (List<?>) live.get("blocked")) {
+            blocked += ((Number) value).longValue();
+        }
+        assertEquals(2, allowed);
+        assertEquals(1, blocked);
+    }
+
+    @Test
+    public void testBufferedStatsRecorder() {
+        // 测试统计缓冲：按已写入的值计算增量，写入失败时增量保留，切换分钟时过去分钟的计数也被写入
+        InMemoryRedis redis = new InMemoryRedis();
+        RedisKeyGenerator keyGenerator = new RedisKeyGenerator("test");
+        BufferedStatsRecorder recorder = new BufferedStatsRecorder(redis.template(), keyGenerator, 3600000);
+        String statsKey = keyGenerator.generateStatsKey("r1");
+        long minute = 1700000000000L - 1700000000000L % 60000;
+        try {
+            recorder.record("r1", true, minute + 1000);
+            recorder.record("r1", true, minute + 2000);
+            recorder.record("r1", false, minute + 3000);
+            recorder.flush();
+            assertEquals(3, redis.hashLong(statsKey, "totalRequests"));
+            assertEquals(2, redis.hashLong(statsKey, "allowedRequests"));
+            assertEquals(1, redis.hashLong(statsKey, "blockedRequests"));
+            assertEquals(3, redis.hashLong(keyGenerator.generateRealtimeKey("r1", minute), "requests"));
+
+            // 没有新的计数时不写入
+            int increments = redis.count("hIncrBy");
+            recorder.flush();
+            assertEquals(increments, redis.count("hIncrBy"));
+
+            // 写入失败时增量保留到下一次写入，只写入一次
+            recorder.record("r1", true, minute + 4000);
+            redis.setDown(true);
+            recorder.flush();
+            redis.setDown(false);
+            recorder.flush();
+            recorder.flush();
+            assertEquals(4, redis.hashLong(statsKey, "totalRequests"));
+            assertEquals(3, redis.hashLong(statsKey, "allowedRequests"));
+
+            // 切换分钟时，过去分钟在切换前的计数写入该分钟的实时统计
+            recorder.record("r1", false, minute + 59000);
+            recorder.record("r1", true, minute + 61000);
+            // 时钟回拨的请求计入当前分钟
+            recorder.record("r1", true, minute + 30000);
+            recorder.flush();
+            assertEquals(5, redis.hashLong(keyGenerator.generateRealtimeKey("r1", minute), "requests"));
+            assertEquals(2, redis.hashLong(keyGenerator.generateRealtimeKey("r1", minute), "blocked"));
+            assertEquals(2, redis.hashLong(keyGenerator.generateRealtimeKey("r1", minute + 60000), "allowed"));
+            assertEquals(7, redis.hashLong(statsKey, "totalRequests"));
+
+            increments = redis.count("hIncrBy");
+            recorder.flush();
+            recorder.flush();
+            assertEquals(increments, redis.count("hIncrBy"));
+        } finally {
+            recorder.destroy();
+        }
+    }
+
+    @Test
+    public void testUniqueClientCounterConcurrentFlush() throws Exception {
+        // 测试写入线程取走待写入集合的同时有请求线程加入维度值：每个值都被写入
+        InMemoryRedis redis = new InMemoryRedis();
+        RedisKeyGenerator keyGenerator = new RedisKeyGenerator("test");
+        final UniqueClientCounter counter = new UniqueClientCounter(redis.template(), keyGenerator, 3600000);
+        final int threads = 8;
+        final int perThread = 5000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger(threads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        counter.record("r1", "ip", thread + "-" + i);
+                    }
+                    running.decrementAndGet();
+                    return null;
+                }
+            }));
+        }
+        Future<Integer> flusher = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                start.await();
+                // 单核机器上写入线程可能在本线程开始前全部完成，至少写入一次
+                int flushes = 0;
+                do {
+                    counter.flush();
+                    flushes++;
+                } while (running.get() > 0);
+                return flushes;
+            }
+        });
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertTrue(flusher.get(10, TimeUnit.SECONDS) > 0);
+        executor.shutdown();
+        counter.destroy();
+
+        // 分钟键按当前时间生成，记录期间可能跨分钟，合并所有分钟
+        String key = keyGenerator.generateUniqueClientKey("r1", "ip", 0);
+        String keyPrefix = key.substring(0, key.length() - 1);
+        assertEquals(threads * perThread, redis.setMembers(keyPrefix).size());
+
+        // 写入期间加入的值进入新的集合，由下一次写入写入
+        final UniqueClientCounter next = new UniqueClientCounter(redis.template(), keyGenerator, 3600000);
+        try {
+            next.record("r1", "ip", "before");
+            redis.onPfAdd(new Runnable() {
+                @Override
+                public void run() {
+                    next.record("r1", "ip", "during");
+                }
+            });
+            next.flush();
+            assertTrue(redis.setMembers(keyPrefix).contains("before"));
+            assertFalse(redis.setMembers(keyPrefix).contains("during"));
+            next.flush();
+            assertTrue(redis.setMembers(keyPrefix).contains("during"));
+        } finally {
+            next.destroy();
+        }
+    }
+
+    @Test
+    public void testStatsScriptMatchesSyncWrites() {
+        // 测试SCRIPT写入方式与SYNC写入方式写入相同的键、Hash字段和维度ZSET成员
+        RedisKeyGenerator keyGenerator = new RedisKeyGenerator("test");
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        RateLimitRule rule = createLocalRule("r1", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1);
+        rule.setEnableIpLimit(true);
+        rule.setEnableUserLimit(true);
+        configService.saveRule(rule);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/orders");
+        request.setRemoteAddr("10.0.0.1");
+        request.addHeader("X-User-Id", "u1");
+
+        InMemoryRedis redis = new InMemoryRedis();
+        RedisRateLimitStatsService sync = new RedisRateLimitStatsService(redis.template(), configService,
+                new IpRateLimitStrategy(), new UserRateLimitStrategy(), keyGenerator, new RateLimitProperties());
+        sync.recordRequest(request, "r1", true);
+        sync.recordRequest(request, "r1", false);
+
+        final List<RedisScript<?>> scripts = new ArrayList<>();
+        final List<List<String>> keys = new ArrayList<>();
+        final List<Object[]> args = new ArrayList<>();
+        RedisTemplate<String, Object> template = new RedisTemplate<String, Object>() {
+            @Override
+            public <T> T execute(RedisScript<T> script, RedisSerializer<?> argsSerializer, RedisSerializer<T> resultSerializer,
+                                 List<String> scriptKeys, Object... scriptArgs) {
+                scripts.add(script);
+                keys.add(scriptKeys);
+                args.add(scriptArgs);
+                return null;
+            }
+        };
+        template.setValueSerializer(new GenericJackson2JsonRedisSerializer());
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getStats().setWriteMode(RateLimitProperties.StatsWriteMode.SCRIPT);
+        RedisRateLimitStatsService script = new RedisRateLimitStatsService(template, configService,
+                new IpRateLimitStrategy(), new UserRateLimitStrategy(), keyGenerator, properties);
+        script.recordRequest(request, "r1", true);
+
+        // 分钟实时统计键按当前分钟生成，两次写入可能跨分钟，不比较分钟部分
+        String realtimeKey = keyGenerator.generateRealtimeKey("r1", 0);
+        String realtimePrefix = realtimeKey.substring(0, realtimeKey.length() - 1);
+        String syncRealtimeKey = null;
+        for (String key : redis.keys()) {
+            if (key.startsWith(realtimePrefix)) {
+                syncRealtimeKey = key;
+            }
+        }
+        List<String> scriptKeys = keys.get(0);
+        assertEquals(withoutMinute(redis.keys(), realtimePrefix), withoutMinute(scriptKeys, realtimePrefix));
+
+        // KEYS: 规则统计Hash, 实时统计Hash, 然后每个维度一个明细Hash和一个维度列表ZSET
+        String scriptText = scripts.get(0).getScriptAsString();
+        Object[] scriptArgs = args.get(0);
+        for (int i = 0; i < scriptKeys.size(); i++) {
+            String key = i == 1 ? syncRealtimeKey : scriptKeys.get(i);
+            if (i < 2 || i % 2 == 0) {
+                // 脚本写入的字段与SYNC写入的字段相同
+                assertNotNull(key, redis.hashFields(key));
+                for (String field : redis.hashFields(key)) {
+                    assertTrue(field, scriptText.contains("'" + field + "'"));
+                }
+            } else {
+                // 维度值按模板的值序列化方式编码，与SYNC写入的ZSET成员一致
+                String member = new String((byte[]) scriptArgs[4 + (i - 3) / 2], StandardCharsets.UTF_8);
+                assertEquals(key, Collections.singleton(member), redis.zsetMembers(key));
+            }
+        }
+        assertEquals(6, scriptKeys.size());
+    }
+
+    @Test
+    public void testRuleChangeNotification() {
+        // 测试规则变更通知：版本连续时只加载变更的规则，版本不连续时重新加载全部规则
+        InMemoryRedis redis = new InMemoryRedis();
+        RedisKeyGenerator keyGenerator = new RedisKeyGenerator("test");
+        RedisRateLimitConfigService writer = new RedisRateLimitConfigService(redis.template(), keyGenerator, 3600000);
+        RedisRateLimitConfigService reader = new RedisRateLimitConfigService(redis.template(), keyGenerator, 3600000);
+        try {
+            writer.saveRule(createLocalRule("r1", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1));
+            assertEquals(Collections.singleton("r1"), ruleIds(reader.getEnabledRules()));
+            int fullLoads = redis.count("hGetAll");
+
+            writer.saveRule(createLocalRule("r2", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1));
+            reader.onMessage(redis.lastMessage(), null);
+            assertEquals(new HashSet<>(Arrays.asList("r1", "r2")), ruleIds(reader.getEnabledRules()));
+            assertEquals(fullLoads, redis.count("hGetAll"));
+
+            // 漏掉版本3的通知
+            writer.saveRule(createLocalRule("r3", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1));
+            writer.deleteRule("r1");
+            reader.onMessage(redis.lastMessage(), null);
+            assertEquals(new HashSet<>(Arrays.asList("r2", "r3")), ruleIds(reader.getEnabledRules()));
+            assertEquals(fullLoads + 1, redis.count("hGetAll"));
+
+            // 已经包含的变更不再重复加载
+            List<RateLimitRule> snapshot = reader.getRuleSnapshot();
+            reader.onMessage(new DefaultMessage(new byte[0], "3:r3".getBytes(StandardCharsets.UTF_8)), null);
+            assertSame(snapshot, reader.getRuleSnapshot());
+        } finally {
+            writer.destroy();
+            reader.destroy();
+        }
+    }
+
+    @Test
+    public void testEnabledRulesSnapshot() {
+        // 测试启用规则快照：请求路径上读取快照不访问Redis，快照不可修改，规则变更后替换为新的快照
+        InMemoryRedis redis = new InMemoryRedis();
+        RedisRateLimitConfigService service = new RedisRateLimitConfigService(redis.template(), new RedisKeyGenerator("test"), 3600000);
+        try {
+            service.saveRule(createLocalRule("r1", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1));
+            RateLimitRule disabled = createLocalRule("r2", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1);
+            disabled.setEnabled(false);
+            service.saveRule(disabled);
+
+            List<RateLimitRule> snapshot = service.getEnabledRules();
+            assertEquals(Collections.singleton("r1"), ruleIds(snapshot));
+            int commands = redis.totalCount();
+            for (int i = 0; i < 100; i++) {
+                assertSame(snapshot, service.getEnabledRules());
+            }
+            assertEquals(commands, redis.totalCount());
+            try {
+                snapshot.add(disabled);
+                fail("规则快照不可修改");
+            } catch (UnsupportedOperationException expected) {
+                // 快照不可修改
+            }
+
+            service.toggleRule("r2", true);
+            assertEquals(Collections.singleton("r1"), ruleIds(snapshot));
+            assertEquals(new HashSet<>(Arrays.asList("r1", "r2")), ruleIds(service.getEnabledRules()));
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    public void testInitialLoadRetry() throws Exception {
+        // 测试首次加载失败：先使用空快照，后台按退避间隔重试，不等待定时刷新
+        InMemoryRedis redis = new InMemoryRedis();
+        RedisKeyGenerator keyGenerator = new RedisKeyGenerator("test");
+        RedisRateLimitConfigService writer = new RedisRateLimitConfigService(redis.template(), keyGenerator, 3600000);
+        RedisRateLimitConfigService reader = new RedisRateLimitConfigService(redis.template(), keyGenerator, 3600000);
+        try {
+            writer.saveRule(createLocalRule("r1", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1));
+
+            redis.setDown(true);
+            assertTrue(reader.getEnabledRules().isEmpty());
+            redis.setDown(false);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reader.getEnabledRules().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(Collections.singleton("r1"), ruleIds(reader.getEnabledRules()));
+        } finally {
+            writer.destroy();
+            reader.destroy();
+        }
+    }
+
+    @Test
+    public void testLegacyRuleMigration() throws Exception {
+        // 测试旧存储格式兼容：只有规则ID集合和按规则分键的数据时迁移到规则集合
+        InMemoryRedis redis = new InMemoryRedis();
+        RedisTemplate<String, Object> template = redis.template();
+        RedisKeyGenerator keyGenerator = new RedisKeyGenerator("test");
+        saveLegacyRule(template, keyGenerator, createLocalRule("legacy-1", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1));
+
+        RedisRateLimitConfigService service = new RedisRateLimitConfigService(template, keyGenerator, 20, null, true);
+        RedisRateLimitConfigService upgraded = null;
+        try {
+            assertEquals(Collections.singleton("legacy-1"), ruleIds(service.getEnabledRules()));
+            assertEquals(Collections.singleton("legacy-1"),
+                    template.opsForHash().keys(keyGenerator.generateKey(RedisKeyGenerator.RULE_SET_KEY)));
+
+            // 迁移之后旧版本节点新增、删除的规则在后台刷新时同步到规则集合
+            saveLegacyRule(template, keyGenerator, createLocalRule("legacy-2", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1));
+            template.delete(keyGenerator.generateRuleConfigKey("legacy-1"));
+            template.opsForSet().remove(keyGenerator.generateKey(RedisKeyGenerator.RULE_LIST_KEY), "legacy-1");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!ruleIds(service.getEnabledRules()).equals(Collections.singleton("legacy-2"))
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Collections.singleton("legacy-2"), ruleIds(service.getEnabledRules()));
+            assertEquals(Collections.singleton("legacy-2"),
+                    template.opsForHash().keys(keyGenerator.generateKey(RedisKeyGenerator.RULE_SET_KEY)));
+
+            // 一致时只读取版本号和规则ID集合
+            int fullLoads = redis.count("hGetAll");
+            Thread.sleep(100);
+            assertEquals(fullLoads, redis.count("hGetAll"));
+
+            // 未开启旧版本规则同步时，版本没有变化只读取版本号
+            service.destroy();
+            upgraded = new RedisRateLimitConfigService(template, keyGenerator, 20);
+            assertEquals(Collections.singleton("legacy-2"), ruleIds(upgraded.getEnabledRules()));
+            int legacyReads = redis.count("sMembers");
+            Thread.sleep(100);
+            assertEquals(legacyReads, redis.count("sMembers"));
+        } finally {
+            service.destroy();
+            if (upgraded != null) {
+                upgraded.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void testRuleSnapshotFile() throws Exception {
+        // 测试本地规则快照：规则加载后写入文件，Redis不可用时新实例从文件恢复规则
+        File file = File.createTempFile("rate-limit-rules", ".json");
+        assertTrue(file.delete());
+        InMemoryRedis redis = new InMemoryRedis();
+        RedisKeyGenerator keyGenerator = new RedisKeyGenerator("test");
+        RateLimitRule rule = createLocalRule("snapshot", RateLimitAlgorithm.GCRA, 20, 5);
+        rule.setPriority(3);
+        rule.setEnableIpLimit(true);
+
+        RedisRateLimitConfigService writer = new RedisRateLimitConfigService(redis.template(), keyGenerator, 3600000,
+                file.getPath());
+        RedisRateLimitConfigService restored = null;
+        try {
+            writer.saveRule(rule);
+            assertEquals(1, writer.getEnabledRules().size());
+            assertTrue(file.isFile());
+
+            redis.setDown(true);
+            restored = new RedisRateLimitConfigService(redis.template(), keyGenerator, 3600000, file.getPath());
+            List<RateLimitRule> rules = restored.getEnabledRules();
+            assertEquals(1, rules.size());
+            RateLimitRule loaded = rules.get(0);
+            assertEquals("snapshot", loaded.getId());
+            assertEquals(RateLimitAlgorithm.GCRA, loaded.getAlgorithm());
+            assertEquals(20, loaded.getBucketCapacity());
+            assertEquals(5, loaded.getRefillRate());
+            assertEquals(3, loaded.getPriority());
+            assertTrue(loaded.isEnableIpLimit());
+            assertTrue(loaded.getCompiledPathPattern().matches("/api/users"));
+        } finally {
+            writer.destroy();
+            if (restored != null) {
+                restored.destroy();
+            }
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void testRefreshIntervalDefault() {
+        // 测试规则刷新间隔默认值：订阅变更通知时只用于兜底，不订阅时缩短
+        RateLimitProperties.RulesConfig rules = new RateLimitProperties().getRules();
+        assertEquals(300000, rules.getRefreshIntervalMillis());
+        rules.setPubsubEnabled(false);
+        assertEquals(10000, rules.getRefreshIntervalMillis());
+        rules.setRefreshIntervalMillis(2000L);
+        assertEquals(2000, rules.getRefreshIntervalMillis());
+    }
+
     @Test
     public void testRateLimitRule() {
         // 测试限流规则模型
@@ -73,4 +884,991 @@ public class RateLimitStarterTest {
         assertEquals("192.168.1.100", request.getRemoteAddr());
         assertEquals("10.0.0.1", request.getHeader("X-Forwarded-For"));
     }
+
+    @Test
+    public void testLocalTokenBucket() {
+        // 测试本地令牌桶：容量内放行，超出后拒绝并给出重试时间
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        LocalRateLimitService service = createLocalService(configService, new RateLimitProperties());
+        configService.saveRule(createLocalRule("local-bucket", RateLimitAlgorithm.TOKEN_BUCKET, 3, 1));
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users");
+        assertTrue(service.isAllowed(request));
+        assertTrue(service.isAllowed(request));
+        assertTrue(service.isAllowed(request));
+        assertFalse(service.isAllowed(request));
+
+        Long retryAfter = (Long) request.getAttribute(RateLimitService.RETRY_AFTER_ATTRIBUTE);
+        assertNotNull(retryAfter);
+        assertTrue(retryAfter > 0 && retryAfter <= 1000);
+    }
+
+    @Test
+    public void testLocalGcraAndWindowAlgorithms() throws Exception {
+        // 测试GCRA：容量决定可突发的请求数，拒绝时重试时间不超过一个令牌间隔
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        LocalRateLimitService service = createLocalService(configService, new RateLimitProperties());
+        RateLimitRule gcra = createLocalRule("local-gcra", RateLimitAlgorithm.GCRA, 2, 1);
+        configService.saveRule(gcra);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users");
+        assertEquals(2, service.getRemainingTokens(request, gcra));
+        assertTrue(service.isAllowed(request));
+        assertTrue(service.isAllowed(request));
+        assertFalse(service.isAllowed(request));
+        Long retryAfter = (Long) request.getAttribute(RateLimitService.RETRY_AFTER_ATTRIBUTE);
+        assertTrue(retryAfter > 0 && retryAfter <= 1000);
+
+        // 测试窗口算法：窗口内限额 = 补充速率 × 窗口时长，与容量无关
+        for (RateLimitAlgorithm algorithm : Arrays.asList(RateLimitAlgorithm.FIXED_WINDOW, RateLimitAlgorithm.SLIDING_WINDOW)) {
+            configService = new LocalRateLimitConfigService();
+            service = createLocalService(configService, new RateLimitProperties());
+            RateLimitRule window = createLocalRule("local-" + algorithm, algorithm, 100, 20);
+            window.setTimeWindow(100);
+            window.setTimeWindowUnit(TimeUnit.MILLISECONDS);
+            configService.saveRule(window);
+
+            // 本地窗口按System.nanoTime()划分，从窗口开始处发送请求，三次检查不会跨越窗口边界
+            Thread.sleep(100 - System.nanoTime() / 1000000 % 100);
+            request = new MockHttpServletRequest("GET", "/api/users");
+            assertTrue(service.isAllowed(request));
+            assertTrue(service.isAllowed(request));
+            assertFalse(algorithm.name(), service.isAllowed(request));
+            retryAfter = (Long) request.getAttribute(RateLimitService.RETRY_AFTER_ATTRIBUTE);
+            assertTrue(retryAfter > 0 && retryAfter <= 100);
+
+            // 两个窗口之后上一个窗口的计数不再参与计算，限额完全恢复
+            Thread.sleep(220);
+            assertEquals(2, service.getRemainingTokens(request, window));
+            assertTrue(service.isAllowed(request));
+        }
+    }
+
+    @Test
+    public void testLocalMultiDimensionAllOrNothing() {
+        // 测试本地多维度检查：IP维度被拒绝时不扣减路径维度的令牌
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        LocalRateLimitService service = createLocalService(configService, new RateLimitProperties());
+        RateLimitRule rule = createLocalRule("local-ip", RateLimitAlgorithm.TOKEN_BUCKET, 5, 5);
+        rule.setEnableIpLimit(true);
+        rule.setIpRequestLimit(1);
+        rule.setIpAlgorithm(RateLimitAlgorithm.SLIDING_WINDOW);
+        configService.saveRule(rule);
+
+        MockHttpServletRequest first = new MockHttpServletRequest("GET", "/api/users");
+        first.setRemoteAddr("10.0.0.1");
+        assertTrue(service.isAllowed(first));
+        assertFalse(service.isAllowed(first));
+        assertFalse(service.isAllowed(first));
+
+        // 路径维度只被成功的请求消耗了一次
+        assertEquals(4, service.getRemainingTokens(first, rule));
+    }
+
+    @Test
+    public void testLocalBucketTableBounded() {
+        // 测试本地令牌桶表容量上限
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getLocal().setMaxEntries(100);
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        LocalRateLimitService service = createLocalService(configService, properties);
+        RateLimitRule rule = createLocalRule("local-bounded", RateLimitAlgorithm.GCRA, 10, 1);
+        rule.setEnableIpLimit(true);
+        configService.saveRule(rule);
+
+        for (int i = 0; i < 1000; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users/" + i);
+            request.setRemoteAddr("10.0." + (i / 256) + "." + (i % 256));
+            service.isAllowed(request);
+        }
+        assertTrue(service.getBucketCount() <= 100);
+    }
+
+    @Test
+    public void testRedisMultiBucketRoundTrip() {
+        // 测试所有命中规则和维度的令牌桶在一次脚本调用中检查，拒绝时按最长的重试时间设置请求属性
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        RateLimitRule perIp = createLocalRule("per-ip", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1);
+        perIp.setEnableIpLimit(true);
+        configService.saveRule(perIp);
+        configService.saveRule(createLocalRule("path", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1));
+        ScriptRecordingTemplate template = new ScriptRecordingTemplate();
+        RedisRateLimitService service = createRedisService(template, configService, new RateLimitProperties());
+        try {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/orders");
+            assertTrue(service.isAllowed(request));
+            assertEquals(1, template.calls.size());
+            // 3个令牌桶：per-ip规则的路径和IP维度、path规则的路径维度，每个令牌桶3个键、4个参数
+            assertEquals(9, template.calls.get(0).keys.size());
+            assertEquals(13, template.calls.get(0).args.length);
+
+            template.response = Arrays.<Object>asList(0L, 0L, 0L, 1500L, 1L, 9L, 0L, 0L, 0L, 700L);
+            request = new MockHttpServletRequest("GET", "/api/orders");
+            assertFalse(service.isAllowed(request));
+            assertEquals(2, template.calls.size());
+            assertEquals(1500L, request.getAttribute(RateLimitService.RETRY_AFTER_ATTRIBUTE));
+
+            // 没有命中规则的请求不访问Redis
+            assertTrue(service.isAllowed(new MockHttpServletRequest("GET", "/static/app.js")));
+            assertEquals(2, template.calls.size());
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    public void testRedisGcraAlgorithmCode() {
+        // 测试GCRA按规则选择：GCRA规则在脚本中使用GCRA编码，不受令牌桶引擎配置影响
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        configService.saveRule(createLocalRule("bucket", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1));
+        configService.saveRule(createLocalRule("gcra", RateLimitAlgorithm.GCRA, 10, 1));
+
+        for (RateLimitProperties.BucketEngine engine : RateLimitProperties.BucketEngine.values()) {
+            RateLimitProperties properties = new RateLimitProperties();
+            properties.setBucketEngine(engine);
+            ScriptRecordingTemplate template = new ScriptRecordingTemplate();
+            RedisRateLimitService service = createRedisService(template, configService, properties);
+            try {
+                assertTrue(service.isAllowed(new MockHttpServletRequest("GET", "/api/orders")));
+                Object[] args = template.calls.get(0).args;
+                Set<Object> codes = new HashSet<>();
+                for (int i = 1; i < args.length; i += 4) {
+                    codes.add(args[i]);
+                }
+                int bucketCode = engine == RateLimitProperties.BucketEngine.PRECISE ? 1 : 0;
+                assertEquals(engine.name(), new HashSet<Object>(Arrays.asList(bucketCode, 2)), codes);
+            } finally {
+                service.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void testRedisMillisecondWindow() {
+        // 测试毫秒级时间窗口：脚本收到换算后的窗口毫秒数，PRECISE引擎使用精确令牌桶编码
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        RateLimitRule rule = createLocalRule("millis", RateLimitAlgorithm.TOKEN_BUCKET, 10, 5);
+        rule.setTimeWindow(250);
+        rule.setTimeWindowUnit(TimeUnit.MILLISECONDS);
+        configService.saveRule(rule);
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setBucketEngine(RateLimitProperties.BucketEngine.PRECISE);
+        ScriptRecordingTemplate template = new ScriptRecordingTemplate();
+        RedisRateLimitService service = createRedisService(template, configService, properties);
+        try {
+            assertTrue(service.isAllowed(new MockHttpServletRequest("GET", "/api/orders")));
+            Object[] args = template.calls.get(0).args;
+            assertEquals(5, args.length);
+            assertEquals(1, args[1]);
+            assertEquals(10, args[2]);
+            assertEquals(5, args[3]);
+            assertEquals(250L, args[4]);
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    public void testRuleTimeWindowMillis() {
+        // 测试时间窗口按单位换算为毫秒，未设置单位时按秒
+        RateLimitRule rule = new RateLimitRule();
+        rule.setTimeWindow(250);
+        rule.setTimeWindowUnit(TimeUnit.MILLISECONDS);
+        assertEquals(250, rule.getTimeWindowMillis());
+        rule.setTimeWindow(3);
+        rule.setTimeWindowUnit(TimeUnit.SECONDS);
+        assertEquals(3000, rule.getTimeWindowMillis());
+        rule.setTimeWindowUnit(TimeUnit.MINUTES);
+        assertEquals(180000, rule.getTimeWindowMillis());
+        rule.setTimeWindowUnit(null);
+        assertEquals(3000, rule.getTimeWindowMillis());
+    }
+
+    @Test
+    public void testHybridPrefilter() {
+        // 测试本地预过滤：按节点份额在本地检查，本地拒绝的请求不访问Redis
+        LocalRateLimitConfigService configService = new LocalRateLimitConfigService();
+        RateLimitRule rule = createLocalRule("hybrid", RateLimitAlgorithm.TOKEN_BUCKET, 4, 1);
+        rule.setTimeWindow(3600);
+        configService.saveRule(rule);
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getHybrid().setEnabled(true);
+        properties.getHybrid().setNodeCount(2);
+        properties.getHybrid().setSlack(1.0);
+        ScriptRecordingTemplate template = new ScriptRecordingTemplate();
+        RedisRateLimitService service = createRedisService(template, configService, properties);
+        try {
+            // 本节点份额 = 容量4 / 2个节点 = 2
+            int allowed = 0;
+            for (int i = 0; i < 5; i++) {
+                if (service.isAllowed(new MockHttpServletRequest("GET", "/api/orders"))) {
+                    allowed++;
+                }
+            }
+            assertEquals(2, allowed);
+            assertEquals(2, template.calls.size());
+
+            // Redis拒绝时以Redis的结果为准
+            configService.saveRule(createLocalRule("hybrid-other", RateLimitAlgorithm.TOKEN_BUCKET, 4, 1));
+            configService.deleteRule("hybrid");
+            template.response = Arrays.<Object>asList(0L, 0L, 0L, 500L);
+            assertFalse(service.isAllowed(new MockHttpServletRequest("GET", "/api/orders")));
+            assertEquals(3, template.calls.size());
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    public void testTokenLeaseManager() throws Exception {
+        // 模拟Redis令牌桶：先收回归还的令牌，再按请求数量发放，没有令牌时返回重试时间
+        final List<Object[]> calls = new ArrayList<>();
+        final long[] tokens = {6};
+        RedisTemplate<String, Object> template = new RedisTemplate<String, Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                calls.add(args);
+                tokens[0] += ((Number) args[5]).longValue();
+                long granted = Math.min(tokens[0], ((Number) args[6]).longValue());
+                tokens[0] -= granted;
+                return (T) Arrays.<Object>asList(granted, granted > 0 ? 0L : 500L);
+            }
+        };
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.getLease().setMinSize(5);
+        properties.getLease().setMaxErrorRatio(0.2);
+        TokenLeaseManager manager = new TokenLeaseManager(template, properties);
+
+        // 租约大小受 容量 × 最大误差比例 = 4 限制，租约内的令牌在本地分发
+        TokenLeaseManager.Lease lease = null;
+        for (int i = 0; i < 4; i++) {
+            lease = manager.tryAcquire(createLeaseBucket("lease"), 0);
+            assertNotNull(lease);
+        }
+        assertEquals(1, calls.size());
+        assertEquals(4L, ((Number) calls.get(0)[6]).longValue());
+        manager.release(lease);
+        assertNotNull(manager.tryAcquire(createLeaseBucket("lease"), 0));
+        assertEquals(1, calls.size());
+
+        // Redis只剩2个令牌，用完后被拒绝并缓存拒绝结果，重试时间内不再访问Redis
+        assertNotNull(manager.tryAcquire(createLeaseBucket("lease"), 0));
+        assertNotNull(manager.tryAcquire(createLeaseBucket("lease"), 0));
+        assertEquals(2, calls.size());
+        RateLimitBucket denied = createLeaseBucket("lease");
+        assertNull(manager.tryAcquire(denied, 0));
+        assertEquals(500, denied.getRetryAfterMillis());
+        denied = createLeaseBucket("lease");
+        assertNull(manager.tryAcquire(denied, 0));
+        assertTrue(denied.getRetryAfterMillis() > 0 && denied.getRetryAfterMillis() <= 500);
+        assertEquals(3, calls.size());
+
+        // 只清理被重置的令牌桶
+        manager.clear("other");
+        assertNull(manager.tryAcquire(createLeaseBucket("lease"), 0));
+        assertEquals(3, calls.size());
+        manager.clear("lease");
+        tokens[0] = 10;
+        assertNotNull(manager.tryAcquire(createLeaseBucket("lease"), 0));
+        assertEquals(4, calls.size());
+
+        // 租约过期后续租时归还未使用的令牌
+        properties.getLease().setDurationMillis(50);
+        manager.clear("lease");
+        assertNotNull(manager.tryAcquire(createLeaseBucket("lease"), 0));
+        Thread.sleep(60);
+        assertNotNull(manager.tryAcquire(createLeaseBucket("lease"), 0));
+        assertEquals(6, calls.size());
+        assertEquals(3L, ((Number) calls.get(5)[5]).longValue());
+    }
+
+    @Test
+    public void testBucketRequestCoalescer() throws Exception {
+        // 模拟Redis令牌桶：第一次调用阻塞，期间到达的线程合并为下一批次
+        final List<Object[]> calls = Collections.synchronizedList(new ArrayList<Object[]>());
+        final CountDownLatch firstCall = new CountDownLatch(1);
+        final long[] tokens = {5};
+        RedisTemplate<String, Object> template = new RedisTemplate<String, Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                calls.add(args);
+                try {
+                    firstCall.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                long granted = Math.min(tokens[0], ((Number) args[5]).longValue());
+                tokens[0] -= granted;
+                return (T) Arrays.<Object>asList(granted, tokens[0], granted < ((Number) args[5]).longValue() ? 200L : 0L);
+            }
+        };
+        final BucketRequestCoalescer coalescer = new BucketRequestCoalescer(template);
+
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        List<Future<RateLimitBucket>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(executor.submit(new Callable<RateLimitBucket>() {
+                @Override
+                public RateLimitBucket call() {
+                    RateLimitBucket bucket = createLeaseBucket("coalesce");
+                    coalescer.tryAcquire(bucket, 0);
+                    return bucket;
+                }
+            }));
+        }
+        Thread.sleep(200);
+        firstCall.countDown();
+
+        int allowed = 0;
+        for (Future<RateLimitBucket> future : futures) {
+            RateLimitBucket bucket = future.get(5, TimeUnit.SECONDS);
+            if (bucket.isAllowed()) {
+                allowed++;
+            } else {
+                assertEquals(200, bucket.getRetryAfterMillis());
+            }
+        }
+        executor.shutdown();
+
+        // 第一次调用阻塞期间到达的线程全部合并为一次调用（发起者关闭批次前到达的线程也可能加入第一批）
+        assertEquals(5, allowed);
+        assertEquals(2, calls.size());
+        assertEquals(10L, ((Number) calls.get(0)[5]).longValue() + ((Number) calls.get(1)[5]).longValue());
+    }
+
+    @Test
+    public void testPipelinedScriptExecutor() throws Exception {
+        // 模拟Redis连接：记录管道中的EVALSHA，按调用顺序返回结果，noscript键返回NOSCRIPT错误
+        final List<String> pipelined = Collections.synchronizedList(new ArrayList<String>());
+        final RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RedisConnection.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("evalSha".equals(method.getName())) {
+                            pipelined.add(new String(((byte[][]) args[3])[0], StandardCharsets.UTF_8));
+                        } else if ("closePipeline".equals(method.getName())) {
+                            List<Object> results = new ArrayList<>();
+                            for (String key : pipelined) {
+                                results.add("noscript".equals(key)
+                                        ? new IllegalStateException("NOSCRIPT No matching script") : "pipelined:" + key);
+                            }
+                            return results;
+                        }
+                        return null;
+                    }
+                });
+        final AtomicInteger direct = new AtomicInteger();
+        RedisTemplate<String, Object> template = new RedisTemplate<String, Object>() {
+            @Override
+            public <T> T execute(RedisCallback<T> action, boolean exposeConnection, boolean pipeline) {
+                return action.doInRedis(connection);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+                direct.incrementAndGet();
+                return (T) ("direct:" + keys.get(0));
+            }
+        };
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new GenericToStringSerializer<>(Object.class));
+
+        RateLimitProperties.PipelineConfig config = new RateLimitProperties.PipelineConfig();
+        config.setWindowMicros(200000);
+        final PipelinedScriptExecutor executor = new PipelinedScriptExecutor(template, config);
+        final DefaultRedisScript<String> script = new DefaultRedisScript<>();
+        script.setScriptText("return KEYS[1]");
+        script.setResultType(String.class);
+
+        // 时间窗口内提交的调用合并到一个管道，结果按提交的调用返回，NOSCRIPT的调用重新直接执行
+        List<String> keys = Arrays.asList("a", "b", "c", "noscript");
+        ExecutorService threads = Executors.newFixedThreadPool(keys.size());
+        Map<String, Future<String>> results = new HashMap<>();
+        for (final String key : keys) {
+            results.put(key, threads.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return executor.execute(script, Collections.singletonList(key), 1);
+                }
+            }));
+        }
+        for (String key : Arrays.asList("a", "b", "c")) {
+            assertEquals("pipelined:" + key, results.get(key).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals("direct:noscript", results.get("noscript").get(5, TimeUnit.SECONDS));
+        assertEquals(4, pipelined.size());
+        assertEquals(1, direct.get());
+
+        // 关闭后直接执行
+        executor.shutdown();
+        assertEquals("direct:d", executor.execute(script, Collections.singletonList("d"), 1));
+        threads.shutdown();
+    }
+
+    @Test
+    public void testLocalBucketTableKeepsBlockedBuckets() {
+        // 测试令牌桶表淘汰：正在限流的令牌桶不会被淘汰后重新创建为满桶
+        LocalBucketTable table = new LocalBucketTable(10, 1);
+        RateLimitBucket blocked = new RateLimitBucket("blocked", "r1", "ip", RateLimitAlgorithm.GCRA, 1, 1, 1000);
+        assertTrue(table.tryAcquire(Collections.singletonList(blocked)));
+
+        for (int i = 0; i < 1000; i++) {
+            table.tryAcquire(Collections.singletonList(
+                    new RateLimitBucket("ip-" + i, "r1", "ip", RateLimitAlgorithm.GCRA, 10, 1, 1000)));
+            assertTrue(table.size() <= 11);
+        }
+
+        RateLimitBucket repeat = new RateLimitBucket("blocked", "r1", "ip", RateLimitAlgorithm.GCRA, 1, 1, 1000);
+        assertFalse(table.tryAcquire(Collections.singletonList(repeat)));
+        assertTrue(repeat.getRetryAfterMillis() > 0);
+    }
+
+    @Test
+    public void testLocalTokenBucketWithoutRefill() throws InterruptedException {
+        // 测试补充速率为0的本地令牌桶：与Redis脚本一致不随时间窗口补充，两个窗口无取走后恢复满桶
+        LocalBucketTable table = new LocalBucketTable(10, 1);
+        LocalBucketTable shared = new LocalBucketTable(10, 0.5);
+        assertTrue(table.tryAcquire(Collections.singletonList(createFixedBucket(2))));
+        assertTrue(table.tryAcquire(Collections.singletonList(createFixedBucket(2))));
+        assertTrue(shared.tryAcquire(Collections.singletonList(createFixedBucket(2))));
+        long lastGrant = System.nanoTime();
+
+        RateLimitBucket denied = createFixedBucket(2);
+        assertFalse(table.tryAcquire(Collections.singletonList(denied)));
+        assertTrue(denied.getRetryAfterMillis() > 0);
+        assertFalse(shared.tryAcquire(Collections.singletonList(createFixedBucket(2))));
+
+        Thread.sleep(300);
+        assertFalse(table.tryAcquire(Collections.singletonList(createFixedBucket(2))));
+        assertFalse(shared.tryAcquire(Collections.singletonList(createFixedBucket(2))));
+
+        Thread.sleep(Math.max(0, 450 - (System.nanoTime() - lastGrant) / 1000000));
+        assertTrue(table.tryAcquire(Collections.singletonList(createFixedBucket(2))));
+    }
+
+    private RateLimitBucket createFixedBucket(int capacity) {
+        return new RateLimitBucket("fixed", "r1", "ip", RateLimitAlgorithm.TOKEN_BUCKET, capacity, 0, 200);
+    }
+
+    @Test
+    public void testBlockedKeyCache() {
+        // 测试被限流令牌桶缓存：重试时间内直接拒绝，容量已满时不再缓存新的令牌桶
+        BlockedKeyCache cache = new BlockedKeyCache(1);
+        RateLimitBucket blocked = new RateLimitBucket("blocked", "r1", "ip", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1, 1000);
+        blocked.setAllowed(false);
+        blocked.setRetryAfterMillis(1000);
+        cache.recordBlocked(Collections.singletonList(blocked));
+
+        RateLimitBucket other = new RateLimitBucket("other", "r1", "ip", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1, 1000);
+        other.setAllowed(false);
+        other.setRetryAfterMillis(1000);
+        cache.recordBlocked(Collections.singletonList(other));
+        assertEquals(1, cache.size());
+
+        RateLimitBucket path = new RateLimitBucket("path", "r1", "path", RateLimitAlgorithm.TOKEN_BUCKET, 10, 10, 1000);
+        RateLimitBucket repeat = new RateLimitBucket("blocked", "r1", "ip", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1, 1000);
+        assertTrue(cache.rejectBlocked(Arrays.asList(path, repeat)));
+        assertTrue(path.isAllowed());
+        assertFalse(repeat.isAllowed());
+        assertTrue(repeat.getRetryAfterMillis() > 0 && repeat.getRetryAfterMillis() <= 1000);
+
+        cache.clear();
+        assertFalse(cache.rejectBlocked(Collections.singletonList(
+                new RateLimitBucket("blocked", "r1", "ip", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1, 1000))));
+    }
+
+    @Test
+    public void testBlockedKeyCacheEviction() throws Exception {
+        // 测试缓存已满时清理过期条目，两次清理之间有最小间隔
+        BlockedKeyCache cache = new BlockedKeyCache(2);
+        cache.recordBlocked(Arrays.asList(createBlockedBucket("a", 1), createBlockedBucket("b", 1)));
+        Thread.sleep(5);
+        cache.recordBlocked(Collections.singletonList(createBlockedBucket("c", 1000)));
+        assertEquals(1, cache.size());
+
+        // 刚清理过，过期的d暂不清理，e不缓存
+        cache.recordBlocked(Collections.singletonList(createBlockedBucket("d", 1)));
+        Thread.sleep(5);
+        cache.recordBlocked(Collections.singletonList(createBlockedBucket("e", 1000)));
+        assertEquals(2, cache.size());
+        assertFalse(cache.rejectBlocked(Collections.singletonList(createBlockedBucket("e", 0))));
+
+        Thread.sleep(110);
+        cache.recordBlocked(Collections.singletonList(createBlockedBucket("e", 1000)));
+        assertEquals(2, cache.size());
+        assertTrue(cache.rejectBlocked(Collections.singletonList(createBlockedBucket("e", 0))));
+    }
+
+    @Test
+    public void testStaticRules() {
+        // 测试静态规则：从YAML加载，按顺序生成ID，按优先级排序，不能修改
+        String yaml = "rules:\n" +
+                "  - name: 登录\n" +
+                "    pathPattern: /api/login\n" +
+                "    bucketCapacity: 5\n" +
+                "    refillRate: 1\n" +
+                "    timeWindow: 1\n" +
+                "    priority: 10\n" +
+                "  - id: api\n" +
+                "    pathPattern: /api/**\n" +
+                "    httpMethods: [GET, POST]\n" +
+                "    bucketCapacity: 100\n" +
+                "    refillRate: 50\n" +
+                "    timeWindow: 1\n" +
+                "    priority: 1\n" +
+                "  - id: disabled\n" +
+                "    pathPattern: /**\n" +
+                "    enabled: false\n";
+        List<RateLimitRule> rules = StaticRateLimitConfigService.loadRules(
+                new ByteArrayResource(yaml.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(3, rules.size());
+        assertEquals(Arrays.asList(HttpMethod.GET, HttpMethod.POST), rules.get(1).getHttpMethods());
+
+        StaticRateLimitConfigService configService = new StaticRateLimitConfigService(rules);
+        List<RateLimitRule> enabled = configService.getEnabledRules();
+        assertEquals(2, enabled.size());
+        assertEquals("api", enabled.get(0).getId());
+        assertEquals("static-1", enabled.get(1).getId());
+        assertSame(enabled, configService.getEnabledRules());
+        assertEquals(3, configService.getAllRules().size());
+        assertTrue(configService.exists("disabled"));
+
+        try {
+            configService.toggleRule("api", false);
+            fail("静态规则不能修改");
+        } catch (UnsupportedOperationException expected) {
+            assertTrue(configService.getRule("api").isEnabled());
+        }
+
+        try {
+            new StaticRateLimitConfigService(Arrays.asList(createLocalRule("dup", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1),
+                    createLocalRule("dup", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1)));
+            fail("规则ID重复");
+        } catch (IllegalArgumentException expected) {
+            // 预期异常
+        }
+    }
+
+    @Test
+    public void testRuleChangeSubscription() {
+        // 测试规则变更订阅：静态规则未开启Redis覆盖时不注册监听，监听容器启动后不建立订阅
+        InMemoryRedis redis = new InMemoryRedis();
+        RedisKeyGenerator keyGenerator = new RedisKeyGenerator("test");
+        List<RateLimitRule> rules = Collections.singletonList(createLocalRule("static-1", RateLimitAlgorithm.TOKEN_BUCKET, 10, 1));
+        StaticRateLimitConfigService staticOnly = new StaticRateLimitConfigService(rules);
+        assertFalse(staticOnly.hasRedisOverrides());
+
+        RedisMessageListenerContainer container = new RateLimitAutoConfiguration.RedisEngineConfiguration()
+                .rateLimitRuleChangeListenerContainer(redis.template().getConnectionFactory(), staticOnly, keyGenerator);
+        List<Runnable> subscriptions = new ArrayList<>();
+        container.setSubscriptionExecutor(subscriptions::add);
+        container.afterPropertiesSet();
+        container.start();
+        assertTrue(subscriptions.isEmpty());
+
+        StaticRateLimitConfigService withOverrides = new StaticRateLimitConfigService(rules,
+                new RedisRateLimitConfigService(redis.template(), keyGenerator, 3600000));
+        try {
+            assertTrue(withOverrides.hasRedisOverrides());
+        } finally {
+            withOverrides.destroy();
+        }
+    }
+
+    private boolean matches(RateLimitRule rule, String method, String path) {
+        if (!AntPathMatcher.match(rule.getPathPattern(), path)) {
+            return false;
+        }
+        return rule.getHttpMethods() == null || rule.getHttpMethods().contains(HttpMethod.fromString(method));
+    }
+
+    private String randomPath(Random random, String[] parts) {
+        StringBuilder path = new StringBuilder();
+        if (random.nextBoolean()) {
+            path.append('/');
+        }
+        int segments = random.nextInt(5);
+        for (int i = 0; i < segments; i++) {
+            if (i > 0) {
+                path.append('/');
+            }
+            path.append(parts[random.nextInt(parts.length)]);
+        }
+        if (random.nextInt(4) == 0) {
+            path.append('/');
+        }
+        return path.toString();
+    }
+
+    private LocalRateLimitService createLocalService(LocalRateLimitConfigService configService, RateLimitProperties properties) {
+        RateLimitStrategyFactory strategyFactory = new RateLimitStrategyFactory(Arrays.<RateLimitStrategy>asList(
+                new PathRateLimitStrategy(), new IpRateLimitStrategy(), new UserRateLimitStrategy()));
+        return new LocalRateLimitService(configService, new LocalRateLimitStatsService(), strategyFactory, properties);
+    }
+
+    /**
+     * 按旧版本的存储格式写入规则：规则ID集合 + 每个规则一个键
+     */
+    private void saveLegacyRule(RedisTemplate<String, Object> template, RedisKeyGenerator keyGenerator, RateLimitRule rule)
+            throws Exception {
+        template.opsForValue().set(keyGenerator.generateRuleConfigKey(rule.getId()), new ObjectMapper().writeValueAsString(rule));
+        template.opsForSet().add(keyGenerator.generateKey(RedisKeyGenerator.RULE_LIST_KEY), rule.getId());
+    }
+
+    private Set<String> withoutMinute(Collection<String> keys, String realtimePrefix) {
+        Set<String> result = new HashSet<>();
+        for (String key : keys) {
+            result.add(key.startsWith(realtimePrefix) ? realtimePrefix : key);
+        }
+        return result;
+    }
+
+    private Set<String> ruleIds(List<RateLimitRule> rules) {
+        Set<String> ids = new HashSet<>();
+        for (RateLimitRule rule : rules) {
+            ids.add(rule.getId());
+        }
+        return ids;
+    }
+
+    private RateLimitBucket createBlockedBucket(String key, long retryAfterMillis) {
+        RateLimitBucket bucket = new RateLimitBucket(key, "r1", "ip", RateLimitAlgorithm.TOKEN_BUCKET, 1, 1, 1000);
+        bucket.setAllowed(false);
+        bucket.setRetryAfterMillis(retryAfterMillis);
+        return bucket;
+    }
+
+    private RedisRateLimitService createRedisService(RedisTemplate<String, Object> template,
+                                                     LocalRateLimitConfigService configService,
+                                                     RateLimitProperties properties) {
+        RateLimitStrategyFactory strategyFactory = new RateLimitStrategyFactory(Arrays.<RateLimitStrategy>asList(
+                new PathRateLimitStrategy(), new IpRateLimitStrategy(), new UserRateLimitStrategy()));
+        return new RedisRateLimitService(template, configService, new LocalRateLimitStatsService(), strategyFactory, properties);
+    }
+
+    private RateLimitBucket createLeaseBucket(String key) {
+        return new RateLimitBucket(key, "lease", RateLimitBucket.DIMENSION_PATH, RateLimitAlgorithm.TOKEN_BUCKET, 20, 10, 1000);
+    }
+
+    private RateLimitRule createLocalRule(String id, RateLimitAlgorithm algorithm, int capacity, int refillRate) {
+        RateLimitRule rule = new RateLimitRule();
+        rule.setId(id);
+        rule.setName(id);
+        rule.setPathPattern("/api/**");
+        rule.setAlgorithm(algorithm);
+        rule.setBucketCapacity(capacity);
+        rule.setRefillRate(refillRate);
+        rule.setTimeWindow(1);
+        rule.setEnabled(true);
+        return rule;
+    }
+
+    /**
+     * 记录令牌桶脚本调用的模板，默认所有令牌桶通过，response不为null时返回指定结果
+     */
+    private static class ScriptRecordingTemplate extends RedisTemplate<String, Object> {
+        private final List<ScriptCall> calls = Collections.synchronizedList(new ArrayList<ScriptCall>());
+        private volatile List<Object> response;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            calls.add(new ScriptCall(keys, args));
+            if (response != null) {
+                return (T) response;
+            }
+            List<Object> result = new ArrayList<>();
+            result.add(1L);
+            for (int i = 1; i < args.length; i += 4) {
+                result.add(1L);
+                result.add(((Number) args[i + 1]).longValue() - 1);
+                result.add(0L);
+            }
+            return (T) result;
+        }
+    }
+
+    private static class ScriptCall {
+        private final List<String> keys;
+        private final Object[] args;
+
+        ScriptCall(List<String> keys, Object[] args) {
+            this.keys = keys;
+            this.args = args;
+        }
+    }
+
+    /**
+     * 内存中的Redis连接，只实现测试用到的命令，并记录每个命令的调用次数
+     */
+    private static class InMemoryRedis implements InvocationHandler {
+        private final Map<String, byte[]> values = new HashMap<>();
+        private final Map<String, Map<String, byte[]>> hashes = new HashMap<>();
+        private final Map<String, Set<String>> sets = new HashMap<>();
+        private final Map<String, Map<String, Double>> zsets = new HashMap<>();
+        private final Map<String, Integer> counts = new HashMap<>();
+        private final List<byte[]> messages = new ArrayList<>();
+        private volatile boolean down;
+        private Runnable pfAddHook;
+
+        RedisTemplate<String, Object> template() {
+            final RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(
+                    RateLimitStarterTest.class.getClassLoader(), new Class<?>[]{RedisConnection.class}, this);
+            RedisConnectionFactory factory = (RedisConnectionFactory) Proxy.newProxyInstance(
+                    RateLimitStarterTest.class.getClassLoader(), new Class<?>[]{RedisConnectionFactory.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            return "getConnection".equals(method.getName()) ? connection : defaultValue(method);
+                        }
+                    });
+            RedisTemplate<String, Object> template = new RedisTemplate<>();
+            template.setConnectionFactory(factory);
+            template.setKeySerializer(new StringRedisSerializer());
+            template.setHashKeySerializer(new StringRedisSerializer());
+            template.setValueSerializer(new GenericJackson2JsonRedisSerializer());
+            template.setHashValueSerializer(new GenericJackson2JsonRedisSerializer());
+            template.afterPropertiesSet();
+            return template;
+        }
+
+        synchronized int totalCount() {
+            int total = 0;
+            for (int count : counts.values()) {
+                total += count;
+            }
+            return total;
+        }
+
+        synchronized int count(String command) {
+            Integer count = counts.get(command);
+            return count != null ? count : 0;
+        }
+
+        synchronized long hashLong(String key, String field) {
+            Map<String, byte[]> hash = hashes.get(key);
+            byte[] value = hash != null ? hash.get(field) : null;
+            return value != null ? Long.parseLong(str(value)) : 0;
+        }
+
+        synchronized Set<String> hashFields(String key) {
+            Map<String, byte[]> hash = hashes.get(key);
+            return hash != null ? new HashSet<>(hash.keySet()) : null;
+        }
+
+        synchronized Set<String> setMembers(String keyPrefix) {
+            Set<String> members = new HashSet<>();
+            for (Map.Entry<String, Set<String>> entry : sets.entrySet()) {
+                if (entry.getKey().startsWith(keyPrefix)) {
+                    members.addAll(entry.getValue());
+                }
+            }
+            return members;
+        }
+
+        synchronized Set<String> zsetMembers(String key) {
+            Map<String, Double> zset = zsets.get(key);
+            return zset != null ? new HashSet<>(zset.keySet()) : null;
+        }
+
+        synchronized Set<String> keys() {
+            Set<String> keys = new HashSet<>(values.keySet());
+            keys.addAll(hashes.keySet());
+            keys.addAll(sets.keySet());
+            keys.addAll(zsets.keySet());
+            return keys;
+        }
+
+        synchronized Message lastMessage() {
+            return new DefaultMessage(new byte[0], messages.get(messages.size() - 1));
+        }
+
+        /**
+         * 下一次PFADD执行前运行一次
+         */
+        synchronized void onPfAdd(Runnable hook) {
+            this.pfAddHook = hook;
+        }
+
+        void setDown(boolean down) {
+            this.down = down;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("close".equals(name) || "isClosed".equals(name) || "isPipelined".equals(name) || "isQueueing".equals(name)) {
+                return defaultValue(method);
+            }
+            if (down) {
+                throw new RedisConnectionFailureException("Redis不可用");
+            }
+            Integer count = counts.get(name);
+            counts.put(name, count != null ? count + 1 : 1);
+            switch (name) {
+                case "get":
+                    return values.get(str(args[0]));
+                case "set":
+                    values.put(str(args[0]), (byte[]) args[1]);
+                    return null;
+                case "exists":
+                    String existsKey = str(args[0]);
+                    return values.containsKey(existsKey) || hashes.containsKey(existsKey) || sets.containsKey(existsKey);
+                case "mGet":
+                    List<byte[]> result = new ArrayList<>();
+                    for (byte[] key : (byte[][]) args[0]) {
+                        result.add(values.get(str(key)));
+                    }
+                    return result;
+                case "del":
+                    long deleted = 0;
+                    for (byte[] key : (byte[][]) args[0]) {
+                        String k = str(key);
+                        if (values.remove(k) != null | hashes.remove(k) != null | sets.remove(k) != null) {
+                            deleted++;
+                        }
+                    }
+                    return deleted;
+                case "hGetAll":
+                    Map<byte[], byte[]> entries = new LinkedHashMap<>();
+                    Map<String, byte[]> hash = hashes.get(str(args[0]));
+                    if (hash != null) {
+                        for (Map.Entry<String, byte[]> entry : hash.entrySet()) {
+                            entries.put(bytes(entry.getKey()), entry.getValue());
+                        }
+                    }
+                    return entries;
+                case "hKeys":
+                    Set<byte[]> fields = new LinkedHashSet<>();
+                    hash = hashes.get(str(args[0]));
+                    if (hash != null) {
+                        for (String field : hash.keySet()) {
+                            fields.add(bytes(field));
+                        }
+                    }
+                    return fields;
+                case "hGet":
+                    hash = hashes.get(str(args[0]));
+                    return hash != null ? hash.get(str(args[1])) : null;
+                case "hMSet":
+                    hash = hash(str(args[0]));
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) args[1]).entrySet()) {
+                        hash.put(str(entry.getKey()), (byte[]) entry.getValue());
+                    }
+                    return null;
+                case "sMembers":
+                    Set<byte[]> members = new LinkedHashSet<>();
+                    Set<String> set = sets.get(str(args[0]));
+                    if (set != null) {
+                        for (String member : set) {
+                            members.add(bytes(member));
+                        }
+                    }
+                    return members;
+                case "sAdd":
+                    set = sets.get(str(args[0]));
+                    if (set == null) {
+                        set = new LinkedHashSet<>();
+                        sets.put(str(args[0]), set);
+                    }
+                    for (byte[] member : (byte[][]) args[1]) {
+                        set.add(str(member));
+                    }
+                    return 1L;
+                case "sRem":
+                    set = sets.get(str(args[0]));
+                    for (byte[] member : (byte[][]) args[1]) {
+                        if (set != null) {
+                            set.remove(str(member));
+                        }
+                    }
+                    return 1L;
+                case "sIsMember":
+                    set = sets.get(str(args[0]));
+                    return set != null && set.contains(str(args[1]));
+                case "eval":
+                    // 规则集合更新脚本：HSET/HDEL后INCR版本
+                    byte[][] keysAndArgs = (byte[][]) args[3];
+                    if (keysAndArgs.length > 3) {
+                        hash(str(keysAndArgs[0])).put(str(keysAndArgs[2]), keysAndArgs[3]);
+                    } else {
+                        hash(str(keysAndArgs[0])).remove(str(keysAndArgs[2]));
+                    }
+                    byte[] version = values.get(str(keysAndArgs[1]));
+                    long next = (version != null ? Long.parseLong(str(version)) : 0) + 1;
+                    values.put(str(keysAndArgs[1]), bytes(String.valueOf(next)));
+                    return next;
+                case "publish":
+                    messages.add((byte[]) args[1]);
+                    return 1L;
+                case "hIncrBy":
+                    hash = hash(str(args[0]));
+                    byte[] current = hash.get(str(args[1]));
+                    long incremented = (current != null ? Long.parseLong(str(current)) : 0) + (Long) args[2];
+                    hash.put(str(args[1]), bytes(String.valueOf(incremented)));
+                    return incremented;
+                case "hSet":
+                    hash(str(args[0])).put(str(args[1]), (byte[]) args[2]);
+                    return true;
+                case "expire":
+                    return true;
+                case "pfAdd":
+                    if (pfAddHook != null) {
+                        Runnable hook = pfAddHook;
+                        pfAddHook = null;
+                        hook.run();
+                    }
+                    // 用精确集合代替HyperLogLog
+                    set = sets.get(str(args[0]));
+                    if (set == null) {
+                        set = new LinkedHashSet<>();
+                        sets.put(str(args[0]), set);
+                    }
+                    for (byte[] member : (byte[][]) args[1]) {
+                        set.add(str(member));
+                    }
+                    return 1L;
+                case "zIncrBy":
+                    Map<String, Double> zset = zsets.get(str(args[0]));
+                    if (zset == null) {
+                        zset = new LinkedHashMap<>();
+                        zsets.put(str(args[0]), zset);
+                    }
+                    Double score = zset.get(str(args[2]));
+                    double incrementedScore = (score != null ? score : 0) + (Double) args[1];
+                    zset.put(str(args[2]), incrementedScore);
+                    return incrementedScore;
+                case "openPipeline":
+                    return null;
+                case "closePipeline":
+                    return Collections.emptyList();
+                default:
+                    throw new UnsupportedOperationException(name);
+            }
+        }
+
+        private Map<String, byte[]> hash(String key) {
+            Map<String, byte[]> hash = hashes.get(key);
+            if (hash == null) {
+                hash = new LinkedHashMap<>();
+                hashes.put(key, hash);
+            }
+            return hash;
+        }
+
+        private static Object defaultValue(Method method) {
+            return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+        }
+
+        private static String str(Object value) {
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+
+        private static byte[] bytes(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+    }
 }
@@ -0,0 +1,36 @@
+package com.marry.ratelimit.model;
+
+/**
+ * 限流算法枚举（与starter中的RateLimitAlgorithm保持一致）
+ */
+public enum RateLimitAlgorithm {
+    /**
+     * 令牌桶
+     */
+    TOKEN_BUCKET("令牌桶"),
+    
+    /**
+     * 通用信元速率算法，每个键只存储一个理论到达时间
+     */
+    GCRA("GCRA"),
+    
+    /**
+     * 固定窗口计数
+     */
+    FIXED_WINDOW("固定窗口"),
+    
+    /**
+     * 滑动窗口计数（近似）
+     */
+    SLIDING_WINDOW("滑动窗口");
+
+    private final String description;
+
+    RateLimitAlgorithm(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
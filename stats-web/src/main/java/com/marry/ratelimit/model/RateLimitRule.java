@@ -3,6 +3,7 @@ package com.marry.ratelimit.model;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 限流规则配置模型
@@ -58,6 +59,16 @@ public class RateLimitRule implements Serializable {
      */
     private int timeWindow;
     
+    /**
+     * 时间窗口单位，高频接口可使用MILLISECONDS设置亚秒级窗口
+     */
+    private TimeUnit timeWindowUnit;
+    
+    /**
+     * 限流算法，默认令牌桶
+     */
+    private RateLimitAlgorithm algorithm;
+    
     /**
      * 是否启用IP维度限流
      */
@@ -88,6 +99,16 @@ public class RateLimitRule implements Serializable {
      */
     private Integer userBucketCapacity;
     
+    /**
+     * IP维度限流算法，为空时使用规则的算法
+     */
+    private RateLimitAlgorithm ipAlgorithm;
+    
+    /**
+     * 用户维度限流算法，为空时使用规则的算法
+     */
+    private RateLimitAlgorithm userAlgorithm;
+    
     /**
      * 优先级（数字越小优先级越高）
      */
@@ -108,6 +129,8 @@ public class RateLimitRule implements Serializable {
         this.updateTime = System.currentTimeMillis();
         this.enabled = true;
         this.priority = 100;
+        this.timeWindowUnit = TimeUnit.SECONDS;
+        this.algorithm = RateLimitAlgorithm.TOKEN_BUCKET;
     }
 
     // Getters and Setters
@@ -185,6 +208,22 @@ public class RateLimitRule implements Serializable {
         this.timeWindow = timeWindow;
     }
 
+    public TimeUnit getTimeWindowUnit() {
+        return timeWindowUnit;
+    }
+    
+    public void setTimeWindowUnit(TimeUnit timeWindowUnit) {
+        this.timeWindowUnit = timeWindowUnit;
+    }
+    
+    public RateLimitAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+    
+    public void setAlgorithm(RateLimitAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+    
     public boolean isEnableIpLimit() {
         return enableIpLimit;
     }
@@ -233,6 +272,22 @@ public class RateLimitRule implements Serializable {
         this.userBucketCapacity = userBucketCapacity;
     }
 
+    public RateLimitAlgorithm getIpAlgorithm() {
+        return ipAlgorithm;
+    }
+    
+    public void setIpAlgorithm(RateLimitAlgorithm ipAlgorithm) {
+        this.ipAlgorithm = ipAlgorithm;
+    }
+    
+    public RateLimitAlgorithm getUserAlgorithm() {
+        return userAlgorithm;
+    }
+    
+    public void setUserAlgorithm(RateLimitAlgorithm userAlgorithm) {
+        this.userAlgorithm = userAlgorithm;
+    }
+
     public int getPriority() {
         return priority;
     }
@@ -8,20 +8,38 @@ import com.marry.ratelimit.util.RedisKeyGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Collectors;
 
 /**
  * 基于Redis的限流配置服务实现
+ * 规则同时写入规则集合Hash，并与规则版本原子更新；变更后发布通知，使用限流组件的应用收到通知后重新加载变更的规则
  */
 @Service
 public class RedisRateLimitConfigService implements RateLimitConfigService {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisRateLimitConfigService.class);
 
+    /**
+     * 更新规则集合中的一个规则并递增规则版本，返回新版本
+     * KEYS[1]: 规则集合键, KEYS[2]: 规则版本键
+     * ARGV[1]: 规则ID, ARGV[2]: 规则JSON（省略时删除规则）
+     */
+    private static final String UPDATE_RULE_SET_SCRIPT =
+        "if #ARGV > 1 then\n" +
+        "    redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])\n" +
+        "else\n" +
+        "    redis.call('HDEL', KEYS[1], ARGV[1])\n" +
+        "end\n" +
+        "return redis.call('INCR', KEYS[2])";
+
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
@@ -47,6 +65,9 @@ public class RedisRateLimitConfigService implements RateLimitConfigService {
             // 添加到规则列表
             redisTemplate.opsForSet().add(redisKeyGenerator.generateKey(RedisKeyGenerator.RULE_LIST_KEY), rule.getId());
 
+            // 更新规则集合并通知各节点
+            publishChange(updateRuleSet(rule.getId(), ruleJson), rule.getId());
+
             logger.info("保存限流规则: {}", rule.getName());
             return rule;
         } catch (Exception e) {
@@ -122,6 +143,9 @@ public class RedisRateLimitConfigService implements RateLimitConfigService {
             // 删除相关的令牌桶数据
             redisTemplate.delete(redisTemplate.keys("rate_limit:bucket:" + ruleId + ":*"));
 
+            // 更新规则集合并通知各节点
+            publishChange(updateRuleSet(ruleId, null), ruleId);
+
             logger.info("删除限流规则: {}", ruleId);
         } catch (Exception e) {
             logger.error("删除限流规则异常: " + ruleId, e);
@@ -172,4 +196,42 @@ public class RedisRateLimitConfigService implements RateLimitConfigService {
             throw new RuntimeException("更新限流规则优先级失败", e);
         }
     }
+
+    /**
+     * 在规则集合中保存或删除一个规则，同时递增规则版本
+     *
+     * @param ruleJson 规则JSON，为null时删除规则
+     * @return 新的规则版本
+     */
+    @SuppressWarnings("unchecked")
+    private long updateRuleSet(String ruleId, String ruleJson) {
+        // 字段和值按模板的Hash序列化方式编码，与opsForHash读取的格式一致
+        RedisSerializer<Object> hashKeySerializer = (RedisSerializer<Object>) redisTemplate.getHashKeySerializer();
+        RedisSerializer<Object> hashValueSerializer = (RedisSerializer<Object>) redisTemplate.getHashValueSerializer();
+        byte[] ruleSetKey = rawKey(RedisKeyGenerator.RULE_SET_KEY);
+        byte[] versionKey = rawKey(RedisKeyGenerator.RULE_VERSION_KEY);
+        byte[][] keysAndArgs = ruleJson != null
+                ? new byte[][]{ruleSetKey, versionKey, hashKeySerializer.serialize(ruleId), hashValueSerializer.serialize(ruleJson)}
+                : new byte[][]{ruleSetKey, versionKey, hashKeySerializer.serialize(ruleId)};
+        Long version = redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.eval(UPDATE_RULE_SET_SCRIPT.getBytes(StandardCharsets.UTF_8), ReturnType.INTEGER, 2, keysAndArgs));
+        return version;
+    }
+
+    /**
+     * 发布"版本号:规则ID"变更通知，发布失败时各节点依靠定时刷新同步
+     */
+    private void publishChange(long version, String ruleId) {
+        try {
+            byte[] message = (version + ":" + ruleId).getBytes(StandardCharsets.UTF_8);
+            redisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.publish(rawKey(RedisKeyGenerator.RULE_CHANGE_CHANNEL), message));
+        } catch (Exception e) {
+            logger.error("发布限流规则变更通知异常: " + ruleId, e);
+        }
+    }
+
+    private byte[] rawKey(String key) {
+        return redisKeyGenerator.generateKey(key).getBytes(StandardCharsets.UTF_8);
+    }
 }
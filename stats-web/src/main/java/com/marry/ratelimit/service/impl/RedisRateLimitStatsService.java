@@ -565,6 +565,8 @@ public class RedisRateLimitStatsService implements RateLimitStatsService {
         List<String> labels = new ArrayList<>();
         List<Long> totalData = new ArrayList<>();
         List<Long> blockedData = new ArrayList<>();
+        List<Long> uniqueIpData = new ArrayList<>();
+        List<Long> uniqueUserData = new ArrayList<>();
 
         try {
             long endTime = System.currentTimeMillis();
@@ -637,11 +639,18 @@ public class RedisRateLimitStatsService implements RateLimitStatsService {
 
                 totalData.add(totalRequests);
                 blockedData.add(blockedRequests);
+
+                // 独立IP/用户数：合并时间段内每分钟的HyperLogLog计算
+                long startMinute = timePoint / (60 * 1000) * (60 * 1000);
+                uniqueIpData.add(countUniqueClients(ruleId, "ip", startMinute, intervalMinutes));
+                uniqueUserData.add(countUniqueClients(ruleId, "user", startMinute, intervalMinutes));
             }
 
             trendData.put("labels", labels);
             trendData.put("totalData", totalData);
             trendData.put("blockedData", blockedData);
+            trendData.put("uniqueIpData", uniqueIpData);
+            trendData.put("uniqueUserData", uniqueUserData);
             trendData.put("intervalMinutes", intervalMinutes);
             trendData.put("dataPoints", maxDataPoints);
 
@@ -651,6 +660,8 @@ public class RedisRateLimitStatsService implements RateLimitStatsService {
             trendData.put("labels", new ArrayList<>());
             trendData.put("totalData", new ArrayList<>());
             trendData.put("blockedData", new ArrayList<>());
+            trendData.put("uniqueIpData", new ArrayList<>());
+            trendData.put("uniqueUserData", new ArrayList<>());
             trendData.put("intervalMinutes", 1);
             trendData.put("dataPoints", 0);
         }
@@ -658,6 +669,22 @@ public class RedisRateLimitStatsService implements RateLimitStatsService {
         return trendData;
     }
 
+    /**
+     * 统计一段时间内访问规则的独立IP/用户数量
+     * 需要启用 rate-limit.stats.unique-clients，未启用时为0
+     *
+     * @param startMinute 起始分钟时间戳
+     * @param intervalMinutes 分钟数
+     */
+    private long countUniqueClients(String ruleId, String dimension, long startMinute, int intervalMinutes) {
+        String[] keys = new String[intervalMinutes];
+        for (int i = 0; i < intervalMinutes; i++) {
+            keys[i] = redisKeyGenerator.generateUniqueClientKey(ruleId, dimension, startMinute + i * 60 * 1000L);
+        }
+        Long size = redisTemplate.opsForHyperLogLog().size(keys);
+        return size != null ? size : 0L;
+    }
+
     @Override
     public List<RateLimitRecord> getRecentRateLimitRecords(int minutes, int limit) {
         List<RateLimitRecord> records = new ArrayList<>();
@@ -19,6 +19,21 @@ public class RedisKeyGenerator {
      */
     public static final String RULE_LIST_KEY = "rate_limit:config:rules";
 
+    /**
+     * 限流规则集合键，Hash结构，字段为规则ID，值为规则JSON
+     */
+    public static final String RULE_SET_KEY = "rate_limit:config:rule_set";
+
+    /**
+     * 限流规则版本键，每次规则变更递增
+     */
+    public static final String RULE_VERSION_KEY = "rate_limit:config:version";
+
+    /**
+     * 限流规则变更通知频道，消息格式为"版本号:规则ID"
+     */
+    public static final String RULE_CHANGE_CHANNEL = "rate_limit:config:changes";
+
     /**
      * 限流统计键前缀
      */
@@ -220,4 +235,16 @@ public class RedisKeyGenerator {
         return redisKeyPrefix + ":" + "rate_limit:realtime:" + ruleId + ":" + currentMinute;
 
     }
+
+    /**
+     * 生成独立IP/用户数统计键（HyperLogLog，按分钟）
+     *
+     * @param ruleId 规则ID
+     * @param dimension 维度（ip、user）
+     * @param minute 分钟起始时间戳
+     * @return Redis键
+     */
+    public String generateUniqueClientKey(String ruleId, String dimension, long minute) {
+        return redisKeyPrefix + ":" + "rate_limit:unique:" + ruleId + ":" + dimension + ":" + minute;
+    }
 }
@@ -197,6 +197,8 @@ const ruleManager = {
                     document.getElementById('bucketCapacity').value = rule.bucketCapacity || 10;
                     document.getElementById('refillRate').value = rule.refillRate || 5;
                     document.getElementById('timeWindow').value = rule.timeWindow || 1;
+                    document.getElementById('timeWindowUnit').value = rule.timeWindowUnit || 'SECONDS';
+                    document.getElementById('algorithm').value = rule.algorithm || 'TOKEN_BUCKET';
 
                     // 设置IP限流配置
                     document.getElementById('enableIpLimit').checked = rule.enableIpLimit || false;
@@ -204,6 +206,7 @@ const ruleManager = {
                         document.getElementById('ipLimitConfig').style.display = 'block';
                         document.getElementById('ipRequestLimit').value = rule.ipRequestLimit || '';
                         document.getElementById('ipBucketCapacity').value = rule.ipBucketCapacity || '';
+                        document.getElementById('ipAlgorithm').value = rule.ipAlgorithm || '';
                     }
 
                     // 设置用户限流配置
@@ -212,6 +215,7 @@ const ruleManager = {
                         document.getElementById('userLimitConfig').style.display = 'block';
                         document.getElementById('userRequestLimit').value = rule.userRequestLimit || '';
                         document.getElementById('userBucketCapacity').value = rule.userBucketCapacity || '';
+                        document.getElementById('userAlgorithm').value = rule.userAlgorithm || '';
                     }
                 }
             })
@@ -687,12 +691,15 @@ if (document.getElementById('ruleForm')) {
         rule.bucketCapacity = parseInt(formData.get('bucketCapacity'));
         rule.refillRate = parseInt(formData.get('refillRate'));
         rule.timeWindow = parseInt(formData.get('timeWindow'));
+        rule.timeWindowUnit = formData.get('timeWindowUnit') || 'SECONDS';
+        rule.algorithm = formData.get('algorithm') || 'TOKEN_BUCKET';
 
         // IP限流配置
         rule.enableIpLimit = formData.has('enableIpLimit');
         if (rule.enableIpLimit) {
             rule.ipRequestLimit = formData.get('ipRequestLimit') ? parseInt(formData.get('ipRequestLimit')) : null;
             rule.ipBucketCapacity = formData.get('ipBucketCapacity') ? parseInt(formData.get('ipBucketCapacity')) : null;
+            rule.ipAlgorithm = formData.get('ipAlgorithm') || null;
         }
 
         // 用户限流配置
@@ -700,6 +707,7 @@ if (document.getElementById('ruleForm')) {
         if (rule.enableUserLimit) {
             rule.userRequestLimit = formData.get('userRequestLimit') ? parseInt(formData.get('userRequestLimit')) : null;
             rule.userBucketCapacity = formData.get('userBucketCapacity') ? parseInt(formData.get('userBucketCapacity')) : null;
+            rule.userAlgorithm = formData.get('userAlgorithm') || null;
         }
 
         // 提交数据
@@ -1366,6 +1374,8 @@ function loadRuleTrendData(ruleId=currentRuleId) {
                 window.detailTrendChart.data.labels = data.labels || [];
                 window.detailTrendChart.data.datasets[0].data = data.totalData || [];
                 window.detailTrendChart.data.datasets[1].data = data.blockedData || [];
+                window.detailTrendChart.data.datasets[2].data = data.uniqueIpData || [];
+                window.detailTrendChart.data.datasets[3].data = data.uniqueUserData || [];
                 window.detailTrendChart.update();
 
                 // 显示数据间隔信息
@@ -1387,6 +1397,8 @@ function loadRuleTrendData(ruleId=currentRuleId) {
                 window.detailTrendChart.data.labels = [];
                 window.detailTrendChart.data.datasets[0].data = [];
                 window.detailTrendChart.data.datasets[1].data = [];
+                window.detailTrendChart.data.datasets[2].data = [];
+                window.detailTrendChart.data.datasets[3].data = [];
                 window.detailTrendChart.update();
             }
         });
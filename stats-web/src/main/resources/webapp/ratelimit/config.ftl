@@ -90,6 +90,15 @@
                     <!-- 令牌桶配置 -->
                     <div class="form-section">
                         <h3>令牌桶配置</h3>
+                        <div class="form-group">
+                            <label for="algorithm">限流算法</label>
+                            <select id="algorithm" name="algorithm">
+                                <option value="TOKEN_BUCKET" selected>令牌桶</option>
+                                <option value="GCRA">GCRA（单键存储，可返回精确重试时间）</option>
+                                <option value="FIXED_WINDOW">固定窗口（限额 = 补充速率 × 时间窗口）</option>
+                                <option value="SLIDING_WINDOW">滑动窗口（限额 = 补充速率 × 时间窗口）</option>
+                            </select>
+                        </div>
                         <div class="form-row">
                             <div class="form-group">
                                 <label for="bucketCapacity">令牌桶容量 *</label>
@@ -104,7 +113,15 @@
                             <div class="form-group">
                                 <label for="timeWindow">时间窗口 *</label>
                                 <input type="number" id="timeWindow" name="timeWindow" required min="1" value="1">
-                                <small>时间窗口（秒）</small>
+                                <small>时间窗口（单位见右侧）</small>
+                            </div>
+                            <div class="form-group">
+                                <label for="timeWindowUnit">时间窗口单位</label>
+                                <select id="timeWindowUnit" name="timeWindowUnit">
+                                    <option value="SECONDS" selected>秒</option>
+                                    <option value="MILLISECONDS">毫秒</option>
+                                </select>
+                                <small>高频接口可使用毫秒级窗口</small>
                             </div>
                         </div>
                     </div>
@@ -130,6 +147,17 @@
                                     <input type="number" id="ipBucketCapacity" name="ipBucketCapacity" min="1">
                                     <small>每个IP的令牌桶容量，不填则使用全局配置</small>
                                 </div>
+                                <div class="form-group">
+                                    <label for="ipAlgorithm">IP限流算法</label>
+                                    <select id="ipAlgorithm" name="ipAlgorithm">
+                                        <option value="" selected>与规则相同</option>
+                                        <option value="TOKEN_BUCKET">令牌桶</option>
+                                        <option value="GCRA">GCRA</option>
+                                        <option value="FIXED_WINDOW">固定窗口</option>
+                                        <option value="SLIDING_WINDOW">滑动窗口</option>
+                                    </select>
+                                    <small>IP数量较多时可选择窗口计数，每个IP只占用一个计数键</small>
+                                </div>
                             </div>
                         </div>
                     </div>
@@ -155,6 +183,17 @@
                                     <input type="number" id="userBucketCapacity" name="userBucketCapacity" min="1">
                                     <small>每个用户的令牌桶容量，不填则使用全局配置</small>
                                 </div>
+                                <div class="form-group">
+                                    <label for="userAlgorithm">用户限流算法</label>
+                                    <select id="userAlgorithm" name="userAlgorithm">
+                                        <option value="" selected>与规则相同</option>
+                                        <option value="TOKEN_BUCKET">令牌桶</option>
+                                        <option value="GCRA">GCRA</option>
+                                        <option value="FIXED_WINDOW">固定窗口</option>
+                                        <option value="SLIDING_WINDOW">滑动窗口</option>
+                                    </select>
+                                    <small>用户数量较多时可选择窗口计数，每个用户只占用一个计数键</small>
+                                </div>
                             </div>
                         </div>
                     </div>
@@ -381,6 +381,22 @@
                             borderColor: 'rgb(255, 99, 132)',
                             backgroundColor: 'rgba(255, 99, 132, 0.2)',
                             tension: 0.1
+                        }, {
+                            label: '独立IP数',
+                            data: [],
+                            borderColor: 'rgb(54, 162, 235)',
+                            backgroundColor: 'rgba(54, 162, 235, 0.2)',
+                            borderDash: [5, 5],
+                            tension: 0.1,
+                            yAxisID: 'clients'
+                        }, {
+                            label: '独立用户数',
+                            data: [],
+                            borderColor: 'rgb(153, 102, 255)',
+                            backgroundColor: 'rgba(153, 102, 255, 0.2)',
+                            borderDash: [5, 5],
+                            tension: 0.1,
+                            yAxisID: 'clients'
                         }]
                     },
                     options: {
@@ -388,6 +404,13 @@
                         scales: {
                             y: {
                                 beginAtZero: true
+                            },
+                            clients: {
+                                position: 'right',
+                                beginAtZero: true,
+                                grid: {
+                                    drawOnChartArea: false
+                                }
                             }
                         }
                     }